@@ -16,6 +16,7 @@ public final class Constants {
     //
 
     public static final String EXTRA_SBRICK_ADDRESS = "EXTRA_SBRICK_ADDRESS";
+    public static final String EXTRA_SBRICK_ADDRESSES = "EXTRA_SBRICK_ADDRESSES";
     public static final String EXTRA_CONTROLLER_PROFILE = "EXTRA_CONTROLLER_PROFILE";
     public static final String EXTRA_CONTROLLER_PROFILES = "EXTRA_CONTROLLER_PROFILES";
     public static final String EXTRA_CONTROLLER_PROFILE_NAME = "EXTRA_CONTROLLER_PROFILE_NAME";
@@ -29,4 +30,5 @@ public final class Constants {
 
     public static final int REQUEST_ENABLE_BLUETOOTH = 0x1000;
     public static final int REQUEST_EDIT_CONTROLLER_ACTION = 0x1001;
+    public static final int REQUEST_SCAN_SBRICKS = 0x1002;
 }
@@ -2,13 +2,17 @@ package com.scn.sbrickcontroller;
 
 import android.app.ProgressDialog;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.graphics.Typeface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.LocalBroadcastManager;
@@ -26,18 +30,21 @@ import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import com.scn.sbrickcontrollerprofilemanager.ControllerAction;
+import com.scn.sbrickcontrollerprofilemanager.CompiledControllerProfile;
+import com.scn.sbrickcontrollerprofilemanager.ControllerConfig;
+import com.scn.sbrickcontrollerprofilemanager.ControllerConfigManagerHolder;
 import com.scn.sbrickcontrollerprofilemanager.ControllerProfile;
 import com.scn.sbrickmanager.SBrick;
 import com.scn.sbrickmanager.SBrickManagerHolder;
+import com.scn.sbrickmanager.SBrickMetrics;
+import com.scn.sbrickmanager.SBrickSessionService;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class ControllerActivity extends ActionBarActivity {
 
@@ -47,19 +54,41 @@ public class ControllerActivity extends ActionBarActivity {
 
     private static final String TAG = ControllerActivity.class.getSimpleName();
     private static final String PROFILES_KEY = "PROFILES_KEY";
+    private static final long MetricsRefreshPeriodMs = 500;
 
     private ArrayList<ControllerProfile> profiles;
     private Map<String, SBrick> sbricksMap;
-    private Map<String, int[]> channelValuesMap;
 
-    private ControllerProfile selectedProfile;
+    // SBricks, the index is the SBrick slot of the compiled profiles.
+    private List<String> sbrickAddresses;
+    private SBrick[] sbricks;
+    private int[][] channelValues;
+
+    private CompiledControllerProfile selectedProfile;
+
+    // The key and axis bindings, taken on resume.
+    private ControllerConfig controllerConfig;
+
+    // Per event work arrays, indexed by SBrick slot * 4 + channel.
+    private int[] newChannelValues;
+    private boolean[] isNewChannelValueSet;
+    private boolean[] isSBrickTouched;
 
     private ProgressDialog progressDialog = null;
 
     private boolean allSBrickOk = true;
 
+    private boolean isSessionServiceBound = false;
+    private SBrickSessionService sessionService = null;
+    private SBrickSessionService.Session session = null;
+    private boolean backgroundConnections = false;
+
     private boolean swapTriggers = false;
 
+    private boolean showMetrics = false;
+    private TextView twMetrics;
+    private final Handler metricsHandler = new Handler();
+
     //
     // Activity overrides
     //
@@ -80,23 +109,34 @@ public class ControllerActivity extends ActionBarActivity {
             profiles = getIntent().getParcelableArrayListExtra(Constants.EXTRA_CONTROLLER_PROFILES);
         }
 
-        selectedProfile = profiles.get(0);
         sbricksMap = new HashMap<>();
-        channelValuesMap = new HashMap<>();
+        sbrickAddresses = new ArrayList<>();
 
         // Find and store the SBricks addressed in the profiles
         for (ControllerProfile profile : profiles) {
-            Collection<String> sbrickAddresses = profile.getSBrickAddresses();
-            for (String address : sbrickAddresses) {
+            Collection<String> profileSBrickAddresses = profile.getSBrickAddresses();
+            for (String address : profileSBrickAddresses) {
+                if (sbricksMap.containsKey(address))
+                    continue;
+
                 SBrick sbrick = SBrickManagerHolder.getManager().getSBrick(address);
                 sbricksMap.put(address, sbrick);
-
-                int[] channelValues = new int[4];
-                channelValues[0] = channelValues[1] = channelValues[2] = channelValues[3] = 0;
-                channelValuesMap.put(address, channelValues);
+                sbrickAddresses.add(address);
             }
         }
 
+        int sbrickCount = sbrickAddresses.size();
+        sbricks = new SBrick[sbrickCount];
+        channelValues = new int[sbrickCount][4];
+        for (int slot = 0; slot < sbrickCount; slot++)
+            sbricks[slot] = sbricksMap.get(sbrickAddresses.get(slot));
+
+        newChannelValues = new int[sbrickCount * 4];
+        isNewChannelValueSet = new boolean[sbrickCount * 4];
+        isSBrickTouched = new boolean[sbrickCount];
+
+        selectedProfile = CompiledControllerProfile.compile(profiles.get(0), sbrickAddresses);
+
         ListView lwProfiles = (ListView)findViewById(R.id.listview_controller_profiles_controller);
         final ControllerProfileListAdapter adapter = new ControllerProfileListAdapter(this, profiles);
         lwProfiles.setAdapter(adapter);
@@ -104,10 +144,12 @@ public class ControllerActivity extends ActionBarActivity {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Log.i(TAG, "lwProfiles.onItemClick - " + position);
-                selectedProfile = profiles.get(position);
+                selectedProfile = CompiledControllerProfile.compile(profiles.get(position), sbrickAddresses);
                 adapter.setSelectedPosition(position);
             }
         });
+
+        twMetrics = (TextView)findViewById(R.id.textview_controller_metrics);
     }
 
     @Override
@@ -115,15 +157,25 @@ public class ControllerActivity extends ActionBarActivity {
         Log.i(TAG, "onResume...");
         super.onResume();
 
-        // Check swap triggers in the default preferences
+        // Check swap triggers, show metrics and background connections in the default preferences
         try {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
             swapTriggers = prefs.getBoolean("swap_triggers", false);
+            showMetrics = prefs.getBoolean("show_metrics", false);
+            backgroundConnections = prefs.getBoolean("background_connections", false);
         }
         catch (Exception ex) {
-            Log.e(TAG, "  Could not read swap-triggers from preferences.", ex);
+            Log.e(TAG, "  Could not read swap-triggers, show-metrics or background-connections from preferences.", ex);
         }
 
+        Helper.applyWriteWithoutResponsePreference(getBaseContext());
+
+        controllerConfig = ControllerConfigManagerHolder.getManager().getConfig();
+
+        twMetrics.setVisibility(showMetrics ? View.VISIBLE : View.GONE);
+        if (showMetrics)
+            metricsHandler.post(metricsRefreshRunnable);
+
         allSBrickOk = true;
         for (Map.Entry<String, SBrick> kvp: sbricksMap.entrySet()) {
             if (kvp.getValue() == null) {
@@ -153,30 +205,19 @@ public class ControllerActivity extends ActionBarActivity {
             filter.addAction(SBrick.ACTION_SBRICK_CHARACTERISTIC_READ);
             LocalBroadcastManager.getInstance(this).registerReceiver(sbrickBroadcastReceiver, filter);
 
-            Log.i(TAG, "  Start the SBrick command processing...");
-            if (SBrickManagerHolder.getManager().startCommandProcessing()) {
-
-                if (connectToSBricks()) {
-                    progressDialog = Helper.showProgressDialog(this, "Connecting to SBrick(s)...", new DialogInterface.OnClickListener() {
-                                @Override
-                                public void onClick(DialogInterface dialog, int which) {
-                            Log.i(TAG, "onClick...");
-                            ControllerActivity.this.finish();
-                        }
-                    });
-                }
-                else {
-                    Helper.showMessageBox(this, "Could not start connecting to SBricks.", new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            Log.i(TAG, "onClick...");
-                            ControllerActivity.this.finish();
-                        }
-                    });
-                }
+            // The session has been kept open in the background.
+            if (isSessionServiceBound) {
+                Log.i(TAG, "  The SBrick session is still open.");
+                if (sessionService != null)
+                    sessionService.setKeepInForeground(backgroundConnections);
+                return;
             }
-            else {
-                Helper.showMessageBox(this, "Could not start the command processing.", new DialogInterface.OnClickListener() {
+
+            // The session is opened when the service is bound.
+            Log.i(TAG, "  Bind the SBrick session service...");
+            isSessionServiceBound = bindService(new Intent(this, SBrickSessionService.class), sessionServiceConnection, Context.BIND_AUTO_CREATE);
+            if (!isSessionServiceBound) {
+                Helper.showMessageBox(this, "Could not start the SBrick session service.", new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         Log.i(TAG, "onClick...");
@@ -192,12 +233,17 @@ public class ControllerActivity extends ActionBarActivity {
         Log.i(TAG, "onPause...");
         super.onPause();
 
+        metricsHandler.removeCallbacks(metricsRefreshRunnable);
+
         if (allSBrickOk) {
             Log.i(TAG, "  Unregister the SBrick local broadcast receiver...");
             LocalBroadcastManager.getInstance(this).unregisterReceiver(sbrickBroadcastReceiver);
 
-            disconnectFromSBricks();
-            SBrickManagerHolder.getManager().stopCommandProcessing();
+            stopAllSBricks();
+
+            // With background connections the session stays open until the activity goes away.
+            if (!backgroundConnections || isFinishing())
+                closeSession();
 
             Log.i(TAG, "  Dismiss the progress dialog if open...");
             if (progressDialog != null) {
@@ -207,6 +253,15 @@ public class ControllerActivity extends ActionBarActivity {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        Log.i(TAG, "onDestroy...");
+
+        closeSession();
+
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         Log.i(TAG, "onOptionsItemSelected...");
@@ -233,29 +288,36 @@ public class ControllerActivity extends ActionBarActivity {
         if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) != 0 && event.getRepeatCount() == 0) {
             //Log.i(TAG, "onKeyDown...");
 
-            for (ControllerAction controllerAction : getControllerActionsForKeyCode(keyCode)) {
+            int button = controllerConfig.getButtonForKeyCode(keyCode);
+            if (button < 0)
+                return true;
 
-                String sbrickAddress = controllerAction.getSBrickAddress();
-                SBrick sbrick = sbricksMap.get(sbrickAddress);
-                int channel = controllerAction.getChannel();
-                boolean invert = controllerAction.getInvert();
-                boolean toggle = controllerAction.getToggle();
-                int maxValue = (255 * controllerAction.getMaxOutput()) / 100;
+            Arrays.fill(isNewChannelValueSet, false);
+            Arrays.fill(isSBrickTouched, false);
 
-                if (!toggle) {
+            int routeEnd = selectedProfile.getButtonRouteEnd(button);
+            for (int route = selectedProfile.getButtonRouteStart(button); route < routeEnd; route++) {
 
-                    int value = invert ? -maxValue : maxValue;
-                    if (sbrick.sendCommand(channel, value))
-                        channelValuesMap.get(sbrickAddress)[channel] = value;
+                int slot = selectedProfile.getButtonRouteSlot(route);
+                int channel = selectedProfile.getButtonRouteChannel(route);
+                int index = slot * 4 + channel;
+                int maxValue = selectedProfile.getButtonRouteValue(route);
+
+                int value;
+                if (!selectedProfile.getButtonRouteToggle(route)) {
+                    value = maxValue;
                 }
                 else {
-
-                    int value = (channelValuesMap.get(sbrickAddress)[channel]) == 0 ? (invert ? -maxValue : maxValue) : 0;
-                    if (sbrick.sendCommand(channel, value))
-                        channelValuesMap.get(sbrickAddress)[channel] = value;
+                    int currentValue = isNewChannelValueSet[index] ? newChannelValues[index] : channelValues[slot][channel];
+                    value = currentValue == 0 ? maxValue : 0;
                 }
+
+                newChannelValues[index] = value;
+                isNewChannelValueSet[index] = true;
+                isSBrickTouched[slot] = true;
             }
 
+            sendNewChannelValues();
             return true;
         }
 
@@ -268,19 +330,27 @@ public class ControllerActivity extends ActionBarActivity {
         if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) != 0 && event.getRepeatCount() == 0) {
             //Log.i(TAG, "onKeyUp...");
 
-            for (ControllerAction controllerAction : getControllerActionsForKeyCode(keyCode)) {
+            int button = controllerConfig.getButtonForKeyCode(keyCode);
+            if (button < 0)
+                return true;
 
-                if (!controllerAction.getToggle()) {
-                    String sbrickAddress = controllerAction.getSBrickAddress();
-                    SBrick sbrick = sbricksMap.get(sbrickAddress);
-                    int channel = controllerAction.getChannel();
+            Arrays.fill(isNewChannelValueSet, false);
+            Arrays.fill(isSBrickTouched, false);
 
-                    int value = 0;
-                    if (sbrick.sendCommand(channel, value))
-                        channelValuesMap.get(sbrickAddress)[channel] = value;
+            int routeEnd = selectedProfile.getButtonRouteEnd(button);
+            for (int route = selectedProfile.getButtonRouteStart(button); route < routeEnd; route++) {
+
+                if (!selectedProfile.getButtonRouteToggle(route)) {
+                    int slot = selectedProfile.getButtonRouteSlot(route);
+                    int index = slot * 4 + selectedProfile.getButtonRouteChannel(route);
+
+                    newChannelValues[index] = 0;
+                    isNewChannelValueSet[index] = true;
+                    isSBrickTouched[slot] = true;
                 }
             }
 
+            sendNewChannelValues();
             return true;
         }
 
@@ -294,36 +364,25 @@ public class ControllerActivity extends ActionBarActivity {
         if ((event.getSource() & InputDevice.SOURCE_JOYSTICK) != 0 && event.getAction() == MotionEvent.ACTION_MOVE) {
             //Log.i(TAG, "  Joystick event.");
 
-            Map<String, Integer[]> channelNewValuesMap = new HashMap<>();
+            Arrays.fill(isNewChannelValueSet, false);
+            Arrays.fill(isSBrickTouched, false);
 
-            processMotionEvent(event, MotionEvent.AXIS_X, ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL, channelNewValuesMap);
-            processMotionEvent(event, MotionEvent.AXIS_Y, ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_VERTICAL, channelNewValuesMap);
-            processMotionEvent(event, MotionEvent.AXIS_Z, ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL, channelNewValuesMap);
-            processMotionEvent(event, MotionEvent.AXIS_RZ, ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_VERTICAL, channelNewValuesMap);
-            processMotionEvent(event, MotionEvent.AXIS_HAT_X, ControllerProfile.CONTROLLER_ACTION_DPAD_HORIZONTAL, channelNewValuesMap);
-            processMotionEvent(event, MotionEvent.AXIS_HAT_Y, ControllerProfile.CONTROLLER_ACTION_DPAD_VERTICAL, channelNewValuesMap);
+            for (int axis = 0; axis < CompiledControllerProfile.AXIS_COUNT; axis++)
+                processMotionEvent(event, axis);
 
-            if (swapTriggers) {
-                processMotionEvent(event, MotionEvent.AXIS_BRAKE, ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER, channelNewValuesMap);
-                processMotionEvent(event, MotionEvent.AXIS_GAS, ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER, channelNewValuesMap);
-            }
-            else {
-                processMotionEvent(event, MotionEvent.AXIS_GAS, ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER, channelNewValuesMap);
-                processMotionEvent(event, MotionEvent.AXIS_BRAKE, ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER, channelNewValuesMap);
-            }
+            for (int slot = 0; slot < sbricks.length; slot++) {
+                if (!isSBrickTouched[slot])
+                    continue;
 
-            for (String sbrickAddress: channelNewValuesMap.keySet()) {
-                SBrick sbrick = sbricksMap.get(sbrickAddress);
+                int[] values = channelValues[slot];
+                int index = slot * 4;
 
-                int[] values = channelValuesMap.get(sbrickAddress);
-                Integer[] newValues = channelNewValuesMap.get(sbrickAddress);
+                int v0 = getChannelValue(values[0], index);
+                int v1 = getChannelValue(values[1], index + 1);
+                int v2 = getChannelValue(values[2], index + 2);
+                int v3 = getChannelValue(values[3], index + 3);
 
-                int v0 = (newValues[0] != null && Math.abs(values[0]) < Math.abs(newValues[0])) ? newValues[0] : values[0];
-                int v1 = (newValues[1] != null && Math.abs(values[1]) < Math.abs(newValues[1])) ? newValues[1] : values[1];
-                int v2 = (newValues[2] != null && Math.abs(values[2]) < Math.abs(newValues[2])) ? newValues[2] : values[2];
-                int v3 = (newValues[3] != null && Math.abs(values[3]) < Math.abs(newValues[3])) ? newValues[3] : values[3];
-
-                sbrick.sendCommand(v0, v1, v2, v3);
+                sbricks[slot].sendCommand(v0, v1, v2, v3);
             }
 
             return true;
@@ -336,32 +395,34 @@ public class ControllerActivity extends ActionBarActivity {
     // Private methods
     //
 
-    private boolean connectToSBricks() {
-        Log.i(TAG, "connectToSBricks...");
+    /**
+     * Stops the motors and forgets the channel values, the drive loop would keep resending them.
+     */
+    private void stopAllSBricks() {
+        Log.i(TAG, "stopAllSBricks");
 
-        boolean isAllOk = true;
         for (SBrick sbrick : sbricksMap.values()) {
-            if (!sbrick.connect()) {
-                isAllOk = false;
-                break;
-            }
-        }
-
-        if (!isAllOk) {
-            Log.w(TAG, "  Failed to connect some of the SBricks.");
-            disconnectFromSBricks();
-            return false;
+            if (sbrick != null)
+                sbrick.stop();
         }
 
-        return true;
+        for (int[] values : channelValues)
+            Arrays.fill(values, 0);
     }
 
-    private void disconnectFromSBricks() {
-        Log.i(TAG, "disconnectFromSBricks");
+    private void closeSession() {
+        Log.i(TAG, "closeSession");
 
-        for (SBrick sbrick : sbricksMap.values()) {
-            if (sbrick != null)
-                sbrick.disconnect();
+        // The connections stay warm for the idle grace period of the service.
+        if (sessionService != null && session != null)
+            sessionService.closeSession(session);
+
+        session = null;
+        sessionService = null;
+
+        if (isSessionServiceBound) {
+            unbindService(sessionServiceConnection);
+            isSessionServiceBound = false;
         }
     }
 
@@ -379,93 +440,159 @@ public class ControllerActivity extends ActionBarActivity {
         return true;
     }
 
-    private void processMotionEvent(MotionEvent event, int motionEventId, String controllerActionId, Map<String, Integer[]> channelNewValuesMap) {
+    private void processMotionEvent(MotionEvent event, int axis) {
 
-        for (ControllerAction controllerAction : selectedProfile.getControllerActions(controllerActionId)) {
-            if (controllerAction == null) {
-                return;
-            }
+        int routeStart = selectedProfile.getAxisRouteStart(axis);
+        int routeEnd = selectedProfile.getAxisRouteEnd(axis);
+        if (routeStart == routeEnd)
+            return;
+
+        // The triggers read each other's bound axis when they are swapped.
+        int motionEventAxis = axis;
+        if (swapTriggers) {
+            if (axis == CompiledControllerProfile.AXIS_LEFT_TRIGGER)
+                motionEventAxis = CompiledControllerProfile.AXIS_RIGHT_TRIGGER;
+            else if (axis == CompiledControllerProfile.AXIS_RIGHT_TRIGGER)
+                motionEventAxis = CompiledControllerProfile.AXIS_LEFT_TRIGGER;
+        }
+
+        int motionEventId = controllerConfig.getMotionEventForAxis(motionEventAxis);
+
+        float axisValue = event.getAxisValue(motionEventId);
 
-            String sbrickAddress = controllerAction.getSBrickAddress();
-            int channel = controllerAction.getChannel();
-            int maxValue = (255 * controllerAction.getMaxOutput()) / 100;
-            int value = (int) (event.getAxisValue(motionEventId) * (controllerAction.getInvert() ? -maxValue : maxValue));
+        for (int route = routeStart; route < routeEnd; route++) {
+
+            int slot = selectedProfile.getAxisRouteSlot(route);
+            int index = slot * 4 + selectedProfile.getAxisRouteChannel(route);
+            int value = (int) (axisValue * selectedProfile.getAxisRouteScale(route));
 
             // Joystick not always goes back to 0 exactly
             if (Math.abs(value) < 10)
                 value = 0;
 
-            if (!channelNewValuesMap.containsKey(sbrickAddress))
-                channelNewValuesMap.put(sbrickAddress, new Integer[4]);
-
-            Integer oldValue = (channelNewValuesMap.get(sbrickAddress))[channel];
-
             // Add the new value to the old. It makes sense if more than one controller action
             // is assigned to the same channel.
-            if (oldValue != null)
-                value = Math.min(255, value + oldValue);
+            if (isNewChannelValueSet[index])
+                value = Math.min(255, value + newChannelValues[index]);
 
-            channelNewValuesMap.get(sbrickAddress)[channel] = new Integer(value);
+            newChannelValues[index] = value;
+            isNewChannelValueSet[index] = true;
+            isSBrickTouched[slot] = true;
         }
     }
 
-    private Set<ControllerAction> getControllerActionsForKeyCode(int keycode) {
-        //Log.i(TAG, "getControllerActionForKeyCode - " + keycode);
-
-        switch (keycode) {
-            case KeyEvent.KEYCODE_BUTTON_A:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_A);
-            case KeyEvent.KEYCODE_BUTTON_B:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_B);
-            case KeyEvent.KEYCODE_BUTTON_X:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_X);
-            case KeyEvent.KEYCODE_BUTTON_Y:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_Y);
-            case KeyEvent.KEYCODE_BUTTON_R1:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER_BUTTON);
-            case KeyEvent.KEYCODE_BUTTON_L1:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER_BUTTON);
-            case KeyEvent.KEYCODE_BUTTON_SELECT:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_SELECT);
-            case KeyEvent.KEYCODE_BUTTON_START:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_START);
-            case KeyEvent.KEYCODE_BUTTON_1:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_1);
-            case KeyEvent.KEYCODE_BUTTON_2:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_2);
-            case KeyEvent.KEYCODE_BUTTON_3:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_3);
-            case KeyEvent.KEYCODE_BUTTON_4:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_4);
-            case KeyEvent.KEYCODE_BUTTON_5:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_5);
-            case KeyEvent.KEYCODE_BUTTON_6:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_6);
-            case KeyEvent.KEYCODE_BUTTON_7:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_7);
-            case KeyEvent.KEYCODE_BUTTON_8:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_8);
-            case KeyEvent.KEYCODE_BUTTON_9:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_9);
-            case KeyEvent.KEYCODE_BUTTON_10:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_10);
-            case KeyEvent.KEYCODE_BUTTON_11:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_11);
-            case KeyEvent.KEYCODE_BUTTON_12:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_12);
-            case KeyEvent.KEYCODE_BUTTON_13:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_13);
-            case KeyEvent.KEYCODE_BUTTON_14:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_14);
-            case KeyEvent.KEYCODE_BUTTON_15:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_15);
-            case KeyEvent.KEYCODE_BUTTON_16:
-                return selectedProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_BUTTON_16);
+    /**
+     * Sends the new button values of every touched SBrick in a single batch,
+     * the channels of an SBrick go out in one drive frame.
+     */
+    private void sendNewChannelValues() {
+
+        for (int slot = 0; slot < sbricks.length; slot++) {
+            if (!isSBrickTouched[slot])
+                continue;
+
+            int index = slot * 4;
+            int channelMask = 0;
+            for (int channel = 0; channel < 4; channel++) {
+                if (isNewChannelValueSet[index + channel])
+                    channelMask |= 1 << channel;
+            }
+
+            if (!sbricks[slot].sendCommands(channelMask, newChannelValues[index], newChannelValues[index + 1],
+                    newChannelValues[index + 2], newChannelValues[index + 3]))
+                continue;
+
+            for (int channel = 0; channel < 4; channel++) {
+                if (isNewChannelValueSet[index + channel])
+                    channelValues[slot][channel] = newChannelValues[index + channel];
+            }
         }
+    }
+
+    private int getChannelValue(int value, int index) {
 
-        return new HashSet<>();
+        // The button value wins unless the new axis value is bigger
+        if (isNewChannelValueSet[index] && Math.abs(value) < Math.abs(newChannelValues[index]))
+            return newChannelValues[index];
+
+        return value;
     }
 
+    private final Runnable metricsRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+
+            StringBuilder sb = new StringBuilder();
+            for (SBrick sbrick : sbricksMap.values()) {
+                if (sbrick == null)
+                    continue;
+
+                SBrickMetrics metrics = sbrick.getMetrics();
+                if (sb.length() > 0)
+                    sb.append('\n');
+
+                sb.append(sbrick.getName()).append(": ").append(metrics.toString());
+            }
+
+            sb.append("\nTime to all ready: ").append(SBrickManagerHolder.getManager().getTimeToAllReadyMs()).append(" ms");
+            int failedConnectionCount = SBrickManagerHolder.getManager().getFailedConnectionCount();
+            if (failedConnectionCount > 0)
+                sb.append(" (").append(failedConnectionCount).append(" failed)");
+
+            twMetrics.setText(sb.toString());
+            metricsHandler.postDelayed(this, MetricsRefreshPeriodMs);
+        }
+    };
+
+    //
+    // Session service connection
+    //
+
+    private final ServiceConnection sessionServiceConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            Log.i(TAG, "sessionServiceConnection.onServiceConnected...");
+
+            sessionService = ((SBrickSessionService.LocalBinder) binder).getService();
+            sessionService.setKeepInForeground(backgroundConnections);
+
+            // The SBricks are connected in parallel, the result arrives in the SBrick broadcasts.
+            session = sessionService.openSession(new ArrayList<>(sbricksMap.values()));
+            if (session == null) {
+                Helper.showMessageBox(ControllerActivity.this, "Could not start connecting to SBricks.", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Log.i(TAG, "onClick...");
+                        ControllerActivity.this.finish();
+                    }
+                });
+                return;
+            }
+
+            if (session.isAllConnected()) {
+                Log.i(TAG, "  All the SBricks are still connected.");
+                return;
+            }
+
+            progressDialog = Helper.showProgressDialog(ControllerActivity.this, "Connecting to SBrick(s)...", new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    Log.i(TAG, "onClick...");
+                    ControllerActivity.this.finish();
+                }
+            });
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Log.i(TAG, "sessionServiceConnection.onServiceDisconnected...");
+
+            sessionService = null;
+            session = null;
+        }
+    };
+
     //
     // Broadcast receiver
     //
@@ -481,6 +608,8 @@ public class ControllerActivity extends ActionBarActivity {
                     Log.i(TAG, "  ACTION_SBRICK_CONNECTED");
 
                     if (isAllSBrickConnected()) {
+                        Log.i(TAG, "  Time to all ready: " + SBrickManagerHolder.getManager().getTimeToAllReadyMs() + " ms");
+
                         if (progressDialog != null) {
                             progressDialog.dismiss();
                             progressDialog = null;
@@ -3,6 +3,7 @@ package com.scn.sbrickcontroller;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.util.Log;
@@ -21,13 +22,17 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.scn.sbrickcontrollerprofilemanager.ControllerProfile;
+import com.scn.sbrickcontrollerprofilemanager.ControllerProfileInfo;
 import com.scn.sbrickcontrollerprofilemanager.ControllerProfileManagerHolder;
 import com.scn.sbrickmanager.SBrickManagerHolder;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ControllerProfileListActivity extends BaseActivity {
 
@@ -36,11 +41,15 @@ public class ControllerProfileListActivity extends BaseActivity {
     //
 
     private static final String TAG = ControllerProfileListActivity.class.getSimpleName();
+    private static final String PENDING_PROFILE_NAMES_KEY = "PENDING_PROFILE_NAMES_KEY";
 
     private ControllerProfileListAdapter controllerProfileListAdapter;
     private ListView listViewControllerProfiles;
     private MenuItem miPlay;
 
+    // The profiles to play once the targeted scan has found their unknown SBricks.
+    private String[] pendingProfileNames = null;
+
     //
     // Fragment overrides
     //
@@ -53,30 +62,32 @@ public class ControllerProfileListActivity extends BaseActivity {
         setContentView(R.layout.activity_controller_profile_list);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
+        if (savedInstanceState != null)
+            pendingProfileNames = savedInstanceState.getStringArray(PENDING_PROFILE_NAMES_KEY);
+
         listViewControllerProfiles = (ListView)findViewById(R.id.listView_controller_profiles);
         listViewControllerProfiles.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 Log.i(TAG, "onItemClick...");
 
-                ControllerProfile profile = (ControllerProfile)controllerProfileListAdapter.getItem(position);
+                ControllerProfileInfo profileInfo = (ControllerProfileInfo)controllerProfileListAdapter.getItem(position);
 
                 // Check if the profile contains controller actions
-                if (profile.getSBrickAddresses().size() == 0) {
+                if (profileInfo.getSBrickAddresses().size() == 0) {
                     Helper.showMessageBox(ControllerProfileListActivity.this, "Please add controller actions to the profile first.", null);
                     return;
                 }
 
                 // Check if the SBricks are known in the profile
-                if (!validateProfile(profile)) {
-                    Helper.showMessageBox(ControllerProfileListActivity.this, "Some of the SBricks in this profile is unknown. Please do a scan and edit the profile.", null);
+                Set<String> unknownSBrickAddresses = new LinkedHashSet<>();
+                if (!validateProfile(profileInfo, unknownSBrickAddresses)) {
+                    offerSBrickScan(unknownSBrickAddresses, profileInfo.getName());
                     return;
                 }
 
                 // Open the controller activity
-                Intent intent = new Intent(ControllerProfileListActivity.this, ControllerActivity.class);
-                intent.putParcelableArrayListExtra(Constants.EXTRA_CONTROLLER_PROFILES, new ArrayList(Arrays.asList(profile)));
-                startActivity(intent);
+                startControllerActivity(profileInfo.getName());
             }
         });
         controllerProfileListAdapter = new ControllerProfileListAdapter(this);
@@ -89,7 +100,7 @@ public class ControllerProfileListActivity extends BaseActivity {
         Log.i(TAG, "onResume...");
         super.onResume();
 
-        controllerProfileListAdapter.notifyDataSetChanged();
+        controllerProfileListAdapter.reload();
     }
 
     @Override
@@ -97,8 +108,42 @@ public class ControllerProfileListActivity extends BaseActivity {
         Log.i(TAG, "onPause...");
         super.onPause();
 
-        if (!ControllerProfileManagerHolder.getManager().saveProfiles()) {
-            Helper.showMessageBox(this, "Could not save controller profiles.", null);
+        ControllerProfileManagerHolder.getManager().flushProfiles();
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        Log.i(TAG, "onSaveInstanceState...");
+        super.onSaveInstanceState(outState);
+
+        outState.putStringArray(PENDING_PROFILE_NAMES_KEY, pendingProfileNames);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        Log.i(TAG, "onActivityResult...");
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == Constants.REQUEST_SCAN_SBRICKS) {
+            Log.i(TAG, "  REQUEST_SCAN_SBRICKS");
+
+            String[] profileNames = pendingProfileNames;
+            pendingProfileNames = null;
+
+            // All the unknown SBricks have been found.
+            if (resultCode == RESULT_OK && profileNames != null)
+                startControllerActivity(profileNames);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        Log.i(TAG, "onStop...");
+        super.onStop();
+
+        // Leaving the profiles, wait for the save to be done.
+        if (isFinishing() && !ControllerProfileManagerHolder.getManager().saveProfiles()) {
+            Log.e(TAG, "  Could not save controller profiles.");
         }
     }
 
@@ -134,31 +179,34 @@ public class ControllerProfileListActivity extends BaseActivity {
             case R.id.menu_item_play:
                 Log.i(TAG, "  menu_item_play");
 
-                ArrayList<ControllerProfile> selectedProfiles = controllerProfileListAdapter.getSelectedProfiles();
-                if (selectedProfiles.size() > 0) {
+                List<ControllerProfileInfo> selectedProfileInfos = controllerProfileListAdapter.getSelectedProfileInfos();
+                if (selectedProfileInfos.size() > 0) {
 
                     // Check if the selected profiles have controller actions and all are valid
                     boolean profilesHaveSBricks = false;
                     boolean profilesValid = true;
-                    for (ControllerProfile profile : selectedProfiles) {
+                    Set<String> unknownSBrickAddresses = new LinkedHashSet<>();
+                    String[] selectedProfileNames = new String[selectedProfileInfos.size()];
+                    for (int i = 0; i < selectedProfileInfos.size(); i++) {
+                        ControllerProfileInfo profileInfo = selectedProfileInfos.get(i);
 
-                        if (profile.getSBrickAddresses().size() > 0)
+                        if (profileInfo.getSBrickAddresses().size() > 0)
                             profilesHaveSBricks = true;
 
-                        if (!validateProfile(profile))
+                        if (!validateProfile(profileInfo, unknownSBrickAddresses))
                             profilesValid = false;
+
+                        selectedProfileNames[i] = profileInfo.getName();
                     }
 
                     if (!profilesHaveSBricks) {
                         Helper.showMessageBox(this, "Please add controller actions to the profile(s) first.", null);
                     }
                     else if (!profilesValid) {
-                        Helper.showMessageBox(this, "Some of the profiles contain unknown SBrick(s), please do a scan.", null);
+                        offerSBrickScan(unknownSBrickAddresses, selectedProfileNames);
                     }
                     else {
-                        Intent intent2 = new Intent(this, ControllerActivity.class);
-                        intent2.putParcelableArrayListExtra(Constants.EXTRA_CONTROLLER_PROFILES, controllerProfileListAdapter.getSelectedProfiles());
-                        startActivity(intent2);
+                        startControllerActivity(selectedProfileNames);
                     }
                 }
                 else {
@@ -175,13 +223,18 @@ public class ControllerProfileListActivity extends BaseActivity {
     // Private methods and classes
     //
 
-    private boolean validateProfile(ControllerProfile profile) {
-        Log.i(TAG, "validateProfile - " + profile.getName());
+    /**
+     * @param unknownSBrickAddresses collects the addresses of the unknown SBricks of the profile.
+     * @return True if all the SBricks of the profile are known.
+     */
+    private boolean validateProfile(ControllerProfileInfo profileInfo, Set<String> unknownSBrickAddresses) {
+        Log.i(TAG, "validateProfile - " + profileInfo.getName());
 
         boolean allSBrickOk = true;
-        for (String sbrickAddress : profile.getSBrickAddresses()) {
+        for (String sbrickAddress : profileInfo.getSBrickAddresses()) {
             if (SBrickManagerHolder.getManager().getSBrick(sbrickAddress) == null) {
                 Log.i(TAG, "  SBrick (" + sbrickAddress + ") is unknown.");
+                unknownSBrickAddresses.add(sbrickAddress);
                 allSBrickOk = false;
             }
         }
@@ -189,12 +242,113 @@ public class ControllerProfileListActivity extends BaseActivity {
         return allSBrickOk;
     }
 
+    /**
+     * Offers a scan that stops as soon as the unknown SBricks have been seen,
+     * the profiles are played if all of them are found.
+     */
+    private void offerSBrickScan(final Set<String> unknownSBrickAddresses, final String... profileNames) {
+        Log.i(TAG, "offerSBrickScan - " + unknownSBrickAddresses.size() + " unknown SBrick(s)");
+
+        Helper.showQuestionDialog(
+                this,
+                unknownSBrickAddresses.size() + " of the SBricks in the profile(s) are unknown. Scan for them now?",
+                "Scan",
+                "Cancel",
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        pendingProfileNames = profileNames;
+
+                        Intent intent = new Intent(ControllerProfileListActivity.this, SBrickListActivity.class);
+                        intent.putExtra(Constants.EXTRA_SBRICK_ADDRESSES, unknownSBrickAddresses.toArray(new String[unknownSBrickAddresses.size()]));
+                        startActivityForResult(intent, Constants.REQUEST_SCAN_SBRICKS);
+                    }
+                },
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Do nothing here
+                    }
+                });
+    }
+
+    private void startControllerActivity(String... profileNames) {
+        Log.i(TAG, "startControllerActivity...");
+
+        new LoadProfilesTask(this, false).execute(profileNames);
+    }
+
+    private void startEditControllerProfileActivity(String profileName) {
+        Log.i(TAG, "startEditControllerProfileActivity - " + profileName);
+
+        new LoadProfilesTask(this, true).execute(profileName);
+    }
+
+    private void onProfilesLoaded(ArrayList<ControllerProfile> profiles, boolean isEditing) {
+        Log.i(TAG, "onProfilesLoaded - " + profiles.size());
+
+        if (isFinishing())
+            return;
+
+        Intent intent;
+        if (isEditing) {
+            if (profiles.size() == 0)
+                return;
+
+            intent = new Intent(this, EditControllerProfileActivity.class);
+            intent.putExtra(Constants.EXTRA_CONTROLLER_PROFILE, profiles.get(0));
+        }
+        else {
+            intent = new Intent(this, ControllerActivity.class);
+            intent.putParcelableArrayListExtra(Constants.EXTRA_CONTROLLER_PROFILES, profiles);
+        }
+
+        startActivity(intent);
+    }
+
+    //
+
+    // The profiles are decoded on their first access, it is done off the main thread.
+    // The task doesn't keep the activity alive, it's dropped if the activity is gone by the time the profiles are loaded.
+    private static class LoadProfilesTask extends AsyncTask<String, Void, ArrayList<ControllerProfile>> {
+
+        private final WeakReference<ControllerProfileListActivity> activityReference;
+        private final boolean isEditing;
+
+        LoadProfilesTask(ControllerProfileListActivity activity, boolean isEditing) {
+            this.activityReference = new WeakReference<>(activity);
+            this.isEditing = isEditing;
+        }
+
+        @Override
+        protected ArrayList<ControllerProfile> doInBackground(String... profileNames) {
+
+            ArrayList<ControllerProfile> profiles = new ArrayList<>();
+            for (String profileName : profileNames) {
+                ControllerProfile profile = ControllerProfileManagerHolder.getManager().getProfile(profileName);
+                if (profile != null)
+                    profiles.add(profile);
+            }
+
+            return profiles;
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<ControllerProfile> profiles) {
+
+            ControllerProfileListActivity activity = activityReference.get();
+            if (activity != null)
+                activity.onProfilesLoaded(profiles, isEditing);
+        }
+    }
+
     //
 
     private static class ControllerProfileListAdapter extends BaseAdapter {
 
         private ControllerProfileListActivity activity;
         private Map<String, Boolean> profileSelectionMap = new HashMap<>();
+        private List<ControllerProfileInfo> profileInfos = new ArrayList<>();
 
         //
         // Constructor
@@ -210,12 +364,12 @@ public class ControllerProfileListActivity extends BaseActivity {
 
         @Override
         public int getCount() {
-            return ControllerProfileManagerHolder.getManager().getProfiles().size();
+            return profileInfos.size();
         }
 
         @Override
         public Object getItem(int position) {
-            return ControllerProfileManagerHolder.getManager().getProfiles().get(position);
+            return profileInfos.get(position);
         }
 
         @Override
@@ -232,29 +386,26 @@ public class ControllerProfileListActivity extends BaseActivity {
                 rowView = inflater.inflate(R.layout.listview_item_controller_profile, parent, false);
             }
 
-            final ControllerProfile profile = (ControllerProfile)getItem(position);
+            final ControllerProfileInfo profileInfo = (ControllerProfileInfo)getItem(position);
 
             CheckBox cbProfileSelection = (CheckBox)rowView.findViewById(R.id.checkbox_select_controller_profile);
             cbProfileSelection.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
                 @Override
                 public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                     Log.i(TAG, "cbProfileSelection.onCheckedChanged...");
-                    profileSelectionMap.put(profile.getName(), isChecked);
+                    profileSelectionMap.put(profileInfo.getName(), isChecked);
                 }
             });
 
             TextView twControllerProfileName = (TextView)rowView.findViewById(R.id.textview_controller_profile_name);
-            twControllerProfileName.setText(profile.getName());
+            twControllerProfileName.setText(profileInfo.getName());
 
             ImageButton btnEditProfile = (ImageButton)rowView.findViewById(R.id.button_edit_controller_profile);
             btnEditProfile.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
                     Log.i(TAG, "btnEditProfile.onClick...");
-
-                    Intent intent = new Intent(activity, EditControllerProfileActivity.class);
-                    intent.putExtra(Constants.EXTRA_CONTROLLER_PROFILE, profile);
-                    activity.startActivity(intent);
+                    activity.startEditControllerProfileActivity(profileInfo.getName());
                 }
             });
 
@@ -273,8 +424,8 @@ public class ControllerProfileListActivity extends BaseActivity {
                                 @Override
                                 public void onClick(DialogInterface dialog, int which) {
                                     Log.i(TAG, "onClick...");
-                                    ControllerProfileManagerHolder.getManager().removeProfile(profile.getName());
-                                    ControllerProfileListAdapter.this.notifyDataSetChanged();
+                                    ControllerProfileManagerHolder.getManager().removeProfile(profileInfo.getName());
+                                    ControllerProfileListAdapter.this.reload();
                                 }
                             },
                             new DialogInterface.OnClickListener() {
@@ -293,19 +444,24 @@ public class ControllerProfileListActivity extends BaseActivity {
         // API
         //
 
-        public ArrayList<ControllerProfile> getSelectedProfiles() {
-            Log.i(TAG, "getSelectedProfiles...");
+        public void reload() {
+            profileInfos = ControllerProfileManagerHolder.getManager().getProfileInfos();
+            notifyDataSetChanged();
+        }
+
+        public List<ControllerProfileInfo> getSelectedProfileInfos() {
+            Log.i(TAG, "getSelectedProfileInfos...");
 
-            ArrayList<ControllerProfile> selectedProfiles = new ArrayList<>();
+            List<ControllerProfileInfo> selectedProfileInfos = new ArrayList<>();
 
-            for (ControllerProfile profile : ControllerProfileManagerHolder.getManager().getProfiles()) {
-                String profileName = profile.getName();
+            for (ControllerProfileInfo profileInfo : profileInfos) {
+                String profileName = profileInfo.getName();
                 if (profileSelectionMap.containsKey(profileName) && profileSelectionMap.get(profileName)) {
-                    selectedProfiles.add(profile);
+                    selectedProfileInfos.add(profileInfo);
                 }
             }
 
-            return selectedProfiles;
+            return selectedProfileInfos;
         }
     }
 }
@@ -27,7 +27,7 @@ import com.scn.sbrickcontrollerprofilemanager.ControllerProfileManagerHolder;
 import com.scn.sbrickmanager.SBrick;
 import com.scn.sbrickmanager.SBrickManagerHolder;
 
-import java.util.Set;
+import java.util.List;
 
 public class EditControllerProfileActivity extends BaseActivity {
 
@@ -88,6 +88,8 @@ public class EditControllerProfileActivity extends BaseActivity {
         Log.i(TAG, "onPause...");
 
         super.onPause();
+
+        ControllerProfileManagerHolder.getManager().flushProfiles();
     }
 
     @Override
@@ -244,7 +246,7 @@ public class EditControllerProfileActivity extends BaseActivity {
             else {
                 // Controller action
                 String controllerActionId = getControllerActionId(position);
-                Set<ControllerAction> controllerActions = profile.getControllerActions(controllerActionId);
+                List<ControllerAction> controllerActions = profile.getControllerActions(controllerActionId);
                 return controllerActions;
             }
         }
@@ -291,7 +293,7 @@ public class EditControllerProfileActivity extends BaseActivity {
                         rowView = inflater.inflate(R.layout.listview_item_controller_actions, parent, false);
 
                     final String controllerActionName = ControllerProfile.getControllerActionName(getControllerActionId(position));
-                    final Set<ControllerAction> controllerActions = (Set<ControllerAction>)getItem(position);
+                    final List<ControllerAction> controllerActions = (List<ControllerAction>)getItem(position);
 
                     // Set controller action name
                     TextView twControllerActionName = (TextView)rowView.findViewById(R.id.textview_controller_action_name);
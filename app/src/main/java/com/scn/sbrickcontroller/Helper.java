@@ -7,9 +7,13 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.scn.sbrickmanager.SBrickManagerHolder;
+
 /**
  * Helper class.
  */
@@ -131,4 +135,20 @@ class Helper {
         dialog.show();
         return dialog;
     }
+
+    /**
+     * Applies the write without response setting of the default preferences to the SBrick manager.
+     * @param context is the current context.
+     */
+    public static void applyWriteWithoutResponsePreference(Context context) {
+        Log.i(TAG, "applyWriteWithoutResponsePreference...");
+
+        try {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            SBrickManagerHolder.getManager().setWriteWithoutResponse(prefs.getBoolean("write_without_response", false));
+        }
+        catch (Exception ex) {
+            Log.e(TAG, "  Could not read write-without-response from preferences.", ex);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.scn.sbrickcontroller;
 
 import android.app.Application;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.scn.sbrickcontrollerprofilemanager.ControllerConfigManagerHolder;
@@ -27,6 +28,8 @@ public class MyApplication extends Application {
         Log.i(TAG, "onCreate...");
         super.onCreate();
 
+        long startTime = SystemClock.elapsedRealtime();
+
         SBrickManagerHolder.CreateSBrickManagerSingleton(this);
         SBrickManagerHolder.getManager().loadSBricks();
 
@@ -35,5 +38,9 @@ public class MyApplication extends Application {
 
         ControllerConfigManagerHolder.createControllerConfigManager(this);
         ControllerConfigManagerHolder.getManager().loadConfig();
+
+        // The cold start cost of the loading, it shouldn't grow with the profile library.
+        Log.i(TAG, "  Loading done in " + (SystemClock.elapsedRealtime() - startTime) + " ms, " +
+                ControllerProfileManagerHolder.getManager().getProfileInfos().size() + " profile(s).");
     }
 }
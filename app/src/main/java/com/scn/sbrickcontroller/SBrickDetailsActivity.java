@@ -2,11 +2,14 @@ package com.scn.sbrickcontroller;
 
 import android.app.ProgressDialog;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBarActivity;
@@ -27,8 +30,11 @@ import android.widget.TextView;
 import com.scn.sbrickmanager.SBrick;
 import com.scn.sbrickmanager.SBrickCharacteristicType;
 import com.scn.sbrickmanager.SBrickManagerHolder;
+import com.scn.sbrickmanager.SBrickSessionService;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import javax.xml.datatype.Duration;
 
@@ -58,6 +64,10 @@ public class SBrickDetailsActivity extends BaseActivity {
 
     private ProgressDialog progressDialog;
 
+    private boolean isSessionServiceBound = false;
+    private SBrickSessionService sessionService = null;
+    private SBrickSessionService.Session session = null;
+
     //
     // Activity overrides
     //
@@ -120,26 +130,15 @@ public class SBrickDetailsActivity extends BaseActivity {
         filter.addAction(SBrick.ACTION_SBRICK_CHARACTERISTIC_READ);
         LocalBroadcastManager.getInstance(this).registerReceiver(sbrickBroadcastReceiver, filter);
 
-        Log.i(TAG, "  Start the SBrick command processing...");
-        SBrickManagerHolder.getManager().startCommandProcessing();
+        Helper.applyWriteWithoutResponsePreference(getBaseContext());
 
-        if (sbrick.connect()) {
-            progressDialog = Helper.showProgressDialog(
-                    SBrickDetailsActivity.this,
-                    "Connecting to SBrick...",
-                    new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            Log.i(TAG, "onClick...");
-                            sbrick.disconnect();
-                            finish();
-                        }
-                    });
-        }
-        else {
+        // The session is opened when the service is bound.
+        Log.i(TAG, "  Bind the SBrick session service...");
+        isSessionServiceBound = bindService(new Intent(this, SBrickSessionService.class), sessionServiceConnection, Context.BIND_AUTO_CREATE);
+        if (!isSessionServiceBound) {
             Helper.showMessageBox(
                     SBrickDetailsActivity.this,
-                    "Failed to start connecting to SBrick.",
+                    "Could not start the SBrick session service.",
                     new DialogInterface.OnClickListener() {
                         @Override
                         public void onClick(DialogInterface dialog, int which) {
@@ -157,11 +156,18 @@ public class SBrickDetailsActivity extends BaseActivity {
         Log.i(TAG, "  Unregister the SBrick local broadcast receiver...");
         LocalBroadcastManager.getInstance(this).unregisterReceiver(sbrickBroadcastReceiver);
 
-        Log.i(TAG, "  Disconnect from the SBrick...");
-        sbrick.disconnect();
+        // The connection stays warm for the idle grace period of the service.
+        Log.i(TAG, "  Close the SBrick session...");
+        if (sessionService != null && session != null)
+            sessionService.closeSession(session);
+
+        session = null;
+        sessionService = null;
 
-        Log.i(TAG, "  Stop the SBrick command processing...");
-        SBrickManagerHolder.getManager().stopCommandProcessing();
+        if (isSessionServiceBound) {
+            unbindService(sessionServiceConnection);
+            isSessionServiceBound = false;
+        }
 
         Log.i(TAG, "  Dismiss the progress dialog if open...");
         if (progressDialog != null) {
@@ -256,17 +262,24 @@ public class SBrickDetailsActivity extends BaseActivity {
     // Private methods and classes
     //
 
-    private final SeekBar.OnSeekBarChangeListener seekBarChangeListener = new SeekBar.OnSeekBarChangeListener() {
+    private void readCharacteristics() {
+        Log.i(TAG, "readCharacteristics...");
+
+        sbrick.readCharacteristic(SBrickCharacteristicType.DeviceName);
+        sbrick.readCharacteristic(SBrickCharacteristicType.FirmwareRevision);
+        sbrick.readCharacteristic(SBrickCharacteristicType.HardwareRevision);
+        sbrick.readCharacteristic(SBrickCharacteristicType.SoftwareRevision);
+        sbrick.readCharacteristic(SBrickCharacteristicType.ManufacturerName);
+        sbrick.readCharacteristic(SBrickCharacteristicType.ModelNumber);
+        sbrick.readCharacteristic(SBrickCharacteristicType.Appearance);
+    }
 
-        private long lastSendCommand;
+    private final SeekBar.OnSeekBarChangeListener seekBarChangeListener = new SeekBar.OnSeekBarChangeListener() {
 
         @Override
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
 
-            // Prevent too fast command sending
-            long duration = System.currentTimeMillis() - lastSendCommand;
-            if (duration < 100) return;
-
+            // Only sets the target values, the drive loop limits the command rate.
             int value1 = getPortValue(sbPort1);
             int value2 = getPortValue(sbPort2);
             int value3 = getPortValue(sbPort3);
@@ -275,8 +288,6 @@ public class SBrickDetailsActivity extends BaseActivity {
             if (!sbrick.sendCommand(value1, value2, value3, value4)) {
                 Log.i(TAG, "Failed to send command.");
             }
-
-            lastSendCommand = System.currentTimeMillis();
         }
 
         @Override
@@ -301,6 +312,59 @@ public class SBrickDetailsActivity extends BaseActivity {
         }
     };
 
+    private final ServiceConnection sessionServiceConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            Log.i(TAG, "sessionServiceConnection.onServiceConnected...");
+
+            sessionService = ((SBrickSessionService.LocalBinder) binder).getService();
+
+            List<SBrick> sbricks = new ArrayList<>();
+            sbricks.add(sbrick);
+
+            session = sessionService.openSession(sbricks);
+            if (session == null) {
+                Helper.showMessageBox(
+                        SBrickDetailsActivity.this,
+                        "Failed to start connecting to SBrick.",
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                finish();
+                            }
+                        });
+                return;
+            }
+
+            if (session.isAllConnected()) {
+                Log.i(TAG, "  SBrick is still connected.");
+                readCharacteristics();
+                return;
+            }
+
+            progressDialog = Helper.showProgressDialog(
+                    SBrickDetailsActivity.this,
+                    "Connecting to SBrick...",
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            Log.i(TAG, "onClick...");
+                            sbrick.disconnect();
+                            finish();
+                        }
+                    });
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Log.i(TAG, "sessionServiceConnection.onServiceDisconnected...");
+
+            sessionService = null;
+            session = null;
+        }
+    };
+
     private final BroadcastReceiver sbrickBroadcastReceiver = new BroadcastReceiver() {
 
         @Override
@@ -316,14 +380,7 @@ public class SBrickDetailsActivity extends BaseActivity {
                         progressDialog = null;
                     }
 
-                    sbrick.readCharacteristic(SBrickCharacteristicType.DeviceName);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.FirmwareRevision);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.HardwareRevision);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.SoftwareRevision);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.ManufacturerName);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.ModelNumber);
-                    sbrick.readCharacteristic(SBrickCharacteristicType.Appearance);
-
+                    readCharacteristics();
                     break;
 
                 case SBrick.ACTION_SBRICK_CONNECT_FAILED:
@@ -7,8 +7,11 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.AsyncTask;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
@@ -29,10 +32,15 @@ import android.widget.TextView;
 import com.scn.sbrickmanager.SBrick;
 import com.scn.sbrickmanager.SBrickManager;
 import com.scn.sbrickmanager.SBrickManagerHolder;
+import com.scn.sbrickmanager.SBrickScanMode;
+import com.scn.sbrickmanager.SBrickScanSession;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 public class SBrickListActivity extends BaseActivity {
 
@@ -42,8 +50,19 @@ public class SBrickListActivity extends BaseActivity {
 
     private static final String TAG = SBrickListActivity.class.getSimpleName();
 
+    private static final int MaxScanSeconds = 20;
+
     private SBrickListAdapter sbrickListAdapter;
-    private AsyncTask<Void, Integer, Void> scanAsyncTask;
+
+    // The SBricks to look for if the activity has been started to find them (e.g. the unknown SBricks of a profile),
+    // the targeted scan stops as soon as all of them have been seen.
+    private List<String> targetSBrickAddresses = null;
+    private boolean isTargetScanPending = false;
+
+    private SBrickScanSession scanSession = null;
+    private long scanStartTime = 0;
+    private ProgressDialog progressDialog = null;
+    private final Handler scanProgressHandler = new Handler();
 
     private ListView listViewSBricks;
 
@@ -65,8 +84,7 @@ public class SBrickListActivity extends BaseActivity {
                 Log.i(TAG, "onItemClick...");
 
                 // Open the SBrick details fragment
-                List<SBrick> sbrickList = SBrickManagerHolder.getManager().getSBricks();
-                SBrick sbrick = sbrickList.get(position);
+                SBrick sbrick = (SBrick)sbrickListAdapter.getItem(position);
                 String selectedSBrickAddress = sbrick.getAddress();
 
                 Intent intent = new Intent(SBrickListActivity.this, SBrickDetailsActivity.class);
@@ -77,6 +95,12 @@ public class SBrickListActivity extends BaseActivity {
         sbrickListAdapter = new SBrickListAdapter(this);
         listViewSBricks.setAdapter(sbrickListAdapter);
         listViewSBricks.setEmptyView(findViewById(R.id.textview_empty_sbricks));
+
+        String[] sbrickAddresses = getIntent().getStringArrayExtra(Constants.EXTRA_SBRICK_ADDRESSES);
+        if (sbrickAddresses != null && sbrickAddresses.length > 0) {
+            targetSBrickAddresses = Arrays.asList(sbrickAddresses);
+            isTargetScanPending = savedInstanceState == null;
+        }
     }
 
     @Override
@@ -86,10 +110,17 @@ public class SBrickListActivity extends BaseActivity {
 
         Log.i(TAG, "  Register the SBrick local broadcast reveiver...");
         IntentFilter filter = new IntentFilter();
-        filter.addAction(SBrickManager.ACTION_FOUND_AN_SBRICK);
+        filter.addAction(SBrickManager.ACTION_SBRICK_SCAN_RESULTS);
+        filter.addAction(SBrickManager.ACTION_SBRICK_SCAN_FINISHED);
         LocalBroadcastManager.getInstance(this).registerReceiver(sbrickBroadcastReceiver, filter);
 
-        sbrickListAdapter.notifyDataSetChanged();
+        sbrickListAdapter.reload();
+
+        // The receiver is registered, the scan finished broadcast can't be missed.
+        if (isTargetScanPending) {
+            isTargetScanPending = false;
+            startScan();
+        }
     }
 
     @Override
@@ -100,13 +131,14 @@ public class SBrickListActivity extends BaseActivity {
         Log.i(TAG, "  Unregister the SBrick local broadcast receiver...");
         LocalBroadcastManager.getInstance(this).unregisterReceiver(sbrickBroadcastReceiver);
 
-        SBrickManagerHolder.getManager().stopSBrickScan();
-        SBrickManagerHolder.getManager().saveSBricks();
-
-        if (scanAsyncTask != null) {
+        if (scanSession != null) {
             Log.i(TAG, "  Cancel the scanning...");
-            scanAsyncTask.cancel(true);
+            scanSession.cancel();
         }
+        dismissScanProgress();
+
+        SBrickManagerHolder.getManager().stopSBrickScan();
+        SBrickManagerHolder.getManager().saveSBricks();
     }
 
     @Override
@@ -134,76 +166,7 @@ public class SBrickListActivity extends BaseActivity {
             case R.id.menu_item_start_scan:
                 Log.i(TAG, "  menu_item_start_scan");
 
-                if (SBrickManagerHolder.getManager().startSBrickScan()) {
-
-                    scanAsyncTask = new AsyncTask<Void, Integer, Void>() {
-
-                        private static final int MaxProgress = 20;
-                        private ProgressDialog progressDialog;
-
-                        @Override
-                        protected void onPreExecute() {
-                            Log.i(TAG, "  scanAsyncTask.onPreExecute...");
-
-                            progressDialog = Helper.showProgressDialog(SBrickListActivity.this, "Scanning for SBricks...", MaxProgress, new DialogInterface.OnClickListener() {
-                                @Override
-                                public void onClick(DialogInterface dialog, int which) {
-                                    Log.i(TAG, "progressDialog.onClick...");
-                                    scanAsyncTask.cancel(true);
-                                }
-                            });
-                        }
-
-                        @Override
-                        protected Void doInBackground(Void... params) {
-                            try {
-                                for (int progress = 0 ; progress <= MaxProgress; progress++) {
-                                    Thread.sleep(1000);
-                                    if (isCancelled())
-                                        break;
-
-                                    publishProgress(progress);
-                                }
-                            }
-                            catch (Exception ex) {}
-
-                            return null;
-                        }
-
-                        @Override
-                        protected void onProgressUpdate(Integer... progress) {
-                            Log.i(TAG, "  scanAsyncTask.onProgressUpdate - " + progress[0]);
-
-                            if (progressDialog != null)
-                                progressDialog.setProgress(progress[0]);
-                        }
-
-                        @Override
-                        protected void onPostExecute(Void aVoid) {
-                            Log.i(TAG, "  scanAsyncTask.onPostExecute - ");
-                            cleanup();
-                        }
-
-                        @Override
-                        protected void onCancelled() {
-                            Log.i(TAG, "  scanAsyncTask.onCancelled - ");
-                            cleanup();
-                        }
-
-                        private void cleanup() {
-                            if (progressDialog != null) {
-                                progressDialog.dismiss();
-                                progressDialog = null;
-                            }
-                            SBrickManagerHolder.getManager().stopSBrickScan();
-                            scanAsyncTask = null;
-                        }
-                    }.execute();
-                }
-                else {
-                    Helper.showMessageBox(SBrickListActivity.this, "Could not start scanning for SBricks.", null);
-                }
-
+                startScan();
                 return true;
         }
 
@@ -221,35 +184,188 @@ public class SBrickListActivity extends BaseActivity {
 
             switch (intent.getAction()) {
 
-                case SBrickManager.ACTION_FOUND_AN_SBRICK:
-                    Log.i(TAG, "  ACTION_FOUND_AN_SBRICK");
+                case SBrickManager.ACTION_SBRICK_SCAN_RESULTS:
+                    Log.i(TAG, "  ACTION_SBRICK_SCAN_RESULTS");
+
+                    String[] addedAddresses = intent.getStringArrayExtra(SBrickManager.EXTRA_ADDED_SBRICK_ADDRESSES);
+                    String[] updatedAddresses = intent.getStringArrayExtra(SBrickManager.EXTRA_UPDATED_SBRICK_ADDRESSES);
+                    String[] removedAddresses = intent.getStringArrayExtra(SBrickManager.EXTRA_REMOVED_SBRICK_ADDRESSES);
+                    Log.i(TAG, "  Added: " + addedAddresses.length + ", updated: " + updatedAddresses.length + ", removed: " + removedAddresses.length);
+
+                    // The list is only rebuilt when SBricks came or went, RSSI updates rebind the visible rows.
+                    if (!sbrickListAdapter.applyScanResults(addedAddresses, removedAddresses))
+                        rebindRows(updatedAddresses);
+                    break;
+
+                case SBrickManager.ACTION_SBRICK_SCAN_FINISHED:
+                    String state = intent.getStringExtra(SBrickManager.EXTRA_SCAN_SESSION_STATE);
+                    Log.i(TAG, "  ACTION_SBRICK_SCAN_FINISHED - " + state);
 
-                    String sbrickName = intent.getStringExtra(SBrickManager.EXTRA_SBRICK_NAME);
-                    String sbrickAddress = intent.getStringExtra(SBrickManager.EXTRA_SBRICK_ADDRESS);
-                    Log.i(TAG, "  SBrick name   : " + sbrickName);
-                    Log.i(TAG, "  Sbrick address: " + sbrickAddress);
-                    sbrickListAdapter.notifyDataSetChanged();
+                    boolean isOwnScanFinished = scanSession != null;
+                    dismissScanProgress();
+
+                    if (isOwnScanFinished && targetSBrickAddresses != null)
+                        onTargetScanFinished(SBrickScanSession.State.valueOf(state));
                     break;
             }
         }
     };
 
+    private final Runnable scanProgressRunnable = new Runnable() {
+        @Override
+        public void run() {
+
+            if (progressDialog == null)
+                return;
+
+            progressDialog.setProgress((int) TimeUnit.MILLISECONDS.toSeconds(SystemClock.elapsedRealtime() - scanStartTime));
+            scanProgressHandler.postDelayed(this, 1000);
+        }
+    };
+
+    /**
+     * Starts a scan session with the scan mode of the preferences.
+     * It stops as soon as the target SBricks (if any) have been seen, otherwise at the timeout.
+     */
+    private void startScan() {
+        Log.i(TAG, "startScan...");
+
+        // Check the scan mode in the default preferences
+        try {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+            SBrickManagerHolder.getManager().setScanMode(SBrickScanMode.valueOf(prefs.getString("scan_mode", SBrickScanMode.LowLatency.name())));
+        }
+        catch (Exception ex) {
+            Log.e(TAG, "  Could not read scan-mode from preferences.", ex);
+        }
+
+        // The number of the SBricks around is unknown for a plain scan, it goes on until the timeout or the user stops it.
+        long timeoutMs = TimeUnit.SECONDS.toMillis(MaxScanSeconds);
+        scanSession = SBrickManagerHolder.getManager().startScanSession(targetSBrickAddresses != null ?
+                SBrickScanSession.StopCondition.addressesSeen(targetSBrickAddresses, timeoutMs) :
+                SBrickScanSession.StopCondition.timeout(timeoutMs));
+        if (scanSession != null) {
+
+            scanStartTime = SystemClock.elapsedRealtime();
+            progressDialog = Helper.showProgressDialog(SBrickListActivity.this, "Scanning for SBricks...", MaxScanSeconds, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    Log.i(TAG, "progressDialog.onClick...");
+                    if (scanSession != null)
+                        scanSession.cancel();
+                }
+            });
+            scanProgressHandler.post(scanProgressRunnable);
+        }
+        else {
+            Helper.showMessageBox(SBrickListActivity.this, "Could not start scanning for SBricks.", null);
+        }
+    }
+
+    private void onTargetScanFinished(SBrickScanSession.State state) {
+        Log.i(TAG, "onTargetScanFinished - " + state);
+
+        switch (state) {
+
+            case GoalReached:
+                // Back to the caller, it can go on with the SBricks found.
+                setResult(RESULT_OK);
+                finish();
+                break;
+
+            case TimedOut:
+                int missingCount = 0;
+                for (String sbrickAddress : targetSBrickAddresses) {
+                    if (SBrickManagerHolder.getManager().getSBrick(sbrickAddress) == null)
+                        missingCount++;
+                }
+                Helper.showMessageBox(this, missingCount + " of the SBricks could not be found. Please switch them on and scan again or edit the profile.", null);
+                break;
+        }
+    }
+
+    private void rebindRows(String[] sbrickAddresses) {
+
+        int firstPosition = listViewSBricks.getFirstVisiblePosition();
+        for (String sbrickAddress : sbrickAddresses) {
+            int position = sbrickListAdapter.indexOf(sbrickAddress);
+            View rowView = listViewSBricks.getChildAt(position - firstPosition);
+            if (position >= 0 && rowView != null)
+                sbrickListAdapter.getView(position, rowView, listViewSBricks);
+        }
+    }
+
+    private void dismissScanProgress() {
+
+        scanProgressHandler.removeCallbacks(scanProgressRunnable);
+        if (progressDialog != null) {
+            progressDialog.dismiss();
+            progressDialog = null;
+        }
+        scanSession = null;
+    }
+
     private static class SBrickListAdapter extends BaseAdapter {
 
         private Context context;
+        private final List<SBrick> sbricks = new ArrayList<>();
 
         SBrickListAdapter(Context context) {
             this.context = context;
         }
 
+        void reload() {
+            sbricks.clear();
+            sbricks.addAll(SBrickManagerHolder.getManager().getSBricks());
+            notifyDataSetChanged();
+        }
+
+        /**
+         * Adds and removes the SBricks of a scan results batch.
+         * @return True if the list has changed.
+         */
+        boolean applyScanResults(String[] addedAddresses, String[] removedAddresses) {
+
+            boolean isChanged = false;
+
+            for (String sbrickAddress : removedAddresses) {
+                int position = indexOf(sbrickAddress);
+                if (position >= 0) {
+                    sbricks.remove(position);
+                    isChanged = true;
+                }
+            }
+
+            for (String sbrickAddress : addedAddresses) {
+                SBrick sbrick = SBrickManagerHolder.getManager().getSBrick(sbrickAddress);
+                if (sbrick != null && indexOf(sbrickAddress) < 0) {
+                    sbricks.add(sbrick);
+                    isChanged = true;
+                }
+            }
+
+            if (isChanged)
+                notifyDataSetChanged();
+
+            return isChanged;
+        }
+
+        int indexOf(String sbrickAddress) {
+            for (int i = 0; i < sbricks.size(); i++) {
+                if (sbricks.get(i).getAddress().equals(sbrickAddress))
+                    return i;
+            }
+            return -1;
+        }
+
         @Override
         public int getCount() {
-            return SBrickManagerHolder.getManager().getSBricks().size();
+            return sbricks.size();
         }
 
         @Override
         public Object getItem(int position) {
-            return SBrickManagerHolder.getManager().getSBricks().get(position);
+            return sbricks.get(position);
         }
 
         @Override
@@ -271,7 +387,8 @@ public class SBrickListActivity extends BaseActivity {
             TextView twSBrickName = (TextView)rowView.findViewById(R.id.textview_sbrick_name);
             TextView twSBrickAddress = (TextView)rowView.findViewById(R.id.textview_sbrick_address);
             twSBrickName.setText(sbrick.getName());
-            twSBrickAddress.setText(sbrick.getAddress());
+            int rssi = SBrickManagerHolder.getManager().getRssi(sbrick.getAddress());
+            twSBrickAddress.setText(rssi != SBrickManager.RSSI_UNKNOWN ? sbrick.getAddress() + " (" + rssi + " dBm)" : sbrick.getAddress());
 
             ImageButton btnRenameSBrick = (ImageButton)rowView.findViewById(R.id.button_rename_sbrick);
             btnRenameSBrick.setOnClickListener(new View.OnClickListener() {
@@ -323,6 +440,7 @@ public class SBrickListActivity extends BaseActivity {
                                 public void onClick(DialogInterface dialog, int which) {
                                     Log.i(TAG, "onClick...");
                                     SBrickManagerHolder.getManager().forgetSBrick(sbrick.getAddress());
+                                    sbricks.remove(sbrick);
                                     SBrickListAdapter.this.notifyDataSetChanged();
                                 }
                             },
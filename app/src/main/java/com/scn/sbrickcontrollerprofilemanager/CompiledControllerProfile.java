@@ -0,0 +1,238 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Controller profile compiled into flat routing arrays.
+ * Every axis and button has a range of routes, a route is (SBrick slot, channel, value).
+ * The SBrick slots are the indices in the SBrick address list given at compile time.
+ * Looking up the routes of an input doesn't allocate and doesn't hash strings.
+ */
+public final class CompiledControllerProfile {
+
+    //
+    // Public constants
+    //
+
+    // Axis indices
+    public static final int AXIS_LEFT_JOY_HORIZONTAL = 0;
+    public static final int AXIS_LEFT_JOY_VERTICAL = 1;
+    public static final int AXIS_RIGHT_JOY_HORIZONTAL = 2;
+    public static final int AXIS_RIGHT_JOY_VERTICAL = 3;
+    public static final int AXIS_DPAD_HORIZONTAL = 4;
+    public static final int AXIS_DPAD_VERTICAL = 5;
+    public static final int AXIS_LEFT_TRIGGER = 6;
+    public static final int AXIS_RIGHT_TRIGGER = 7;
+    public static final int AXIS_COUNT = 8;
+
+    // Button indices
+    public static final int BUTTON_A = 0;
+    public static final int BUTTON_B = 1;
+    public static final int BUTTON_X = 2;
+    public static final int BUTTON_Y = 3;
+    public static final int BUTTON_RIGHT_TRIGGER = 4;
+    public static final int BUTTON_LEFT_TRIGGER = 5;
+    public static final int BUTTON_SELECT = 6;
+    public static final int BUTTON_START = 7;
+    public static final int BUTTON_1 = 8;
+    public static final int BUTTON_COUNT = BUTTON_1 + 16;
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = CompiledControllerProfile.class.getSimpleName();
+
+    private static final ControllerInput[] AxisInputs = new ControllerInput[] {
+            ControllerInput.LeftJoyHorizontal,
+            ControllerInput.LeftJoyVertical,
+            ControllerInput.RightJoyHorizontal,
+            ControllerInput.RightJoyVertical,
+            ControllerInput.DpadHorizontal,
+            ControllerInput.DpadVertical,
+            ControllerInput.LeftTrigger,
+            ControllerInput.RightTrigger
+    };
+
+    private static final ControllerInput[] ButtonInputs = new ControllerInput[] {
+            ControllerInput.A,
+            ControllerInput.B,
+            ControllerInput.X,
+            ControllerInput.Y,
+            ControllerInput.RightTriggerButton,
+            ControllerInput.LeftTriggerButton,
+            ControllerInput.Select,
+            ControllerInput.Start,
+            ControllerInput.Button1,
+            ControllerInput.Button2,
+            ControllerInput.Button3,
+            ControllerInput.Button4,
+            ControllerInput.Button5,
+            ControllerInput.Button6,
+            ControllerInput.Button7,
+            ControllerInput.Button8,
+            ControllerInput.Button9,
+            ControllerInput.Button10,
+            ControllerInput.Button11,
+            ControllerInput.Button12,
+            ControllerInput.Button13,
+            ControllerInput.Button14,
+            ControllerInput.Button15,
+            ControllerInput.Button16
+    };
+
+    private final String name;
+
+    // Routes of axis i are in [axisRouteStart[i], axisRouteStart[i + 1]).
+    // The axis scale is the signed max value, negative if the action is inverted.
+    private final int[] axisRouteStart = new int[AXIS_COUNT + 1];
+    private final int[] axisRouteSlot;
+    private final int[] axisRouteChannel;
+    private final int[] axisRouteScale;
+
+    // Routes of button i are in [buttonRouteStart[i], buttonRouteStart[i + 1]).
+    // The button value is the signed max value, negative if the action is inverted.
+    private final int[] buttonRouteStart = new int[BUTTON_COUNT + 1];
+    private final int[] buttonRouteSlot;
+    private final int[] buttonRouteChannel;
+    private final int[] buttonRouteValue;
+    private final boolean[] buttonRouteToggle;
+
+    //
+    // Constructor
+    //
+
+    private CompiledControllerProfile(ControllerProfile profile, List<String> sbrickAddresses) {
+        Log.i(TAG, "CompiledControllerProfile - " + profile.getName());
+
+        name = profile.getName();
+
+        int axisRouteCount = countRoutes(profile, AxisInputs, axisRouteStart);
+        axisRouteSlot = new int[axisRouteCount];
+        axisRouteChannel = new int[axisRouteCount];
+        axisRouteScale = new int[axisRouteCount];
+
+        for (int axis = 0; axis < AXIS_COUNT; axis++) {
+            int route = axisRouteStart[axis];
+            int controllerActionCount = profile.getControllerActionCount(AxisInputs[axis]);
+            for (int i = 0; i < controllerActionCount; i++) {
+                ControllerAction controllerAction = profile.getControllerAction(AxisInputs[axis], i);
+                axisRouteSlot[route] = getSlot(sbrickAddresses, controllerAction.getSBrickAddress());
+                axisRouteChannel[route] = controllerAction.getChannel();
+                axisRouteScale[route] = getSignedMaxValue(controllerAction);
+                route++;
+            }
+        }
+
+        int buttonRouteCount = countRoutes(profile, ButtonInputs, buttonRouteStart);
+        buttonRouteSlot = new int[buttonRouteCount];
+        buttonRouteChannel = new int[buttonRouteCount];
+        buttonRouteValue = new int[buttonRouteCount];
+        buttonRouteToggle = new boolean[buttonRouteCount];
+
+        for (int button = 0; button < BUTTON_COUNT; button++) {
+            int route = buttonRouteStart[button];
+            int controllerActionCount = profile.getControllerActionCount(ButtonInputs[button]);
+            for (int i = 0; i < controllerActionCount; i++) {
+                ControllerAction controllerAction = profile.getControllerAction(ButtonInputs[button], i);
+                buttonRouteSlot[route] = getSlot(sbrickAddresses, controllerAction.getSBrickAddress());
+                buttonRouteChannel[route] = controllerAction.getChannel();
+                buttonRouteValue[route] = getSignedMaxValue(controllerAction);
+                buttonRouteToggle[route] = controllerAction.getToggle();
+                route++;
+            }
+        }
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * Compiles the controller profile.
+     * @param profile is the profile to compile.
+     * @param sbrickAddresses is the list of the SBrick addresses, the index of an address is its SBrick slot.
+     *                        It must contain all the SBrick addresses of the profile.
+     * @return The compiled profile.
+     */
+    public static CompiledControllerProfile compile(ControllerProfile profile, List<String> sbrickAddresses) {
+        return new CompiledControllerProfile(profile, sbrickAddresses);
+    }
+
+    /**
+     * @return The axis index of the controller action id, -1 if it isn't an axis.
+     */
+    public static int getAxis(String controllerActionId) {
+        return indexOf(AxisInputs, ControllerInput.fromControllerActionId(controllerActionId));
+    }
+
+    /**
+     * @return The button index of the controller action id, -1 if it isn't a button.
+     */
+    public static int getButton(String controllerActionId) {
+        return indexOf(ButtonInputs, ControllerInput.fromControllerActionId(controllerActionId));
+    }
+
+    public static String getAxisControllerActionId(int axis) { return AxisInputs[axis].getControllerActionId(); }
+    public static String getButtonControllerActionId(int button) { return ButtonInputs[button].getControllerActionId(); }
+
+    public String getName() { return name; }
+
+    public int getAxisRouteStart(int axis) { return axisRouteStart[axis]; }
+    public int getAxisRouteEnd(int axis) { return axisRouteStart[axis + 1]; }
+    public int getAxisRouteSlot(int route) { return axisRouteSlot[route]; }
+    public int getAxisRouteChannel(int route) { return axisRouteChannel[route]; }
+    public int getAxisRouteScale(int route) { return axisRouteScale[route]; }
+
+    public int getButtonRouteStart(int button) { return buttonRouteStart[button]; }
+    public int getButtonRouteEnd(int button) { return buttonRouteStart[button + 1]; }
+    public int getButtonRouteSlot(int route) { return buttonRouteSlot[route]; }
+    public int getButtonRouteChannel(int route) { return buttonRouteChannel[route]; }
+    public int getButtonRouteValue(int route) { return buttonRouteValue[route]; }
+    public boolean getButtonRouteToggle(int route) { return buttonRouteToggle[route]; }
+
+    //
+    // Private methods
+    //
+
+    private static int countRoutes(ControllerProfile profile, ControllerInput[] inputs, int[] routeStart) {
+
+        int routeCount = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            routeStart[i] = routeCount;
+            routeCount += profile.getControllerActionCount(inputs[i]);
+        }
+
+        routeStart[inputs.length] = routeCount;
+        return routeCount;
+    }
+
+    private static int indexOf(ControllerInput[] inputs, ControllerInput input) {
+
+        if (input == null)
+            return -1;
+
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] == input)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static int getSlot(List<String> sbrickAddresses, String sbrickAddress) {
+
+        int slot = sbrickAddresses.indexOf(sbrickAddress);
+        if (slot < 0)
+            throw new IllegalArgumentException("SBrick address is not in the list: " + sbrickAddress);
+
+        return slot;
+    }
+
+    private static int getSignedMaxValue(ControllerAction controllerAction) {
+        int maxValue = (255 * controllerAction.getMaxOutput()) / 100;
+        return controllerAction.getInvert() ? -maxValue : maxValue;
+    }
+}
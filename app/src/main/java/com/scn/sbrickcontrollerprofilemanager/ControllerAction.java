@@ -5,6 +5,10 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * ControllerAction class.
  */
@@ -22,6 +26,9 @@ public final class ControllerAction implements Parcelable {
     private static final String ToggleKey = "toggle_key";
     private static final String MaxOutputKey = "max_output";
 
+    private static final int InvertFlag = 0x01;
+    private static final int ToggleFlag = 0x02;
+
     private String sbrickAddress;
     private int channel;
     private boolean invert;
@@ -53,6 +60,9 @@ public final class ControllerAction implements Parcelable {
         this.maxOutput = maxOutput;
     }
 
+    /**
+     * Reads the action from the former shared preferences format, only used by the migration.
+     */
     ControllerAction(SharedPreferences prefs, String profileName, String controllerActionId, int controllerActionIndex) {
         Log.i(TAG, "ControllerAction from shared preferences...");
 
@@ -68,6 +78,20 @@ public final class ControllerAction implements Parcelable {
         validateMaxOutput(maxOutput);
     }
 
+    ControllerAction(DataInputStream in, int version) throws IOException {
+
+        sbrickAddress = in.readUTF();
+        channel = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        invert = (flags & InvertFlag) != 0;
+        toggle = (flags & ToggleFlag) != 0;
+        maxOutput = in.readUnsignedByte();
+
+        validateSBrickAddress(sbrickAddress);
+        validateChannel(channel);
+        validateMaxOutput(maxOutput);
+    }
+
     ControllerAction(Parcel parcel) {
         Log.i(TAG, "ControllerAction from parcel...");
 
@@ -156,15 +180,12 @@ public final class ControllerAction implements Parcelable {
     // Internal API
     //
 
-    void saveToPreferences(SharedPreferences.Editor editor, String profileName, String controllerActionId, int controllerActionIndex) {
-        Log.i(TAG, "SaveToPreferences...");
+    void writeTo(DataOutputStream out) throws IOException {
 
-        String keyBase = profileName + "_" + controllerActionId + "_" + controllerActionIndex + "_";
-        editor.putString(keyBase + SBrickAddressKey, sbrickAddress);
-        editor.putInt(keyBase + ChannelKey, channel);
-        editor.putInt(keyBase + InvertKey, invert ? 1 : 0);
-        editor.putInt(keyBase + ToggleKey, toggle ? 1 : 0);
-        editor.putInt(keyBase + MaxOutputKey, maxOutput);
+        out.writeUTF(sbrickAddress);
+        out.writeByte(channel);
+        out.writeByte((invert ? InvertFlag : 0) | (toggle ? ToggleFlag : 0));
+        out.writeByte(maxOutput);
     }
 
     //
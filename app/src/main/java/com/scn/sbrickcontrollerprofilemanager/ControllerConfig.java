@@ -0,0 +1,197 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the controller bindings: the motion event axis of every compiled profile axis
+ * and the compiled profile button of every key code. The lookups are array indexing, they don't allocate.
+ * A change creates a new snapshot, the input path keeps using the one it got until it asks again.
+ */
+public final class ControllerConfig {
+
+    //
+    // Private members
+    //
+
+    // Motion event axis by compiled profile axis.
+    private final int[] axisMotionEvents;
+
+    // Compiled profile button by key code, -1 if the key isn't bound.
+    private final int[] keyCodeButtons;
+
+    //
+    // Constructor
+    //
+
+    private ControllerConfig(int[] axisMotionEvents, int[] keyCodeButtons) {
+        this.axisMotionEvents = axisMotionEvents;
+        this.keyCodeButtons = keyCodeButtons;
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * Gets the motion event axis bound to the axis.
+     * @param axis is the compiled profile axis index.
+     * @return The motion event axis id.
+     */
+    public int getMotionEventForAxis(int axis) {
+        return axisMotionEvents[axis];
+    }
+
+    /**
+     * Gets the button bound to the key code.
+     * @param keyCode is the key code.
+     * @return The compiled profile button index, -1 if the key isn't bound.
+     */
+    public int getButtonForKeyCode(int keyCode) {
+
+        if (keyCode < 0 || keyCodeButtons.length <= keyCode)
+            return -1;
+
+        return keyCodeButtons[keyCode];
+    }
+
+    //
+    // Internal API
+    //
+
+    /**
+     * Creates the default bindings of a standard gamepad.
+     */
+    static ControllerConfig createDefault() {
+
+        int[] axisMotionEvents = new int[CompiledControllerProfile.AXIS_COUNT];
+        axisMotionEvents[CompiledControllerProfile.AXIS_LEFT_JOY_HORIZONTAL] = MotionEvent.AXIS_X;
+        axisMotionEvents[CompiledControllerProfile.AXIS_LEFT_JOY_VERTICAL] = MotionEvent.AXIS_Y;
+        axisMotionEvents[CompiledControllerProfile.AXIS_RIGHT_JOY_HORIZONTAL] = MotionEvent.AXIS_Z;
+        axisMotionEvents[CompiledControllerProfile.AXIS_RIGHT_JOY_VERTICAL] = MotionEvent.AXIS_RZ;
+        axisMotionEvents[CompiledControllerProfile.AXIS_DPAD_HORIZONTAL] = MotionEvent.AXIS_HAT_X;
+        axisMotionEvents[CompiledControllerProfile.AXIS_DPAD_VERTICAL] = MotionEvent.AXIS_HAT_Y;
+        axisMotionEvents[CompiledControllerProfile.AXIS_LEFT_TRIGGER] = MotionEvent.AXIS_GAS;
+        axisMotionEvents[CompiledControllerProfile.AXIS_RIGHT_TRIGGER] = MotionEvent.AXIS_BRAKE;
+
+        int[] keyCodeButtons = newKeyCodeButtons(KeyEvent.getMaxKeyCode() + 1);
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_A] = CompiledControllerProfile.BUTTON_A;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_B] = CompiledControllerProfile.BUTTON_B;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_X] = CompiledControllerProfile.BUTTON_X;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_Y] = CompiledControllerProfile.BUTTON_Y;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_R1] = CompiledControllerProfile.BUTTON_RIGHT_TRIGGER;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_L1] = CompiledControllerProfile.BUTTON_LEFT_TRIGGER;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_SELECT] = CompiledControllerProfile.BUTTON_SELECT;
+        keyCodeButtons[KeyEvent.KEYCODE_BUTTON_START] = CompiledControllerProfile.BUTTON_START;
+
+        // KEYCODE_BUTTON_1 - KEYCODE_BUTTON_16 are consecutive
+        for (int i = 0; i < 16; i++)
+            keyCodeButtons[KeyEvent.KEYCODE_BUTTON_1 + i] = CompiledControllerProfile.BUTTON_1 + i;
+
+        return new ControllerConfig(axisMotionEvents, keyCodeButtons);
+    }
+
+    /**
+     * @return A copy of the snapshot with the axis bound to the motion event axis.
+     */
+    ControllerConfig withMotionEventForAxis(int axis, int motionEvent) {
+
+        int[] newAxisMotionEvents = axisMotionEvents.clone();
+        newAxisMotionEvents[axis] = motionEvent;
+        return new ControllerConfig(newAxisMotionEvents, keyCodeButtons);
+    }
+
+    /**
+     * @return A copy of the snapshot with the key code bound to the button, -1 unbinds the key.
+     */
+    ControllerConfig withButtonForKeyCode(int keyCode, int button) {
+
+        int[] newKeyCodeButtons = newKeyCodeButtons(Math.max(keyCodeButtons.length, keyCode + 1));
+        System.arraycopy(keyCodeButtons, 0, newKeyCodeButtons, 0, keyCodeButtons.length);
+        newKeyCodeButtons[keyCode] = button;
+        return new ControllerConfig(axisMotionEvents, newKeyCodeButtons);
+    }
+
+    /**
+     * Encodes the axis bindings, e.g. "0,1,11,14,15,16,22,23".
+     */
+    String getAxisMotionEventsSnapshot() {
+
+        StringBuilder sb = new StringBuilder();
+        for (int axis = 0; axis < axisMotionEvents.length; axis++) {
+            if (axis > 0)
+                sb.append(',');
+            sb.append(axisMotionEvents[axis]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the bound keys, e.g. "96:0,97:1".
+     */
+    String getKeyCodeButtonsSnapshot() {
+
+        StringBuilder sb = new StringBuilder();
+        for (int keyCode = 0; keyCode < keyCodeButtons.length; keyCode++) {
+            if (keyCodeButtons[keyCode] < 0)
+                continue;
+
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(keyCode).append(':').append(keyCodeButtons[keyCode]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes the snapshot written by getAxisMotionEventsSnapshot() and getKeyCodeButtonsSnapshot().
+     * @throws IllegalArgumentException if the snapshot is malformed.
+     */
+    static ControllerConfig fromSnapshot(String axisMotionEventsSnapshot, String keyCodeButtonsSnapshot) {
+
+        String[] axisValues = axisMotionEventsSnapshot.split(",");
+        if (axisValues.length != CompiledControllerProfile.AXIS_COUNT)
+            throw new IllegalArgumentException("Invalid axis bindings: " + axisMotionEventsSnapshot);
+
+        int[] axisMotionEvents = new int[CompiledControllerProfile.AXIS_COUNT];
+        for (int axis = 0; axis < axisValues.length; axis++)
+            axisMotionEvents[axis] = Integer.parseInt(axisValues[axis]);
+
+        int[] keyCodeButtons = newKeyCodeButtons(KeyEvent.getMaxKeyCode() + 1);
+        if (keyCodeButtonsSnapshot.length() > 0) {
+            for (String binding : keyCodeButtonsSnapshot.split(",")) {
+                int separatorIndex = binding.indexOf(':');
+                if (separatorIndex < 0)
+                    throw new IllegalArgumentException("Invalid key binding: " + binding);
+
+                int keyCode = Integer.parseInt(binding.substring(0, separatorIndex));
+                int button = Integer.parseInt(binding.substring(separatorIndex + 1));
+
+                if (keyCode < 0 || button < 0 || CompiledControllerProfile.BUTTON_COUNT <= button)
+                    throw new IllegalArgumentException("Invalid key binding: " + binding);
+
+                if (keyCodeButtons.length <= keyCode) {
+                    int[] newKeyCodeButtons = newKeyCodeButtons(keyCode + 1);
+                    System.arraycopy(keyCodeButtons, 0, newKeyCodeButtons, 0, keyCodeButtons.length);
+                    keyCodeButtons = newKeyCodeButtons;
+                }
+
+                keyCodeButtons[keyCode] = button;
+            }
+        }
+
+        return new ControllerConfig(axisMotionEvents, keyCodeButtons);
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int[] newKeyCodeButtons(int length) {
+        int[] keyCodeButtons = new int[length];
+        Arrays.fill(keyCodeButtons, -1);
+        return keyCodeButtons;
+    }
+}
@@ -3,14 +3,11 @@ package com.scn.sbrickcontrollerprofilemanager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
-import android.view.KeyEvent;
-import android.view.MotionEvent;
-
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Controller config manager class.
+ * The bindings are held in an immutable ControllerConfig snapshot, the input path gets it by getConfig().
+ * The snapshot is persisted as two compact strings in a single preferences file.
  */
 public class ControllerConfigManager {
 
@@ -19,13 +16,16 @@ public class ControllerConfigManager {
     //
 
     private static final String TAG = ControllerConfigManager.class.getSimpleName();
-    private static final String ControllerActionIdToMotionEventPreferencesName = "controller_action_id_to_motion_event_prefs";
-    private static final String KeyCodeToCotnrollerActionIdMapPreferencesName = "key_code_to_controller_action_id_map_prefs";
+    private static final String ControllerConfigPreferencesName = "controller_config_prefs";
+    private static final String ConfigVersionKey = "config_version";
+    private static final String AxisMotionEventsKey = "axis_motion_events";
+    private static final String KeyCodeButtonsKey = "key_code_buttons";
+
+    private static final int CurrentConfigVersion = 1;
 
     private Context context;
 
-    private Map<String, Integer> controllerActionIdToMotionEventMap = new HashMap<>();
-    private Map<String, String> keyCodeToControllerActionIdMap = new HashMap<>();
+    private volatile ControllerConfig config = ControllerConfig.createDefault();
 
     //
     // Constructor
@@ -40,17 +40,21 @@ public class ControllerConfigManager {
     //
 
     /**
-     * Loads the controller config.
+     * Loads the controller config, the default config is used if there is no saved one.
      */
-    public void loadConfig() {
+    public synchronized void loadConfig() {
         Log.i(TAG, "loadConfig");
 
         try {
-            SharedPreferences controllerActionIdToMotionEventPrefs = context.getSharedPreferences(ControllerActionIdToMotionEventPreferencesName, Context.MODE_PRIVATE);
-            controllerActionIdToMotionEventMap = (Map<String, Integer>)controllerActionIdToMotionEventPrefs.getAll();
+            SharedPreferences prefs = context.getSharedPreferences(ControllerConfigPreferencesName, Context.MODE_PRIVATE);
 
-            SharedPreferences keyCodeToControllerActionIdPrefs = context.getSharedPreferences(KeyCodeToCotnrollerActionIdMapPreferencesName, Context.MODE_PRIVATE);
-            keyCodeToControllerActionIdMap = (Map<String, String>)keyCodeToControllerActionIdPrefs.getAll();
+            if (prefs.getInt(ConfigVersionKey, 0) != CurrentConfigVersion) {
+                Log.i(TAG, "  No saved config, use the default.");
+                resetToDefault();
+                return;
+            }
+
+            config = ControllerConfig.fromSnapshot(prefs.getString(AxisMotionEventsKey, ""), prefs.getString(KeyCodeButtonsKey, ""));
         }
         catch (Exception ex) {
             Log.e(TAG, "Error loading the controller config.", ex);
@@ -60,28 +64,35 @@ public class ControllerConfigManager {
 
     /**
      * Saves the current controller config.
+     * @return true if the saving was successful, false otherwise.
      */
-    public void saveConfig() {
+    public synchronized boolean saveConfig() {
         Log.i(TAG, "saveConfig");
 
         try {
-            SharedPreferences controllerActionIdToMotionEventPrefs = context.getSharedPreferences(ControllerActionIdToMotionEventPreferencesName, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor1 = controllerActionIdToMotionEventPrefs.edit();
-
-            for (Map.Entry<String, Integer> entry : controllerActionIdToMotionEventMap.entrySet())
-                editor1.putInt(entry.getKey(), entry.getValue());
+            SharedPreferences prefs = context.getSharedPreferences(ControllerConfigPreferencesName, Context.MODE_PRIVATE);
+            SharedPreferences.Editor editor = prefs.edit();
 
-            SharedPreferences keyCodeToControllerActionIdPrefs = context.getSharedPreferences(KeyCodeToCotnrollerActionIdMapPreferencesName, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor2 = keyCodeToControllerActionIdPrefs.edit();
+            editor.putInt(ConfigVersionKey, CurrentConfigVersion);
+            editor.putString(AxisMotionEventsKey, config.getAxisMotionEventsSnapshot());
+            editor.putString(KeyCodeButtonsKey, config.getKeyCodeButtonsSnapshot());
 
-            for (Map.Entry<String, String> entry : keyCodeToControllerActionIdMap.entrySet())
-                editor2.putString(entry.getKey(), entry.getValue());
+            return editor.commit();
         }
         catch (Exception ex) {
             Log.e(TAG, "Error saving the controller config.", ex);
+            return false;
         }
     }
 
+    /**
+     * Gets the current controller config snapshot.
+     * @return The controller config.
+     */
+    public ControllerConfig getConfig() {
+        return config;
+    }
+
     /**
      * Gets the motion event id for the given controller action id.
      * @param controllerActionId is the controller action id.
@@ -89,10 +100,11 @@ public class ControllerConfigManager {
      */
     public int getMotionEventForControllerActionId(String controllerActionId) {
 
-        if (controllerActionIdToMotionEventMap.containsKey(controllerActionId))
-            return controllerActionIdToMotionEventMap.get(controllerActionId);
+        int axis = CompiledControllerProfile.getAxis(controllerActionId);
+        if (axis < 0)
+            return -1;
 
-        return -1;
+        return config.getMotionEventForAxis(axis);
     }
 
     /**
@@ -100,8 +112,13 @@ public class ControllerConfigManager {
      * @param controllerActionId is the controller action id.
      * @param motionEvent is the motion event.
      */
-    public void setMotionEventForControllerActionId(String controllerActionId, int motionEvent) {
-        controllerActionIdToMotionEventMap.put(controllerActionId, motionEvent);
+    public synchronized void setMotionEventForControllerActionId(String controllerActionId, int motionEvent) {
+
+        int axis = CompiledControllerProfile.getAxis(controllerActionId);
+        if (axis < 0)
+            throw new IllegalArgumentException("Not an axis controller action: " + controllerActionId);
+
+        config = config.withMotionEventForAxis(axis, motionEvent);
     }
 
     /**
@@ -111,47 +128,34 @@ public class ControllerConfigManager {
      */
     public String getControllerActionIdForKeyCode(int keyCode) {
 
-        if (keyCodeToControllerActionIdMap.containsKey(Integer.toString(keyCode)))
-            return keyCodeToControllerActionIdMap.get(Integer.toString(keyCode));
+        int button = config.getButtonForKeyCode(keyCode);
+        if (button < 0)
+            return null;
 
-        return null;
+        return CompiledControllerProfile.getButtonControllerActionId(button);
     }
 
     /**
      * Sets the controller action id for the given key code.
      * @param keyCode is the key code.
-     * @param controllerActionId is the controller action id.
+     * @param controllerActionId is the controller action id, null to unbind the key.
      */
-    public void setControllerActionIdForKeyCode(int keyCode, String controllerActionId) {
-        keyCodeToControllerActionIdMap.put(Integer.toString(keyCode), controllerActionId);
+    public synchronized void setControllerActionIdForKeyCode(int keyCode, String controllerActionId) {
+
+        int button = -1;
+        if (controllerActionId != null) {
+            button = CompiledControllerProfile.getButton(controllerActionId);
+            if (button < 0)
+                throw new IllegalArgumentException("Not a button controller action: " + controllerActionId);
+        }
+
+        config = config.withButtonForKeyCode(keyCode, button);
     }
 
     /**
      * Resets controller action maps to default values.
      */
-    public void resetToDefault() {
-
-        controllerActionIdToMotionEventMap.clear();
-        keyCodeToControllerActionIdMap.clear();
-
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_DPAD_HORIZONTAL, MotionEvent.AXIS_HAT_X);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_DPAD_VERTICAL, MotionEvent.AXIS_HAT_Y);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL, MotionEvent.AXIS_X);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_VERTICAL, MotionEvent.AXIS_Y);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL, MotionEvent.AXIS_Z);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_VERTICAL, MotionEvent.AXIS_RZ);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER, MotionEvent.AXIS_LTRIGGER);
-        controllerActionIdToMotionEventMap.put(ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER, MotionEvent.AXIS_RTRIGGER);
-
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_THUMBL), ControllerProfile.CONTROLLER_ACTION_LEFT_THUMB);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_THUMBR), ControllerProfile.CONTROLLER_ACTION_RIGHT_THUMB);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_A), ControllerProfile.CONTROLLER_ACTION_A);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_B), ControllerProfile.CONTROLLER_ACTION_B);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_X), ControllerProfile.CONTROLLER_ACTION_X);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_Y), ControllerProfile.CONTROLLER_ACTION_Y);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_L1), ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER_BUTTON);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_R1), ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER_BUTTON);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_SELECT), ControllerProfile.CONTROLLER_ACTION_SELECT);
-        keyCodeToControllerActionIdMap.put(Integer.toString(KeyEvent.KEYCODE_BUTTON_START), ControllerProfile.CONTROLLER_ACTION_START);
+    public synchronized void resetToDefault() {
+        config = ControllerConfig.createDefault();
     }
 }
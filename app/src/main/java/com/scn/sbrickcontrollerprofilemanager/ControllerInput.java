@@ -0,0 +1,115 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Controller input a controller profile can map actions to.
+ * Every input has its ControllerProfile.CONTROLLER_ACTION_* id, the id is what the profile store and the parcels hold.
+ */
+public enum ControllerInput {
+    DpadHorizontal(ControllerProfile.CONTROLLER_ACTION_DPAD_HORIZONTAL, "Dpad horizontal", false),
+    DpadVertical(ControllerProfile.CONTROLLER_ACTION_DPAD_VERTICAL, "Dpad vertical", false),
+    LeftJoyHorizontal(ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL, "Left joy horizontal", false),
+    LeftJoyVertical(ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_VERTICAL, "Left joy vertical", false),
+    LeftThumb(ControllerProfile.CONTROLLER_ACTION_LEFT_THUMB, "Left thumb", true),
+    RightJoyHorizontal(ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL, "Right joy horizontal", false),
+    RightJoyVertical(ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_VERTICAL, "Right joy vertical", false),
+    RightThumb(ControllerProfile.CONTROLLER_ACTION_RIGHT_THUMB, "Right thumb", true),
+    A(ControllerProfile.CONTROLLER_ACTION_A, "Button A", true),
+    B(ControllerProfile.CONTROLLER_ACTION_B, "Button B", true),
+    X(ControllerProfile.CONTROLLER_ACTION_X, "Button X", true),
+    Y(ControllerProfile.CONTROLLER_ACTION_Y, "Button Y", true),
+    RightTriggerButton(ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER_BUTTON, "Right trigger button", true),
+    RightTrigger(ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER, "Right trigger", false),
+    LeftTriggerButton(ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER_BUTTON, "Left trigger button", true),
+    LeftTrigger(ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER, "Left trigger", false),
+    Start(ControllerProfile.CONTROLLER_ACTION_START, "Start button", true),
+    Select(ControllerProfile.CONTROLLER_ACTION_SELECT, "Select button", true),
+    Button1(ControllerProfile.CONTROLLER_ACTION_BUTTON_1, "Button 1", true),
+    Button2(ControllerProfile.CONTROLLER_ACTION_BUTTON_2, "Button 2", true),
+    Button3(ControllerProfile.CONTROLLER_ACTION_BUTTON_3, "Button 3", true),
+    Button4(ControllerProfile.CONTROLLER_ACTION_BUTTON_4, "Button 4", true),
+    Button5(ControllerProfile.CONTROLLER_ACTION_BUTTON_5, "Button 5", true),
+    Button6(ControllerProfile.CONTROLLER_ACTION_BUTTON_6, "Button 6", true),
+    Button7(ControllerProfile.CONTROLLER_ACTION_BUTTON_7, "Button 7", true),
+    Button8(ControllerProfile.CONTROLLER_ACTION_BUTTON_8, "Button 8", true),
+    Button9(ControllerProfile.CONTROLLER_ACTION_BUTTON_9, "Button 9", true),
+    Button10(ControllerProfile.CONTROLLER_ACTION_BUTTON_10, "Button 10", true),
+    Button11(ControllerProfile.CONTROLLER_ACTION_BUTTON_11, "Button 11", true),
+    Button12(ControllerProfile.CONTROLLER_ACTION_BUTTON_12, "Button 12", true),
+    Button13(ControllerProfile.CONTROLLER_ACTION_BUTTON_13, "Button 13", true),
+    Button14(ControllerProfile.CONTROLLER_ACTION_BUTTON_14, "Button 14", true),
+    Button15(ControllerProfile.CONTROLLER_ACTION_BUTTON_15, "Button 15", true),
+    Button16(ControllerProfile.CONTROLLER_ACTION_BUTTON_16, "Button 16", true);
+
+    //
+    // Private members
+    //
+
+    private static final ControllerInput[] Inputs = values();
+    private static final Map<String, ControllerInput> InputsByControllerActionId = new HashMap<>();
+
+    static {
+        for (ControllerInput input : Inputs)
+            InputsByControllerActionId.put(input.controllerActionId, input);
+    }
+
+    private final String controllerActionId;
+    private final String displayName;
+    private final boolean toggleApplicable;
+
+    //
+    // Constructor
+    //
+
+    ControllerInput(String controllerActionId, String displayName, boolean toggleApplicable) {
+        this.controllerActionId = controllerActionId;
+        this.displayName = displayName;
+        this.toggleApplicable = toggleApplicable;
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * Gets the number of the inputs, the ordinals are in [0, count).
+     * @return The input count.
+     */
+    public static int count() { return Inputs.length; }
+
+    /**
+     * Gets the input by its ordinal, it doesn't copy the values() array.
+     * @param ordinal is the ordinal of the input.
+     * @return The input.
+     */
+    public static ControllerInput fromOrdinal(int ordinal) { return Inputs[ordinal]; }
+
+    /**
+     * Gets the input of the controller action id.
+     * @param controllerActionId is one of the ControllerProfile.CONTROLLER_ACTION_* ids.
+     * @return The input, null if the id is unknown.
+     */
+    public static ControllerInput fromControllerActionId(String controllerActionId) {
+        return InputsByControllerActionId.get(controllerActionId);
+    }
+
+    /**
+     * Gets the controller action id, it is the persisted form of the input.
+     * @return The ControllerProfile.CONTROLLER_ACTION_* id.
+     */
+    public String getControllerActionId() { return controllerActionId; }
+
+    /**
+     * Gets the user friendly name of the input.
+     * @return The name.
+     */
+    public String getDisplayName() { return displayName; }
+
+    /**
+     * Gets a value indicating if the toggle option is available for the input.
+     * @return true if toggle is available, false otherwise.
+     */
+    public boolean isToggleApplicable() { return toggleApplicable; }
+}
@@ -5,10 +5,14 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -66,7 +70,10 @@ public class ControllerProfile implements Parcelable {
     private static final String ControllerActionCountKey = "controller_action_count_key";
 
     private String name;
-    private Map<String, Set<ControllerAction>> controllerActionMap = new HashMap();
+
+    // Controller actions by the ControllerInput ordinals, null if the input has no action.
+    // The arrays are never modified, a change replaces the array of the input.
+    private final ControllerAction[][] controllerActions = new ControllerAction[ControllerInput.count()][];
 
     //
     // Constructor
@@ -91,6 +98,9 @@ public class ControllerProfile implements Parcelable {
         this.name = name;
     }
 
+    /**
+     * Reads the profile from the former shared preferences format, only used by the migration.
+     */
     ControllerProfile(SharedPreferences prefs, String profileName) {
         Log.i(TAG, "ControllerProfile from shared preferences - " + profileName);
 
@@ -100,14 +110,35 @@ public class ControllerProfile implements Parcelable {
         for (int controllerActionIdIndex = 0; controllerActionIdIndex < controllerActionIdCount; controllerActionIdIndex++) {
 
             String controllerActionId = prefs.getString(profileName + "_" + ControllerActionIdKey + "_" + controllerActionIdIndex, "");
-            Set<ControllerAction> controllerActions = new HashSet<>();
-            controllerActionMap.put(controllerActionId, controllerActions);
+            ControllerInput input = getInput(controllerActionId);
 
             int controllerActionCount = prefs.getInt(profileName + "_" + controllerActionId + "_" + ControllerActionCountKey, 0);
             for (int controllerActionIndex = 0; controllerActionIndex < controllerActionCount; controllerActionIndex++) {
 
                 ControllerAction controllerAction = new ControllerAction(prefs, profileName, controllerActionId, controllerActionIndex);
-                controllerActions.add(controllerAction);
+                if (input != null)
+                    add(input, controllerAction);
+            }
+        }
+    }
+
+    ControllerProfile(String profileName, DataInputStream in, int version) throws IOException {
+        Log.i(TAG, "ControllerProfile from store - " + profileName);
+
+        name = profileName;
+
+        int controllerActionIdCount = in.readInt();
+        for (int controllerActionIdIndex = 0; controllerActionIdIndex < controllerActionIdCount; controllerActionIdIndex++) {
+
+            String controllerActionId = in.readUTF();
+            ControllerInput input = getInput(controllerActionId);
+
+            int controllerActionCount = in.readInt();
+            for (int controllerActionIndex = 0; controllerActionIndex < controllerActionCount; controllerActionIndex++) {
+
+                ControllerAction controllerAction = new ControllerAction(in, version);
+                if (input != null)
+                    add(input, controllerAction);
             }
         }
     }
@@ -122,14 +153,14 @@ public class ControllerProfile implements Parcelable {
         for (int controllerActionIdIndex = 0; controllerActionIdIndex < controllerActionIdCount; controllerActionIdIndex++) {
 
             String controllerActionId = parcel.readString();
-            Set<ControllerAction> controllerActions = new HashSet<>();
-            controllerActionMap.put(controllerActionId, controllerActions);
+            ControllerInput input = getInput(controllerActionId);
 
             int controllerActionCount = parcel.readInt();
             for (int controllerActionIndex = 0; controllerActionIndex < controllerActionCount; controllerActionIndex++) {
 
                 ControllerAction controllerAction = parcel.readParcelable(ControllerAction.class.getClassLoader());
-                controllerActions.add(controllerAction);
+                if (input != null)
+                    add(input, controllerAction);
             }
         }
     }
@@ -147,14 +178,55 @@ public class ControllerProfile implements Parcelable {
     /**
      * Gets the controller actions specified by its Id.
      * @param controllerActionId
-     * @return Set of controller actions.
+     * @return Unmodifiable list of controller actions, empty if there is no action for the id.
+     */
+    public List<ControllerAction> getControllerActions(String controllerActionId) {
+
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        if (input == null)
+            return Collections.emptyList();
+
+        return getControllerActions(input);
+    }
+
+    /**
+     * Gets the controller actions of the input.
+     * @param input is the controller input.
+     * @return Unmodifiable list of controller actions, empty if there is no action for the input.
+     */
+    public List<ControllerAction> getControllerActions(ControllerInput input) {
+
+        ControllerAction[] actions = controllerActions[input.ordinal()];
+        if (actions == null)
+            return Collections.emptyList();
+
+        return Collections.unmodifiableList(Arrays.asList(actions));
+    }
+
+    /**
+     * Gets the number of the controller actions of the input, it doesn't allocate.
+     * @param input is the controller input.
+     * @return The controller action count.
      */
-    public Set<ControllerAction> getControllerActions(String controllerActionId) {
+    public int getControllerActionCount(ControllerInput input) {
 
-        if (!controllerActionMap.containsKey(controllerActionId))
-            return new HashSet<>();
+        ControllerAction[] actions = controllerActions[input.ordinal()];
+        return actions != null ? actions.length : 0;
+    }
 
-        return controllerActionMap.get(controllerActionId);
+    /**
+     * Gets a controller action of the input, it doesn't allocate.
+     * @param input is the controller input.
+     * @param index is the index of the action, in [0, getControllerActionCount(input)).
+     * @return The controller action.
+     */
+    public ControllerAction getControllerAction(ControllerInput input, int index) {
+
+        ControllerAction[] actions = controllerActions[input.ordinal()];
+        if (actions == null)
+            throw new IndexOutOfBoundsException("No controller action for " + input);
+
+        return actions[index];
     }
 
     /**
@@ -165,16 +237,7 @@ public class ControllerProfile implements Parcelable {
     public void addControllerAction(String controllerActionId, ControllerAction controllerAction) {
         Log.i(TAG, "setControllerAction - " + controllerActionId);
 
-        Set<ControllerAction> controllerActions;
-        if (controllerActionMap.containsKey(controllerActionId)) {
-            controllerActions = controllerActionMap.get(controllerActionId);
-        }
-        else {
-            controllerActions = new HashSet<>();
-            controllerActionMap.put(controllerActionId, controllerActions);
-        }
-
-        controllerActions.add(controllerAction);
+        add(getKnownInput(controllerActionId), controllerAction);
     }
 
     /**
@@ -186,20 +249,20 @@ public class ControllerProfile implements Parcelable {
     public void updateControllerAction(String controllerActionId, ControllerAction originalControllerAction, ControllerAction newControllerAction) {
         Log.i(TAG, "updateControllerAction...");
 
-        Set<ControllerAction> controllerActions;
-        if (controllerActionMap.containsKey(controllerActionId)) {
-            controllerActions = controllerActionMap.get(controllerActionId);
-        }
-        else {
-            controllerActions = new HashSet<>();
-            controllerActionMap.put(controllerActionId, controllerActions);
-        }
+        ControllerInput input = getKnownInput(controllerActionId);
+        ControllerAction[] actions = controllerActions[input.ordinal()];
 
-        if (controllerActions.contains(originalControllerAction)) {
-            controllerActions.remove(originalControllerAction);
+        // Keep the position of the original action if the new one isn't there yet.
+        int index = indexOf(actions, originalControllerAction);
+        if (index >= 0 && indexOf(actions, newControllerAction) < 0) {
+            ControllerAction[] newActions = actions.clone();
+            newActions[index] = newControllerAction;
+            controllerActions[input.ordinal()] = newActions;
+            return;
         }
 
-        controllerActions.add(newControllerAction);
+        remove(input, originalControllerAction);
+        add(input, newControllerAction);
     }
 
     /**
@@ -210,14 +273,11 @@ public class ControllerProfile implements Parcelable {
     public void removeControllerAction(String controllerActionId, ControllerAction controllerAction) {
         Log.i(TAG, "removeControllerAction...");
 
-        if (!controllerActionMap.containsKey(controllerActionId))
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        if (input == null)
             return;
 
-        Set<ControllerAction> controllerActions = controllerActionMap.get(controllerActionId);
-        controllerActions.remove(controllerAction);
-
-        if (controllerActions.size() == 0)
-            controllerActionMap.remove(controllerActionId);
+        remove(input, controllerAction);
     }
 
     /**
@@ -229,9 +289,13 @@ public class ControllerProfile implements Parcelable {
 
         Set<String> addresses = new HashSet<>();
 
-        for (Set<ControllerAction> controllerActions : controllerActionMap.values())
-            for (ControllerAction controllerAction : controllerActions)
+        for (ControllerAction[] actions : controllerActions) {
+            if (actions == null)
+                continue;
+
+            for (ControllerAction controllerAction : actions)
                 addresses.add(controllerAction.getSBrickAddress());
+        }
 
         return addresses;
     }
@@ -242,43 +306,9 @@ public class ControllerProfile implements Parcelable {
      * @return The controller action name.
      */
     public static String getControllerActionName(String controllerActionId) {
-        switch (controllerActionId) {
-            case CONTROLLER_ACTION_DPAD_HORIZONTAL: return "Dpad horizontal";
-            case CONTROLLER_ACTION_DPAD_VERTICAL: return "Dpad vertical";
-            case CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL: return "Left joy horizontal";
-            case CONTROLLER_ACTION_LEFT_JOY_VERTICAL: return "Left joy vertical";
-            case CONTROLLER_ACTION_LEFT_THUMB: return "Left thumb";
-            case CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL: return "Right joy horizontal";
-            case CONTROLLER_ACTION_RIGHT_JOY_VERTICAL: return "Right joy vertical";
-            case CONTROLLER_ACTION_RIGHT_THUMB: return "Right thumb";
-            case CONTROLLER_ACTION_A: return "Button A";
-            case CONTROLLER_ACTION_B: return "Button B";
-            case CONTROLLER_ACTION_X: return "Button X";
-            case CONTROLLER_ACTION_Y: return "Button Y";
-            case CONTROLLER_ACTION_RIGHT_TRIGGER_BUTTON: return "Right trigger button";
-            case CONTROLLER_ACTION_RIGHT_TRIGGER: return "Right trigger";
-            case CONTROLLER_ACTION_LEFT_TRIGGER_BUTTON: return "Left trigger button";
-            case CONTROLLER_ACTION_LEFT_TRIGGER: return "Left trigger";
-            case CONTROLLER_ACTION_START: return "Start button";
-            case CONTROLLER_ACTION_SELECT: return "Select button";
-            case CONTROLLER_ACTION_BUTTON_1: return "Button 1";
-            case CONTROLLER_ACTION_BUTTON_2: return "Button 2";
-            case CONTROLLER_ACTION_BUTTON_3: return "Button 3";
-            case CONTROLLER_ACTION_BUTTON_4: return "Button 4";
-            case CONTROLLER_ACTION_BUTTON_5: return "Button 5";
-            case CONTROLLER_ACTION_BUTTON_6: return "Button 6";
-            case CONTROLLER_ACTION_BUTTON_7: return "Button 7";
-            case CONTROLLER_ACTION_BUTTON_8: return "Button 8";
-            case CONTROLLER_ACTION_BUTTON_9: return "Button 9";
-            case CONTROLLER_ACTION_BUTTON_10: return "Button 10";
-            case CONTROLLER_ACTION_BUTTON_11: return "Button 11";
-            case CONTROLLER_ACTION_BUTTON_12: return "Button 12";
-            case CONTROLLER_ACTION_BUTTON_13: return "Button 13";
-            case CONTROLLER_ACTION_BUTTON_14: return "Button 14";
-            case CONTROLLER_ACTION_BUTTON_15: return "Button 15";
-            case CONTROLLER_ACTION_BUTTON_16: return "Button 16";
-        }
-        return "";
+
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        return input != null ? input.getDisplayName() : "";
     }
 
     /**
@@ -288,47 +318,8 @@ public class ControllerProfile implements Parcelable {
      */
     public static boolean isToggleApplicable(String controllerActionId) {
 
-        switch (controllerActionId) {
-            case CONTROLLER_ACTION_DPAD_HORIZONTAL:
-            case CONTROLLER_ACTION_DPAD_VERTICAL:
-            case CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL:
-            case CONTROLLER_ACTION_LEFT_JOY_VERTICAL:
-            case CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL:
-            case CONTROLLER_ACTION_RIGHT_JOY_VERTICAL:
-            case CONTROLLER_ACTION_RIGHT_TRIGGER:
-            case CONTROLLER_ACTION_LEFT_TRIGGER:
-                return false;
-
-            case CONTROLLER_ACTION_LEFT_THUMB:
-            case CONTROLLER_ACTION_RIGHT_THUMB:
-            case CONTROLLER_ACTION_A:
-            case CONTROLLER_ACTION_B:
-            case CONTROLLER_ACTION_X:
-            case CONTROLLER_ACTION_Y:
-            case CONTROLLER_ACTION_RIGHT_TRIGGER_BUTTON:
-            case CONTROLLER_ACTION_LEFT_TRIGGER_BUTTON:
-            case CONTROLLER_ACTION_START:
-            case CONTROLLER_ACTION_SELECT:
-            case CONTROLLER_ACTION_BUTTON_1:
-            case CONTROLLER_ACTION_BUTTON_2:
-            case CONTROLLER_ACTION_BUTTON_3:
-            case CONTROLLER_ACTION_BUTTON_4:
-            case CONTROLLER_ACTION_BUTTON_5:
-            case CONTROLLER_ACTION_BUTTON_6:
-            case CONTROLLER_ACTION_BUTTON_7:
-            case CONTROLLER_ACTION_BUTTON_8:
-            case CONTROLLER_ACTION_BUTTON_9:
-            case CONTROLLER_ACTION_BUTTON_10:
-            case CONTROLLER_ACTION_BUTTON_11:
-            case CONTROLLER_ACTION_BUTTON_12:
-            case CONTROLLER_ACTION_BUTTON_13:
-            case CONTROLLER_ACTION_BUTTON_14:
-            case CONTROLLER_ACTION_BUTTON_15:
-            case CONTROLLER_ACTION_BUTTON_16:
-                return true;
-        }
-
-        return false;
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        return input != null && input.isToggleApplicable();
     }
 
     //
@@ -337,28 +328,36 @@ public class ControllerProfile implements Parcelable {
 
     void setName(String name) { this.name = name; }
 
-    void saveToPreferences(SharedPreferences.Editor editor) {
-        Log.i(TAG, "saveToPreferences - " + getName());
+    int getControllerActionCount() {
 
-        editor.putInt(name + "_" + ControllerActionIdCountKey, controllerActionMap.size());
+        int controllerActionCount = 0;
+        for (ControllerAction[] actions : controllerActions) {
+            if (actions != null)
+                controllerActionCount += actions.length;
+        }
 
-        int controllerActionIdIndex = 0;
-        for (Map.Entry<String, Set<ControllerAction>> kvp : controllerActionMap.entrySet()) {
+        return controllerActionCount;
+    }
 
-            String controllerActionId = kvp.getKey();
-            Set<ControllerAction> controllerActions = kvp.getValue();
+    /**
+     * Writes the profile record of the profile store, the name is stored in the store index.
+     * The inputs are written by their controller action ids, the record is the same as before the ControllerInput ordinals.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
 
-            editor.putString(name + "_" + ControllerActionIdKey + "_" + controllerActionIdIndex, controllerActionId);
-            editor.putInt(name + "_" + controllerActionId + "_" + ControllerActionCountKey, controllerActions.size());
+        out.writeInt(getMappedInputCount());
 
-            int controllerActionIndex = 0;
-            for (ControllerAction controllerAction : controllerActions) {
+        for (int ordinal = 0; ordinal < controllerActions.length; ordinal++) {
 
-                controllerAction.saveToPreferences(editor, name, controllerActionId, controllerActionIndex);
-                controllerActionIndex++;
-            }
+            ControllerAction[] actions = controllerActions[ordinal];
+            if (actions == null)
+                continue;
 
-            controllerActionIdIndex++;
+            out.writeUTF(ControllerInput.fromOrdinal(ordinal).getControllerActionId());
+            out.writeInt(actions.length);
+
+            for (ControllerAction controllerAction : actions)
+                controllerAction.writeTo(out);
         }
     }
 
@@ -376,17 +375,18 @@ public class ControllerProfile implements Parcelable {
         Log.i(TAG, "writeToParcel - " + name);
 
         dest.writeString(name);
-        dest.writeInt(controllerActionMap.size());
+        dest.writeInt(getMappedInputCount());
 
-        for (Map.Entry<String, Set<ControllerAction>> kvp : controllerActionMap.entrySet()) {
+        for (int ordinal = 0; ordinal < controllerActions.length; ordinal++) {
 
-            String controllerActionId = kvp.getKey();
-            Set<ControllerAction> controllerActions = kvp.getValue();
+            ControllerAction[] actions = controllerActions[ordinal];
+            if (actions == null)
+                continue;
 
-            dest.writeString(controllerActionId);
-            dest.writeInt(controllerActions.size());
+            dest.writeString(ControllerInput.fromOrdinal(ordinal).getControllerActionId());
+            dest.writeInt(actions.length);
 
-            for (ControllerAction controllerAction : controllerActions)
+            for (ControllerAction controllerAction : actions)
                 dest.writeParcelable(controllerAction, flags);
         }
     }
@@ -412,4 +412,85 @@ public class ControllerProfile implements Parcelable {
     public String toString() {
         return getName();
     }
+
+    //
+    // Private methods
+    //
+
+    private static ControllerInput getInput(String controllerActionId) {
+
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        if (input == null)
+            Log.w(TAG, "  Unknown controller action id, its actions are dropped: " + controllerActionId);
+
+        return input;
+    }
+
+    private static ControllerInput getKnownInput(String controllerActionId) {
+
+        ControllerInput input = ControllerInput.fromControllerActionId(controllerActionId);
+        if (input == null)
+            throw new IllegalArgumentException("Unknown controller action id: " + controllerActionId);
+
+        return input;
+    }
+
+    private int getMappedInputCount() {
+
+        int mappedInputCount = 0;
+        for (ControllerAction[] actions : controllerActions) {
+            if (actions != null)
+                mappedInputCount++;
+        }
+
+        return mappedInputCount;
+    }
+
+    private static int indexOf(ControllerAction[] actions, ControllerAction controllerAction) {
+
+        if (actions == null)
+            return -1;
+
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i].equals(controllerAction))
+                return i;
+        }
+
+        return -1;
+    }
+
+    // The actions of an input are a set, an action equal to an existing one isn't added again.
+    private void add(ControllerInput input, ControllerAction controllerAction) {
+
+        ControllerAction[] actions = controllerActions[input.ordinal()];
+        if (indexOf(actions, controllerAction) >= 0)
+            return;
+
+        int length = actions != null ? actions.length : 0;
+        ControllerAction[] newActions = new ControllerAction[length + 1];
+        if (actions != null)
+            System.arraycopy(actions, 0, newActions, 0, length);
+        newActions[length] = controllerAction;
+
+        controllerActions[input.ordinal()] = newActions;
+    }
+
+    private void remove(ControllerInput input, ControllerAction controllerAction) {
+
+        ControllerAction[] actions = controllerActions[input.ordinal()];
+        int index = indexOf(actions, controllerAction);
+        if (index < 0)
+            return;
+
+        if (actions.length == 1) {
+            controllerActions[input.ordinal()] = null;
+            return;
+        }
+
+        ControllerAction[] newActions = new ControllerAction[actions.length - 1];
+        System.arraycopy(actions, 0, newActions, 0, index);
+        System.arraycopy(actions, index + 1, newActions, index, actions.length - index - 1);
+
+        controllerActions[input.ordinal()] = newActions;
+    }
 }
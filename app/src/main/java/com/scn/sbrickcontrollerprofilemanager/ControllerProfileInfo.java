@@ -0,0 +1,64 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Lightweight summary of a controller profile, it is kept in the profile store index.
+ * The profile lists work on these, the full profile is only decoded when it is needed.
+ */
+public final class ControllerProfileInfo {
+
+    //
+    // Private members
+    //
+
+    private final String name;
+    private final Collection<String> sbrickAddresses;
+    private final int controllerActionCount;
+
+    //
+    // Constructor
+    //
+
+    ControllerProfileInfo(String name, Collection<String> sbrickAddresses, int controllerActionCount) {
+        this.name = name;
+        this.sbrickAddresses = Collections.unmodifiableCollection(sbrickAddresses);
+        this.controllerActionCount = controllerActionCount;
+    }
+
+    ControllerProfileInfo(ControllerProfile profile) {
+        this(profile.getName(), profile.getSBrickAddresses(), profile.getControllerActionCount());
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * Gets the name of the profile.
+     * @return the name.
+     */
+    public String getName() { return name; }
+
+    /**
+     * Gets all the SBrick addresses exist in any of the controller actions of the profile.
+     * @return Collection of SBrick addresses.
+     */
+    public Collection<String> getSBrickAddresses() { return sbrickAddresses; }
+
+    /**
+     * Gets the number of the controller actions of the profile.
+     * @return The controller action count.
+     */
+    public int getControllerActionCount() { return controllerActionCount; }
+
+    //
+    // Object overrides
+    //
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
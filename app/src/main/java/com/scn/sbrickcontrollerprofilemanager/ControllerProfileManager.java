@@ -4,13 +4,30 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller profile manager class.
+ * The profiles are persisted write-behind: the changed profiles are marked dirty and
+ * the store is written on a background thread once the edits have settled for SaveDelayMs.
+ * saveProfiles() writes the pending changes right away and waits for the write, it has to be called on pause.
+ * If the store can't be loaded it's moved aside to a backup file, the saves are blocked
+ * until a load succeeds if it can't be moved.
+ * Only the profile summaries are read at startup, a profile is decoded on its first access
+ * and the decoded profiles are kept in an LRU cache.
  */
 public class ControllerProfileManager {
 
@@ -20,12 +37,51 @@ public class ControllerProfileManager {
 
     private static final String TAG = ControllerProfileManager.class.getSimpleName();
 
+    private static final String ControllerProfileStoreFileName = "controller_profiles.dat";
+
+    // The former shared preferences format, migrated to the profile store on the first load.
     private static final String ControllerProfilesPreferencesName = "ControllerProfiles";
     private static final String ControllerProfileCountKey = "ControllerProfileCountKey";
     private static final String ControllerProfileNameKey = "ControllerProfileNameKey";
 
+    // The rapid edits are coalesced into one store write.
+    static final long SaveDelayMs = 1000;
+
+    static final int MaxDecodedProfiles = 16;
+
     private Context context;
-    private Map<String, ControllerProfile> controllerProfiles = new HashMap<>();
+    private ControllerProfileStore profileStore;
+
+    // The summaries of all the profiles in the store order, the keys are the profile names in use.
+    private final Map<String, ControllerProfileInfo> profileInfos = new LinkedHashMap<>();
+
+    // The serialized records of the profiles as they are in the store (once the pending save is done).
+    private final Map<String, byte[]> profileRecords = new HashMap<>();
+
+    // The changed profiles are kept until they are serialized, they can't be evicted.
+    private final Map<String, ControllerProfile> dirtyProfiles = new HashMap<>();
+
+    private final Map<String, ControllerProfile> decodedProfiles = new LinkedHashMap<String, ControllerProfile>(MaxDecodedProfiles, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ControllerProfile> eldest) {
+            return size() > MaxDecodedProfiles;
+        }
+    };
+    private boolean isDirty = false;
+    private ScheduledFuture<?> pendingSaveFuture = null;
+    private volatile boolean isLastSaveFailed = false;
+    // The store failed to load and couldn't be backed up, saving would overwrite the profiles in it.
+    private boolean isSaveBlocked = false;
+
+    // The store is written on this thread.
+    private final ScheduledExecutorService storeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ControllerProfileStore");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     //
     // Singleton
@@ -35,6 +91,7 @@ public class ControllerProfileManager {
         Log.i(TAG, "ControllerProfileManager...");
 
         this.context = context;
+        this.profileStore = new ControllerProfileStore(new File(context.getFilesDir(), ControllerProfileStoreFileName));
     }
 
     //
@@ -42,82 +99,134 @@ public class ControllerProfileManager {
     //
 
     /**
-     * Loads the profiles from the shared preferences.
+     * Loads the profile summaries from the profile store, the profiles are decoded on their first access.
+     * The profiles of the former shared preferences format are migrated to the store on the first load.
+     * A store that can't be loaded is moved to a backup file, the next save starts a new store.
      * @return true if the loading was successful, false otherwise.
      */
     public synchronized boolean loadProfiles() {
         Log.i(TAG, "loadProfiles...");
 
         try {
-            SharedPreferences prefs = context.getSharedPreferences(ControllerProfilesPreferencesName, Context.MODE_PRIVATE);
+            profileInfos.clear();
+            profileRecords.clear();
+            dirtyProfiles.clear();
+            decodedProfiles.clear();
 
-            controllerProfiles.clear();
+            if (!profileStore.exists()) {
+                migrateProfiles();
+            }
+            else {
+                long startTime = System.nanoTime();
 
-            int profileCount = prefs.getInt(ControllerProfileCountKey, 0);
+                profileStore.load(profileInfos, profileRecords);
 
-            for (int i = 0; i < profileCount; i++) {
-                String profileName = prefs.getString(ControllerProfileNameKey + "_" + i, "");
-                ControllerProfile profile = new ControllerProfile(prefs, profileName);
-                controllerProfiles.put(profile.getName(), profile);
+                Log.i(TAG, "  " + profileInfos.size() + " profile(s) loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
             }
         }
         catch (Exception ex) {
             Log.e(TAG, "Error during loading SBricks.", ex);
+            onLoadFailed();
             return false;
         }
 
+        isSaveBlocked = false;
         return true;
     }
 
     /**
-     * Saves the profiles to the shared preferences.
-     * @return true if the saving was successful, false otherwise.
+     * Starts saving the changed profiles without waiting for the coalescing delay, it doesn't block.
+     * The store is written on the store thread after the save in progress (if any).
      */
-    public synchronized boolean saveProfiles() {
-        Log.i(TAG, "saveProfiles...");
-
-        try {
-            SharedPreferences prefs = context.getSharedPreferences(ControllerProfilesPreferencesName, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
+    public void flushProfiles() {
+        Log.i(TAG, "flushProfiles...");
 
-            editor.clear();
-
-            editor.putInt(ControllerProfileCountKey, controllerProfiles.size());
+        submitSave();
+    }
 
-            int profileNameIndex = 0;
-            for (ControllerProfile profile : controllerProfiles.values()) {
+    /**
+     * Saves the changed profiles to the profile store without waiting for the coalescing delay.
+     * The store is written on the store thread, the method blocks until it's done, don't call it on the main thread
+     * unless the save must be done before going on.
+     * @return true if the saving was successful (or there was nothing to save), false otherwise.
+     */
+    public boolean saveProfiles() {
+        Log.i(TAG, "saveProfiles...");
 
-                editor.putString(ControllerProfileNameKey + "_" + profileNameIndex++, profile.getName());
-                profile.saveToPreferences(editor);
-            }
+        // The save needs the lock, it's not held while waiting.
+        Future<?> saveFuture = submitSave();
 
-            editor.commit();
+        try {
+            saveFuture.get();
         }
-        catch (Exception ex) {
-            Log.e(TAG, "Error during saving SBricks.", ex);
+        catch (InterruptedException ex) {
+            Log.w(TAG, "  Interrupted while saving.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException ex) {
+            Log.e(TAG, "Error during saving the profiles.", ex);
             return false;
         }
 
-        return true;
+        return !isLastSaveFailed;
+    }
+
+    /**
+     * Gets the summaries of all the controller profiles, nothing is decoded.
+     * @return List of the controller profile summaries.
+     */
+    public synchronized List<ControllerProfileInfo> getProfileInfos() {
+        Log.i(TAG, "getProfileInfos...");
+        return new ArrayList<>(profileInfos.values());
     }
 
     /**
      * Gets all the controller profiles.
+     * It decodes every profile that is not cached, don't call it on the main thread.
      * @return List of the controller profiles.
      */
     public synchronized List<ControllerProfile> getProfiles() {
         Log.i(TAG, "getProfiles...");
-        return new ArrayList<>(controllerProfiles.values());
+
+        List<ControllerProfile> profiles = new ArrayList<>(profileInfos.size());
+        for (String profileName : profileInfos.keySet())
+            profiles.add(getProfile(profileName));
+
+        return profiles;
     }
 
     /**
      * Gets the controller profile specified by its name.
+     * It decodes the profile if it is not cached, don't call it on the main thread.
      * @param profileName is the name of the controller profile.
-     * @return The controller profile.
+     * @return The controller profile, null if there is no such profile.
      */
     public synchronized ControllerProfile getProfile(String profileName) {
-        Log.i(TAG, "getProfile...");
-        return controllerProfiles.get(profileName);
+        Log.i(TAG, "getProfile - " + profileName);
+
+        ControllerProfile profile = dirtyProfiles.get(profileName);
+        if (profile != null)
+            return profile;
+
+        profile = decodedProfiles.get(profileName);
+        if (profile != null)
+            return profile;
+
+        byte[] record = profileRecords.get(profileName);
+        if (record == null)
+            return null;
+
+        try {
+            profile = ControllerProfileStore.fromRecord(profileName, record);
+        }
+        catch (IOException ex) {
+            Log.e(TAG, "Error during decoding the profile.", ex);
+            return null;
+        }
+
+        decodedProfiles.put(profileName, profile);
+        return profile;
     }
 
     /**
@@ -125,19 +234,20 @@ public class ControllerProfileManager {
      * @param profile is the controller profile to update.
      * @param newProfileName is the new profile name or null if doesn't change.
      */
-    public void addOrUpdateProfile(ControllerProfile profile, String newProfileName) {
+    public synchronized void addOrUpdateProfile(ControllerProfile profile, String newProfileName) {
         Log.i(TAG, "addOrUpdateProfile - " + profile.getName());
 
-        if (newProfileName == null || newProfileName == profile.getName()) {
-            controllerProfiles.put(profile.getName(), profile);
-        }
-        else {
+        if (newProfileName != null && newProfileName != profile.getName()) {
             Log.i(TAG, "  rename to: " + newProfileName);
 
-            controllerProfiles.remove(profile.getName());
+            onProfileRemoved(profile.getName());
             profile.setName(newProfileName);
-            controllerProfiles.put(profile.getName(), profile);
         }
+
+        profileInfos.put(profile.getName(), new ControllerProfileInfo(profile));
+        decodedProfiles.remove(profile.getName());
+        dirtyProfiles.put(profile.getName(), profile);
+        scheduleSave();
     }
 
     /**
@@ -147,8 +257,10 @@ public class ControllerProfileManager {
     public synchronized void removeProfile(String profileName) {
         Log.i(TAG, "removeProfile - " + profileName);
 
-        if (controllerProfiles.containsKey(profileName))
-            controllerProfiles.remove(profileName);
+        if (profileInfos.containsKey(profileName)) {
+            onProfileRemoved(profileName);
+            scheduleSave();
+        }
     }
 
     /**
@@ -158,7 +270,7 @@ public class ControllerProfileManager {
      */
     public synchronized boolean isProfileNameUsed(String profileName) {
         Log.i(TAG, "isProfileNameUnique - " + profileName);
-        return controllerProfiles.containsKey(profileName);
+        return profileInfos.containsKey(profileName);
     }
 
     /**
@@ -178,4 +290,132 @@ public class ControllerProfileManager {
                 return profileName;
         }
     }
+
+    //
+    // Private methods
+    //
+
+    private void onLoadFailed() {
+
+        // Nothing of a partly loaded store is kept.
+        profileInfos.clear();
+        profileRecords.clear();
+
+        // Keep the unreadable store for recovery, otherwise don't save over it.
+        isSaveBlocked = !profileStore.exists() || !profileStore.backUp();
+        if (isSaveBlocked)
+            Log.w(TAG, "  The profiles are not saved until a load succeeds.");
+    }
+
+    private void onProfileRemoved(String profileName) {
+        profileInfos.remove(profileName);
+        profileRecords.remove(profileName);
+        dirtyProfiles.remove(profileName);
+        decodedProfiles.remove(profileName);
+        isDirty = true;
+    }
+
+    private void scheduleSave() {
+        isDirty = true;
+
+        // A scheduled save picks up the later edits too.
+        if (pendingSaveFuture == null || pendingSaveFuture.isDone())
+            pendingSaveFuture = storeExecutor.schedule(saveRunnable, SaveDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits a save to the store thread in place of the scheduled one (if any).
+     */
+    private synchronized Future<?> submitSave() {
+
+        if (pendingSaveFuture != null)
+            pendingSaveFuture.cancel(false);
+
+        pendingSaveFuture = null;
+        return storeExecutor.submit(saveRunnable);
+    }
+
+    private final Runnable saveRunnable = new Runnable() {
+        @Override
+        public void run() {
+
+            long startTime = System.nanoTime();
+            int dirtyProfileCount;
+            Map<String, ControllerProfileInfo> infos;
+            Map<String, byte[]> records;
+
+            // Only the dirty profiles are serialized, the store is written from a snapshot outside the lock.
+            synchronized (ControllerProfileManager.this) {
+                if (!isDirty)
+                    return;
+
+                if (isSaveBlocked) {
+                    Log.w(TAG, "Saving is blocked, the profile store failed to load.");
+                    isLastSaveFailed = true;
+                    return;
+                }
+
+                try {
+                    for (ControllerProfile profile : dirtyProfiles.values())
+                        profileRecords.put(profile.getName(), ControllerProfileStore.toRecord(profile));
+                }
+                catch (IOException ex) {
+                    Log.e(TAG, "Error during serializing the profiles.", ex);
+                    isLastSaveFailed = true;
+                    return;
+                }
+
+                // The saved profiles stay decoded.
+                for (ControllerProfile profile : dirtyProfiles.values())
+                    decodedProfiles.put(profile.getName(), profile);
+
+                dirtyProfileCount = dirtyProfiles.size();
+                dirtyProfiles.clear();
+                isDirty = false;
+                infos = new LinkedHashMap<>(profileInfos);
+                records = new HashMap<>(profileRecords);
+            }
+
+            try {
+                profileStore.save(infos, records);
+                isLastSaveFailed = false;
+
+                Log.i(TAG, dirtyProfileCount + " changed profile(s) saved in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+            }
+            catch (IOException ex) {
+                Log.e(TAG, "Error during saving the profiles.", ex);
+                isLastSaveFailed = true;
+
+                // Retried on the next save.
+                synchronized (ControllerProfileManager.this) {
+                    isDirty = true;
+                }
+            }
+        }
+    };
+
+    private void migrateProfiles() throws IOException {
+        Log.i(TAG, "migrateProfiles...");
+
+        SharedPreferences prefs = context.getSharedPreferences(ControllerProfilesPreferencesName, Context.MODE_PRIVATE);
+
+        int profileCount = prefs.getInt(ControllerProfileCountKey, 0);
+        if (profileCount == 0) {
+            Log.i(TAG, "  No profiles to migrate.");
+            return;
+        }
+
+        for (int i = 0; i < profileCount; i++) {
+            String profileName = prefs.getString(ControllerProfileNameKey + "_" + i, "");
+            ControllerProfile profile = new ControllerProfile(prefs, profileName);
+            profileInfos.put(profile.getName(), new ControllerProfileInfo(profile));
+            profileRecords.put(profile.getName(), ControllerProfileStore.toRecord(profile));
+        }
+
+        // The preferences are only cleared once the store has been written.
+        profileStore.save(profileInfos, profileRecords);
+        prefs.edit().clear().commit();
+
+        Log.i(TAG, "  " + profileCount + " profile(s) migrated.");
+    }
 }
@@ -0,0 +1,224 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single file controller profile store.
+ * The file starts with a versioned header and an index of the profile summaries and record offsets,
+ * followed by one binary record per profile. The index is enough to list the profiles, the records
+ * are only decoded when a profile is used. The records are kept serialized by the manager,
+ * a save only serializes the changed profiles. The file is written to a temp file which is renamed
+ * over the store file, a crash while saving leaves the previous profiles intact.
+ * A store that can't be loaded is moved aside to a backup file instead of being overwritten by the next save.
+ */
+class ControllerProfileStore {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = ControllerProfileStore.class.getSimpleName();
+
+    // "SBCP"
+    static final int Magic = 0x53424350;
+    // Version 2: the index holds the profile summaries.
+    static final int CurrentVersion = 2;
+
+    private final File file;
+    private final File tempFile;
+    private final File backupFile;
+
+    //
+    // Constructor
+    //
+
+    ControllerProfileStore(File file) {
+        Log.i(TAG, "ControllerProfileStore - " + file.getPath());
+
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.backupFile = new File(file.getPath() + ".bak");
+    }
+
+    //
+    // Internal API
+    //
+
+    /**
+     * @return True if the store file exists.
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Moves the store file to the backup file (it replaces the previous backup), the next save starts a new store.
+     * @return True if the store file has been moved.
+     */
+    boolean backUp() {
+        Log.i(TAG, "backUp - " + backupFile.getPath());
+
+        if (backupFile.exists() && !backupFile.delete()) {
+            Log.w(TAG, "  Could not delete the previous backup.");
+            return false;
+        }
+
+        return file.renameTo(backupFile);
+    }
+
+    /**
+     * Loads the index and the records of all the profiles, the records are not decoded.
+     * @param infos receives the profile summaries by the profile names in the order they were saved.
+     * @param records receives the profile records by the profile names.
+     * @throws IOException if the file can't be read or its version is not supported.
+     */
+    void load(Map<String, ControllerProfileInfo> infos, Map<String, byte[]> records) throws IOException {
+        Log.i(TAG, "load...");
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = readHeader(in);
+
+            // The records follow the index in the same order, only the lengths are needed here.
+            int profileCount = in.readInt();
+            String[] profileNames = new String[profileCount];
+            ControllerProfileInfo[] profileInfos = new ControllerProfileInfo[profileCount];
+            int[] recordLengths = new int[profileCount];
+            for (int i = 0; i < profileCount; i++) {
+                profileNames[i] = in.readUTF();
+
+                if (version >= 2) {
+                    int controllerActionCount = in.readInt();
+                    int sbrickAddressCount = in.readUnsignedShort();
+                    List<String> sbrickAddresses = new ArrayList<>(sbrickAddressCount);
+                    for (int j = 0; j < sbrickAddressCount; j++)
+                        sbrickAddresses.add(in.readUTF());
+
+                    profileInfos[i] = new ControllerProfileInfo(profileNames[i], sbrickAddresses, controllerActionCount);
+                }
+
+                in.readInt();
+                recordLengths[i] = in.readInt();
+            }
+
+            for (int i = 0; i < profileCount; i++) {
+                byte[] record = new byte[recordLengths[i]];
+                in.readFully(record);
+
+                // Version 1 had no summaries in the index, the records are the same.
+                if (profileInfos[i] == null)
+                    profileInfos[i] = new ControllerProfileInfo(readProfile(profileNames[i], record, version));
+
+                infos.put(profileNames[i], profileInfos[i]);
+                records.put(profileNames[i], record);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the profile records, replaces the previous content of the store.
+     * @param infos is the profile summaries by the profile names, they are saved in this order.
+     * @param records is the profile records by the profile names.
+     * @throws IOException if the file can't be written.
+     */
+    void save(Map<String, ControllerProfileInfo> infos, Map<String, byte[]> records) throws IOException {
+        Log.i(TAG, "save - " + infos.size() + " profile(s)");
+
+        int recordsSize = 0;
+        for (byte[] record : records.values())
+            recordsSize += record.length;
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream(recordsSize + 64 * infos.size());
+        DataOutputStream contentOut = new DataOutputStream(content);
+
+        contentOut.writeInt(Magic);
+        contentOut.writeInt(CurrentVersion);
+        contentOut.writeInt(infos.size());
+
+        // The offsets are relative to the first record.
+        int recordOffset = 0;
+        for (ControllerProfileInfo info : infos.values()) {
+            byte[] record = records.get(info.getName());
+
+            contentOut.writeUTF(info.getName());
+            contentOut.writeInt(info.getControllerActionCount());
+            contentOut.writeShort(info.getSBrickAddresses().size());
+            for (String sbrickAddress : info.getSBrickAddresses())
+                contentOut.writeUTF(sbrickAddress);
+            contentOut.writeInt(recordOffset);
+            contentOut.writeInt(record.length);
+            recordOffset += record.length;
+        }
+
+        for (ControllerProfileInfo info : infos.values())
+            contentOut.write(records.get(info.getName()));
+
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            content.writeTo(fileOut);
+            fileOut.getFD().sync();
+        }
+        finally {
+            fileOut.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile.getPath() + " to " + file.getPath());
+        }
+    }
+
+    /**
+     * Serializes the profile to a record of the current store version.
+     */
+    static byte[] toRecord(ControllerProfile profile) throws IOException {
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        profile.writeTo(recordOut);
+        return record.toByteArray();
+    }
+
+    /**
+     * Deserializes the profile from a record of the current store version.
+     */
+    static ControllerProfile fromRecord(String profileName, byte[] record) throws IOException {
+        return readProfile(profileName, record, CurrentVersion);
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int readHeader(DataInputStream in) throws IOException {
+
+        if (in.readInt() != Magic)
+            throw new IOException("Not a controller profile store.");
+
+        int version = in.readInt();
+        if (version < 1 || CurrentVersion < version)
+            throw new IOException("Unsupported controller profile store version: " + version);
+
+        return version;
+    }
+
+    private static ControllerProfile readProfile(String profileName, byte[] record, int version) throws IOException {
+        return new ControllerProfile(profileName, new DataInputStream(new ByteArrayInputStream(record)), version);
+    }
+}
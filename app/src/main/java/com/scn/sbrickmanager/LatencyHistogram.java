@@ -0,0 +1,81 @@
+package com.scn.sbrickmanager;
+
+/**
+ * Latency histogram with power of two microsecond buckets.
+ * Bucket i counts the samples in [2^(i-1), 2^i) microseconds, the last bucket
+ * counts everything above. Recording doesn't allocate.
+ */
+public class LatencyHistogram {
+
+    //
+    // Private members
+    //
+
+    // 2^20 us is about a second, the slower samples go to the last bucket.
+    private static final int BucketCount = 22;
+
+    private final long[] buckets = new long[BucketCount];
+    private long count = 0;
+    private long sumUs = 0;
+    private long maxUs = 0;
+
+    //
+    // API
+    //
+
+    public synchronized long getCount() { return count; }
+
+    public synchronized long getMaxUs() { return maxUs; }
+
+    public synchronized long getMeanUs() {
+        return count == 0 ? 0 : sumUs / count;
+    }
+
+    /**
+     * Gets the upper bound of the bucket the given percentile falls into.
+     * @param percent is the percentile (0-100).
+     * @return The percentile in microseconds, 0 if there are no samples.
+     */
+    public synchronized long getPercentileUs(int percent) {
+
+        if (percent < 0 || 100 < percent)
+            throw new IllegalArgumentException("percent must be in [0-100].");
+
+        if (count == 0)
+            return 0;
+
+        long threshold = Math.max(1, (count * percent + 99) / 100);
+        long cumulative = 0;
+        for (int i = 0; i < BucketCount - 1; i++) {
+            cumulative += buckets[i];
+            if (cumulative >= threshold)
+                return Math.min(1L << i, maxUs);
+        }
+
+        return maxUs;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BucketCount; i++)
+            buckets[i] = 0;
+
+        count = 0;
+        sumUs = 0;
+        maxUs = 0;
+    }
+
+    //
+    // Internal API
+    //
+
+    synchronized void record(long durationNs) {
+
+        long us = Math.max(0, durationNs / 1000);
+        int bucket = Math.min(BucketCount - 1, 64 - Long.numberOfLeadingZeros(us));
+
+        buckets[bucket]++;
+        count++;
+        sumUs += us;
+        maxUs = Math.max(maxUs, us);
+    }
+}
@@ -58,22 +58,55 @@ public interface SBrick {
      */
     boolean readCharacteristic(SBrickCharacteristicType characteristicType);
 
+    /**
+     * @return The connection state of the SBrick.
+     */
+    SBrickConnectionState getConnectionState();
+
+    /**
+     * Gets the command latency and throughput metrics of the SBrick.
+     * @return The metrics.
+     */
+    SBrickMetrics getMetrics();
+
     /**
      * Sends command to the specified channel.
+     * The value is sent by the drive loop on its next tick.
      * @param channel - channel (0-3)
      * @param value - value (-255-22)
-     * @return True if the command has been sent ok, false otherwise.
+     * @return True if the value has been set ok, false otherwise.
      */
     boolean sendCommand(int channel, int value);
 
     /**
      * Sends command to all 4 channels.
      * Valid values are -255 to 255.
+     * The values are sent by the drive loop on its next tick.
      * @param v0 - value for channel 1.
      * @param v1 - value for channel 2.
      * @param v2 - value for channel 3.
      * @param v3 - value for channel 4.
-     * @return True if the command has been sent ok, false otherwise.
+     * @return True if the values have been set ok, false otherwise.
      */
     boolean sendCommand(int v0, int v1, int v2, int v3);
+
+    /**
+     * Sends command to several channels at once, they go out in a single drive frame.
+     * Valid values are -255 to 255, the channels not in the mask keep their values.
+     * The values are sent by the drive loop on its next tick.
+     * @param channelMask - bit 0 is channel 1, ..., bit 3 is channel 4.
+     * @param v0 - value for channel 1.
+     * @param v1 - value for channel 2.
+     * @param v2 - value for channel 3.
+     * @param v3 - value for channel 4.
+     * @return True if the values have been set ok, false otherwise.
+     */
+    boolean sendCommands(int channelMask, int v0, int v1, int v2, int v3);
+
+    /**
+     * Stops all the motors right away. The target values are cleared and a stop frame
+     * (all channels 0) is sent without waiting for the drive loop.
+     * @return True if the stop frame has been sent ok, false otherwise.
+     */
+    boolean stop();
 }
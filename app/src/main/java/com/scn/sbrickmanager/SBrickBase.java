@@ -7,15 +7,21 @@ import android.util.Log;
 
 import com.scn.sbrickmanager.sbrickcommand.Command;
 import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
+import com.scn.sbrickmanager.sbrickcommand.ConnectCommand;
+import com.scn.sbrickmanager.sbrickcommand.DiscoverServicesCommand;
+import com.scn.sbrickmanager.sbrickcommand.ReadCharacteristicCommand;
 import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteMultiDriveCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteQuickDriveCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteRemoteControlCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteWatchdogTimeoutCommand;
 
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Objects;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SBrick base abstract class.
@@ -28,9 +34,37 @@ abstract class SBrickBase implements SBrick {
 
     private static final String TAG = "SBrickBase";
 
+    // Factory default watchdog timeout of the SBrick, it's in effect until the configured one is confirmed.
+    private static final int DefaultHardwareWatchdogTimeoutMs = 500;
+    // A write that hasn't made it to the SBrick is resent after this period.
+    private static final long ResendPeriodNs = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // The quick drive frame has a byte per channel, all the channels are written.
+    private static final int QuickDriveFrameSize = 4;
+    private static final int AllChannelsMask = 0x0f;
+
     private String name = null;
 
-    private long lastSendCommandTime = System.currentTimeMillis();
+    // The target values set by the input, the drive loop pushes them to the SBrick.
+    private int[] targetChannelValues = new int[] { 0, 0, 0, 0 };
+
+    // The latest values sent to the command queue, they may not have been written yet.
+    private int[] requestedChannelValues = new int[] { 0, 0, 0, 0 };
+    private long lastDriveCommandTime = 0;
+    // The non-zero state is resent after this period to keep the SBrick watchdog happy.
+    private long keepAlivePeriodNs = getKeepAlivePeriodNs(DefaultHardwareWatchdogTimeoutMs);
+    private boolean isInDriveLoop = false;
+
+    // Preallocated drive commands, reused when the commands are coalesced.
+    private final WriteQuickDriveCommand quickDriveCommand;
+    private final WriteMultiDriveCommand multiDriveCommand;
+    private final WriteRemoteControlCommand[] remoteControlCommands = new WriteRemoteControlCommand[4];
+
+    private final SBrickMetrics metrics = new SBrickMetrics();
+
+    private volatile SBrickConnectionState connectionState = SBrickConnectionState.Disconnected;
+    private long connectStartTime = 0;
+    private long discoverServicesStartTime = 0;
 
     //
     // Protected members
@@ -38,11 +72,15 @@ abstract class SBrickBase implements SBrick {
 
     protected final Context context;
     protected final SBrickManagerBase sbrickManager;
-    protected boolean isConnected = false;
+    protected volatile boolean isConnected = false;
+
+    // Per-SBrick lock, SBricks don't block each other.
+    protected final Object lockObject = new Object();
 
-    protected Timer watchdogTimer = null;
     protected int[] channelValues = new int[] { 0, 0, 0, 0 };
     protected WriteCharacteristicCommand lastWriteCommand = null;
+    // Id of the operation executed by the command pipeline, its GATT callback releases the pipeline with it.
+    private volatile long executingOperationId = 0;
 
     //
     // Constructor
@@ -53,6 +91,15 @@ abstract class SBrickBase implements SBrick {
 
         this.context = context;
         this.sbrickManager = sbrickManager;
+
+        quickDriveCommand = newWriteQuickDriveCommand(0, 0, 0, 0);
+        quickDriveCommand.setReused(true);
+        multiDriveCommand = newWriteMultiDriveCommand(0, 0, 0, 0, 0);
+        multiDriveCommand.setReused(true);
+        for (int channel = 0; channel < 4; channel++) {
+            remoteControlCommands[channel] = newWriteRemoteControlCommand(channel, 0);
+            remoteControlCommands[channel].setReused(true);
+        }
     }
 
     //
@@ -83,10 +130,20 @@ abstract class SBrickBase implements SBrick {
         return isConnected;
     }
 
+    @Override
+    public SBrickConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    @Override
+    public SBrickMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public boolean connect() {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             Log.i(TAG, "connect - " + getAddress());
 
             if (isConnected) {
@@ -94,15 +151,19 @@ abstract class SBrickBase implements SBrick {
                 return false;
             }
 
-            CommandMethod commandMethod = createConnectCommandMethod();
-            return sbrickManager.sendCommand(Command.newConnectCommand(this, commandMethod));
+            CommandMethod commandMethod = createConnectCommandMethod(true);
+            if (!sbrickManager.sendCommand(Command.newConnectCommand(this, commandMethod)))
+                return false;
+
+            setConnectionState(SBrickConnectionState.Connecting);
+            return true;
         }
     }
 
     @Override
     public boolean readCharacteristic(SBrickCharacteristicType characteristicType) {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             Log.i(TAG, "readCharacteristic - " + getAddress());
 
             if (!isConnected) {
@@ -118,7 +179,7 @@ abstract class SBrickBase implements SBrick {
     @Override
     public boolean sendCommand(int channel, int value) {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             //Log.i(TAG, "sendCommand - " + getAddress());
             //Log.i(TAG, "  channel: " + channel);
             //Log.i(TAG, "  value: " + value);
@@ -131,38 +192,19 @@ abstract class SBrickBase implements SBrick {
                 return false;
             }
 
-            // Filter out the lower bits (they don't take any effect)
-            value = Math.max(-255, Math.min(255, value & 0xfffffff8));
-
-            // Prevent flooding the command queue
-//            long timeSinceLastSendCommand = System.currentTimeMillis() - lastSendCommandTime;
-//            if (timeSinceLastSendCommand < 20 && value != 0) {
-//                Log.i(TAG, "  Too fast sendCommand, skip.");
-//                return false;
-//            }
-
-            // If value hasn't changed no need to resend it.
-            if (value == channelValues[channel]) {
-                //Log.i(TAG, "  Same value, skip.");
-                return true;
-            }
+            value = quantizeValue(value);
 
-            CommandMethod commandMethod = createWriteRemoteControlCommandMethod(channel, value);
-            WriteCharacteristicCommand command = Command.newWriteRemoteControlCommand(this, commandMethod, channel, value);
-
-            if (sbrickManager.sendCommand(command)) {
-                stopWatchdogTimer();
-                return true;
-            }
-
-            return false;
+            // The drive loop sends the command on its next tick.
+            targetChannelValues[channel] = value;
+            addToDriveLoop();
+            return true;
         }
     }
 
     @Override
     public boolean sendCommand(int v0, int v1, int v2, int v3) {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             //Log.i(TAG, "sendCommand - " + getAddress());
             //Log.i(TAG, "  value1: " + v0);
             //Log.i(TAG, "  value2: " + v1);
@@ -174,34 +216,66 @@ abstract class SBrickBase implements SBrick {
                 return false;
             }
 
-            // Filter out the lower bits (they don't take any effect)
-            v0 = Math.max(-255, Math.min(255, v0 & 0xfffffff8));
-            v1 = Math.max(-255, Math.min(255, v1 & 0xfffffff8));
-            v2 = Math.max(-255, Math.min(255, v2 & 0xfffffff8));
-            v3 = Math.max(-255, Math.min(255, v3 & 0xfffffff8));
-
-            // Prevent flooding the command queue
-//            long timeSinceLastSendCommand = System.currentTimeMillis() - lastSendCommandTime;
-//            if (timeSinceLastSendCommand < 20 && (v0 != 0 || v1 != 0 || v2 != 0 || v3 != 0)) {
-//                Log.i(TAG, "  Too fast sendCommand, skip.");
-//                return false;
-//            }
-
-            // If values haven't changed no need to resend them.
-            if (v0 == channelValues[0] && v1 == channelValues[1] && v2 == channelValues[2] && v3 == channelValues[3]) {
-                //Log.i(TAG, "  same values, skip.");
-                return true;
+            v0 = quantizeValue(v0);
+            v1 = quantizeValue(v1);
+            v2 = quantizeValue(v2);
+            v3 = quantizeValue(v3);
+
+            // The drive loop sends the command on its next tick.
+            targetChannelValues[0] = v0;
+            targetChannelValues[1] = v1;
+            targetChannelValues[2] = v2;
+            targetChannelValues[3] = v3;
+            addToDriveLoop();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean sendCommands(int channelMask, int v0, int v1, int v2, int v3) {
+
+        synchronized (lockObject) {
+            //Log.i(TAG, "sendCommands - " + getAddress());
+            //Log.i(TAG, "  channel mask: " + channelMask);
+
+            if ((channelMask & ~AllChannelsMask) != 0)
+                throw new IllegalArgumentException("channelMask must be in [0x0-0xf].");
+
+            if (!isConnected) {
+                Log.i(TAG, "  Not connected.");
+                return false;
             }
 
-            CommandMethod commandMethod = createWriteQuickDriveCommandMethod(v0, v1, v2, v3);
-            WriteCharacteristicCommand command = Command.newWriteQuickDriveCommand(this, commandMethod, v0, v1, v2, v3);
+            // The drive loop sends the changed channels in a single frame on its next tick.
+            if ((channelMask & 0x01) != 0) targetChannelValues[0] = quantizeValue(v0);
+            if ((channelMask & 0x02) != 0) targetChannelValues[1] = quantizeValue(v1);
+            if ((channelMask & 0x04) != 0) targetChannelValues[2] = quantizeValue(v2);
+            if ((channelMask & 0x08) != 0) targetChannelValues[3] = quantizeValue(v3);
+            addToDriveLoop();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean stop() {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "stop - " + getAddress());
 
-            if (sbrickManager.sendCommand(command)) {
-                stopWatchdogTimer();
-                return true;
+            // The drive loop must not resend the old values.
+            for (int channel = 0; channel < 4; channel++)
+                targetChannelValues[channel] = 0;
+
+            if (!isConnected) {
+                Log.i(TAG, "  Not connected.");
+                return false;
             }
 
-            return false;
+            if (!sendDriveCommand(AllChannelsMask))
+                return false;
+
+            lastDriveCommandTime = System.nanoTime();
+            return true;
         }
     }
 
@@ -209,11 +283,176 @@ abstract class SBrickBase implements SBrick {
     // Internal API
     //
 
+    /**
+     * @param channelCount is the number of channels in the frame.
+     * @return The size of the remote control drive frame {0x01, (channel, direction, power)...} in bytes.
+     */
+    static int getDriveFrameSize(int channelCount) {
+        return 1 + 3 * channelCount;
+    }
+
+    /**
+     * Derives the keep-alive period from the watchdog timeout. A keep-alive write may get lost,
+     * the next one still arrives within the timeout with a 20% margin.
+     * @param watchdogTimeoutMs is the watchdog timeout of the SBrick in milliseconds.
+     * @return The keep-alive period in nanoseconds.
+     */
+    static long getKeepAlivePeriodNs(int watchdogTimeoutMs) {
+        return TimeUnit.MILLISECONDS.toNanos(watchdogTimeoutMs) * 2 / 5;
+    }
+
+    long getExecutingOperationId() { return executingOperationId; }
+
+    void setExecutingOperationId(long operationId) { this.executingOperationId = operationId; }
+
     void setLastWriteCommand(WriteCharacteristicCommand lastWriteCommand) {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             this.lastWriteCommand = lastWriteCommand;
-            this.lastSendCommandTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Clamps the value to [-255, 255] and filters out the lower bits (they don't take any effect).
+     */
+    static int quantizeValue(int value) {
+        return Math.max(-255, Math.min(255, value & 0xfffffff8));
+    }
+
+    /**
+     * Called by the drive loop on every tick, sends the target values if they have changed
+     * or resends them if the keep-alive period has elapsed.
+     * @param now is the tick time in nanoseconds.
+     */
+    void onDriveTick(long now) {
+
+        synchronized (lockObject) {
+
+            if (!isConnected)
+                return;
+
+            int channelMask = 0;
+            for (int channel = 0; channel < 4; channel++) {
+                if (targetChannelValues[channel] != requestedChannelValues[channel])
+                    channelMask |= 1 << channel;
+            }
+
+            boolean isKeepAlive = channelMask == 0;
+            if (isKeepAlive) {
+                // Nothing new, resend the state of the running motors after the keep-alive period
+                // and the channels whose last write hasn't made it to the SBrick after the resend period.
+                boolean isUnacked = false;
+                for (int channel = 0; channel < 4; channel++) {
+                    if (targetChannelValues[channel] != channelValues[channel]) {
+                        channelMask |= 1 << channel;
+                        isUnacked = true;
+                    }
+                    else if (targetChannelValues[channel] != 0) {
+                        channelMask |= 1 << channel;
+                    }
+                }
+
+                long periodNs = isUnacked ? Math.min(ResendPeriodNs, keepAlivePeriodNs) : keepAlivePeriodNs;
+                if (channelMask == 0 || now - lastDriveCommandTime < periodNs)
+                    return;
+            }
+
+            boolean isSent = sendDriveCommand(channelMask);
+
+            // If the queue is full the next tick tries again.
+            if (isSent) {
+                if (isKeepAlive)
+                    metrics.onKeepAliveResend();
+
+                lastDriveCommandTime = now;
+            }
+        }
+    }
+
+    /**
+     * Called by the connection orchestrator if the connection couldn't be started.
+     */
+    void onConnectFailed() {
+
+        synchronized (lockObject) {
+            if (isConnected) {
+                setConnectionState(SBrickConnectionState.Ready);
+                return;
+            }
+
+            onConnectionAttemptFailed();
+        }
+    }
+
+    /**
+     * Called by the command pipeline when the GATT callback of the command hasn't arrived before its deadline.
+     * The pipeline has already moved on to the next command.
+     */
+    void onOperationTimedOut(Command command) {
+
+        synchronized (lockObject) {
+            Log.w(TAG, "onOperationTimedOut - " + getAddress() + ", " + command);
+
+            if (command instanceof ConnectCommand || command instanceof DiscoverServicesCommand) {
+                abortConnection();
+                onConnectionAttemptFailed();
+            }
+            else if (command instanceof ReadCharacteristicCommand) {
+                sendLocalBroadcast(ACTION_SBRICK_READ_CHARACTERISTIC_FAILED);
+            }
+
+            // A write hasn't updated the channel values, the drive loop resends it.
+        }
+    }
+
+    /**
+     * Called by the reconnect engine to start a reconnection attempt.
+     * @param autoConnect is true for a background connection, false for a direct one.
+     * @return True if the attempt has been started.
+     */
+    boolean reconnect(boolean autoConnect) {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "reconnect - " + getAddress());
+
+            if (isConnected) {
+                Log.i(TAG, "  Already connected.");
+                return false;
+            }
+
+            CommandMethod commandMethod = createConnectCommandMethod(autoConnect);
+            if (!sbrickManager.sendCommand(Command.newConnectCommand(this, commandMethod)))
+                return false;
+
+            setConnectionState(SBrickConnectionState.Connecting);
+            return true;
+        }
+    }
+
+    /**
+     * Called by the reconnect engine when the SBrick is ready again after a connection loss.
+     * The SBrick has stopped its motors meanwhile, the drive state is restored in a single drive frame.
+     * @param isReplay is true to restore the last target values, false to stop the motors.
+     */
+    void restoreDriveState(boolean isReplay) {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "restoreDriveState - " + getAddress());
+
+            if (!isConnected) {
+                Log.w(TAG, "  Not connected.");
+                return;
+            }
+
+            for (int channel = 0; channel < 4; channel++) {
+                if (!isReplay)
+                    targetChannelValues[channel] = 0;
+
+                channelValues[channel] = 0;
+            }
+
+            if (sendDriveCommand(AllChannelsMask))
+                lastDriveCommandTime = System.nanoTime();
         }
     }
 
@@ -221,6 +460,111 @@ abstract class SBrickBase implements SBrick {
     // Protected methods
     //
 
+    /**
+     * Called by the implementations when the connection of a ready SBrick has been lost.
+     * The reconnect engine takes over, the disconnected broadcast lets the UI know.
+     */
+    protected void onConnectionLost() {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "onConnectionLost - " + getAddress());
+
+            isConnected = false;
+            setConnectionState(SBrickConnectionState.Disconnected);
+
+            if (!sbrickManager.onConnectionLost(this))
+                Log.w(TAG, "  SBrick is not going to be reconnected.");
+
+            sendLocalBroadcast(ACTION_SBRICK_DISCONNECTED);
+        }
+    }
+
+    /**
+     * Called by the implementations when a connection attempt has failed.
+     * The connect failed broadcast is only sent if the reconnect engine doesn't retry.
+     */
+    protected void onConnectionAttemptFailed() {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "onConnectionAttemptFailed - " + getAddress());
+
+            isConnected = false;
+            setConnectionState(SBrickConnectionState.Failed);
+
+            if (!sbrickManager.onConnectionAttemptFailed(this))
+                sendLocalBroadcast(ACTION_SBRICK_CONNECT_FAILED);
+        }
+    }
+
+    /**
+     * Sets the connection state, measures the connect and discover services times
+     * and lets the manager know about the change.
+     */
+    protected void setConnectionState(SBrickConnectionState state) {
+
+        synchronized (lockObject) {
+            long now = System.nanoTime();
+
+            switch (state) {
+                case Connecting:
+                    connectStartTime = now;
+                    // The SBrick may have been restarted meanwhile, its watchdog is back to the default.
+                    keepAlivePeriodNs = getKeepAlivePeriodNs(DefaultHardwareWatchdogTimeoutMs);
+                    break;
+
+                case DiscoveringServices:
+                    metrics.onConnected(now - connectStartTime);
+                    discoverServicesStartTime = now;
+                    break;
+
+                case Ready:
+                    metrics.onServicesDiscovered(now - discoverServicesStartTime);
+                    setWatchdogTimeout(sbrickManager.getWatchdogTimeout());
+                    break;
+            }
+
+            connectionState = state;
+        }
+
+        sbrickManager.onConnectionStateChanged(this, state);
+    }
+
+    /**
+     * Updates the channel values after the last write command has been written successfully.
+     */
+    protected void onWriteCharacteristicDone() {
+
+        synchronized (lockObject) {
+
+            if (lastWriteCommand == null)
+                return;
+
+            sbrickManager.onCommandAcked(lastWriteCommand, System.nanoTime());
+
+            // Update channel values
+            if (lastWriteCommand instanceof WriteRemoteControlCommand) {
+                WriteRemoteControlCommand command = (WriteRemoteControlCommand) lastWriteCommand;
+                channelValues[command.getChannel()] = command.getValue();
+            } else if (lastWriteCommand instanceof WriteMultiDriveCommand) {
+                WriteMultiDriveCommand command = (WriteMultiDriveCommand) lastWriteCommand;
+                for (int channel = 0; channel < 4; channel++) {
+                    if (command.hasChannel(channel))
+                        channelValues[channel] = command.getValue(channel);
+                }
+            } else if (lastWriteCommand instanceof WriteQuickDriveCommand) {
+                WriteQuickDriveCommand command = (WriteQuickDriveCommand) lastWriteCommand;
+                channelValues[0] = command.getV0();
+                channelValues[1] = command.getV1();
+                channelValues[2] = command.getV2();
+                channelValues[3] = command.getV3();
+            } else if (lastWriteCommand instanceof WriteWatchdogTimeoutCommand) {
+                int timeoutMs = ((WriteWatchdogTimeoutCommand) lastWriteCommand).getTimeoutMs();
+                keepAlivePeriodNs = getKeepAlivePeriodNs(timeoutMs);
+                metrics.onWatchdogTimeoutSet(timeoutMs);
+            }
+        }
+    }
+
     protected Intent buildBroadcastIntent(String action) {
         Intent intent = new Intent();
         intent.setAction(action);
@@ -233,57 +577,217 @@ abstract class SBrickBase implements SBrick {
         LocalBroadcastManager.getInstance(context).sendBroadcast(buildBroadcastIntent(action));
     }
 
-    protected void startWatchdogTimer() {
+    //
+    // Abstract protected methods
+    //
 
-        synchronized (sbrickManager.getLockObject()) {
-            //Log.i(TAG, "startWatchdogTimer...");
+    /**
+     * Creates the command method of the connect command.
+     * @param autoConnect is true for a background connection, false for a direct one.
+     */
+    protected abstract CommandMethod createConnectCommandMethod(boolean autoConnect);
 
-            // Stop watchdog timer if already running
-            stopWatchdogTimer();
+    protected abstract CommandMethod createDiscoverServicesCommandMethod();
 
-            watchdogTimer = new Timer();
-            watchdogTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
+    /**
+     * Drops the connection being established, no callback is expected afterwards.
+     */
+    protected abstract void abortConnection();
 
-                    synchronized (sbrickManager.getLockObject()) {
-                        //Log.i(TAG, "watchdogTimer.schedule...");
+    protected abstract CommandMethod createReadCharacteristicCommandMethod(SBrickCharacteristicType characteristicType);
 
-                        // If watchdog still needs to run and there was a write command send it again.
-                        if (watchdogTimer != null && lastWriteCommand != null)
-                            sbrickManager.sendPriorityCommand(lastWriteCommand);
+    /**
+     * Writes the remote control characteristic (drive command).
+     * Called on the command processing thread, it must not allocate.
+     */
+    protected abstract boolean writeRemoteControl(int channel, int value);
+
+    /**
+     * Writes the channels in the channel mask in a single remote control drive frame.
+     * Called on the command processing thread, it must not allocate.
+     */
+    protected abstract boolean writeMultiDrive(int channelMask, int v0, int v1, int v2, int v3);
+
+    /**
+     * Writes the quick drive characteristic.
+     * Called on the command processing thread, it must not allocate.
+     */
+    protected abstract boolean writeQuickDrive(int v0, int v1, int v2, int v3);
+
+    /**
+     * Writes the watchdog timeout command to the remote control characteristic.
+     * @param timeoutMs is the timeout in milliseconds.
+     */
+    protected abstract boolean writeWatchdogTimeout(int timeoutMs);
+
+    /**
+     * @return True if the SBrick has the quick drive characteristic.
+     */
+    protected abstract boolean isQuickDriveSupported();
 
-                        watchdogTimer = null;
-                    }
-                }
-            }, 200);
+    //
+    // Private methods and classes
+    //
+
+    /**
+     * Sets the watchdog timeout of the SBrick, the keep-alive period follows it when the SBrick has confirmed it.
+     * It goes before the pending drive commands.
+     */
+    private void setWatchdogTimeout(final int timeoutMs) {
+
+        CommandMethod commandMethod = new CommandMethod() {
+            @Override
+            public boolean execute() {
+                return writeWatchdogTimeout(timeoutMs);
+            }
+        };
+
+        if (!sbrickManager.sendPriorityCommand(Command.newWriteWatchdogTimeoutCommand(this, commandMethod, timeoutMs)))
+            Log.w(TAG, "Could not send the watchdog timeout command - " + getAddress());
+    }
+
+    private void addToDriveLoop() {
+
+        if (!isInDriveLoop) {
+            sbrickManager.getDriveLoop().add(this);
+            isInDriveLoop = true;
         }
     }
 
-    protected void stopWatchdogTimer() {
+    /**
+     * Sends the target values of the channels in the channel mask in the smallest frame:
+     * single channel drive, quick drive (all the channels in 4 bytes) or multi-channel drive.
+     */
+    private boolean sendDriveCommand(int channelMask) {
 
-        synchronized (sbrickManager.getLockObject()) {
-            //Log.i(TAG, "stopWatchdogTimer...");
+        int channelCount = Integer.bitCount(channelMask);
 
-            if (watchdogTimer != null) {
-                watchdogTimer.cancel();
-                watchdogTimer.purge();
-                watchdogTimer = null;
-            }
+        if (isQuickDriveSupported() && QuickDriveFrameSize < getDriveFrameSize(channelCount))
+            return sendQuickDriveCommand(targetChannelValues[0], targetChannelValues[1], targetChannelValues[2], targetChannelValues[3]);
+
+        if (channelCount == 1) {
+            int channel = Integer.numberOfTrailingZeros(channelMask);
+            return sendRemoteControlCommand(channel, targetChannelValues[channel]);
         }
+
+        return sendMultiDriveCommand(channelMask);
     }
 
-    //
-    // Abstract protected methods
-    //
+    private boolean sendRemoteControlCommand(int channel, int value) {
 
-    protected abstract CommandMethod createConnectCommandMethod();
+        WriteRemoteControlCommand command;
+        if (sbrickManager.isCommandCoalescing()) {
+            // Only one command is pending per channel, the preallocated one can be reused.
+            command = remoteControlCommands[channel];
+            command.setValue(value);
+        }
+        else {
+            command = newWriteRemoteControlCommand(channel, value);
+        }
 
-    protected abstract CommandMethod createDiscoverServicesCommandMethod();
+        if (!sbrickManager.sendCommand(command))
+            return false;
 
-    protected abstract CommandMethod createReadCharacteristicCommandMethod(SBrickCharacteristicType characteristicType);
+        requestedChannelValues[channel] = value;
+        return true;
+    }
 
-    protected abstract CommandMethod createWriteRemoteControlCommandMethod(int channel, int value);
+    private boolean sendQuickDriveCommand(int v0, int v1, int v2, int v3) {
 
-    protected abstract CommandMethod createWriteQuickDriveCommandMethod(int v0, int v1, int v2, int v3);
+        WriteQuickDriveCommand command;
+        if (sbrickManager.isCommandCoalescing()) {
+            // Only one quick drive command is pending, the preallocated one can be reused.
+            command = quickDriveCommand;
+            command.setValues(v0, v1, v2, v3);
+        }
+        else {
+            command = newWriteQuickDriveCommand(v0, v1, v2, v3);
+        }
+
+        if (!sbrickManager.sendCommand(command))
+            return false;
+
+        requestedChannelValues[0] = v0;
+        requestedChannelValues[1] = v1;
+        requestedChannelValues[2] = v2;
+        requestedChannelValues[3] = v3;
+        return true;
+    }
+
+    private boolean sendMultiDriveCommand(int channelMask) {
+
+        int v0 = targetChannelValues[0];
+        int v1 = targetChannelValues[1];
+        int v2 = targetChannelValues[2];
+        int v3 = targetChannelValues[3];
+
+        WriteMultiDriveCommand command;
+        if (sbrickManager.isCommandCoalescing()) {
+            // Only one multi-channel drive command is pending, the preallocated one can be reused.
+            command = multiDriveCommand;
+            command.setValues(channelMask, v0, v1, v2, v3);
+        }
+        else {
+            command = newWriteMultiDriveCommand(channelMask, v0, v1, v2, v3);
+        }
+
+        if (!sbrickManager.sendCommand(command))
+            return false;
+
+        for (int channel = 0; channel < 4; channel++) {
+            if ((channelMask & (1 << channel)) != 0)
+                requestedChannelValues[channel] = targetChannelValues[channel];
+        }
+        return true;
+    }
+
+    private WriteRemoteControlCommand newWriteRemoteControlCommand(int channel, int value) {
+        WriteRemoteControlCommandMethod commandMethod = new WriteRemoteControlCommandMethod();
+        commandMethod.command = Command.newWriteRemoteControlCommand(this, commandMethod, channel, value);
+        return commandMethod.command;
+    }
+
+    private WriteMultiDriveCommand newWriteMultiDriveCommand(int channelMask, int v0, int v1, int v2, int v3) {
+        WriteMultiDriveCommandMethod commandMethod = new WriteMultiDriveCommandMethod();
+        commandMethod.command = Command.newWriteMultiDriveCommand(this, commandMethod, channelMask, v0, v1, v2, v3);
+        return commandMethod.command;
+    }
+
+    private WriteQuickDriveCommand newWriteQuickDriveCommand(int v0, int v1, int v2, int v3) {
+        WriteQuickDriveCommandMethod commandMethod = new WriteQuickDriveCommandMethod();
+        commandMethod.command = Command.newWriteQuickDriveCommand(this, commandMethod, v0, v1, v2, v3);
+        return commandMethod.command;
+    }
+
+    // Command methods reading the (latched) values of their command at execution time.
+
+    private final class WriteRemoteControlCommandMethod implements CommandMethod {
+
+        private WriteRemoteControlCommand command;
+
+        @Override
+        public boolean execute() {
+            return writeRemoteControl(command.getChannel(), command.getValue());
+        }
+    }
+
+    private final class WriteMultiDriveCommandMethod implements CommandMethod {
+
+        private WriteMultiDriveCommand command;
+
+        @Override
+        public boolean execute() {
+            return writeMultiDrive(command.getChannelMask(), command.getV0(), command.getV1(), command.getV2(), command.getV3());
+        }
+    }
+
+    private final class WriteQuickDriveCommandMethod implements CommandMethod {
+
+        private WriteQuickDriveCommand command;
+
+        @Override
+        public boolean execute() {
+            return writeQuickDrive(command.getV0(), command.getV1(), command.getV2(), command.getV3());
+        }
+    }
 }
@@ -0,0 +1,403 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import com.scn.sbrickmanager.sbrickcommand.Command;
+import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
+import com.scn.sbrickmanager.sbrickcommand.QuitCommand;
+import com.scn.sbrickmanager.sbrickcommand.SBrickCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteMultiDriveCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteQuickDriveCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteRemoteControlCommand;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command pipeline of a single SBrick.
+ * Every SBrick has its own command queue, in-flight semaphore and worker thread
+ * so a slow GATT operation on one SBrick doesn't hold up the others.
+ *
+ * In coalescing mode the drive (write) commands don't go to the FIFO queue,
+ * they are kept in pending slots instead (one per remote control channel, one for
+ * multi-channel drive and one for quick drive) and a newer command replaces the pending one in place.
+ * Connect, discover and read commands always keep their FIFO order.
+ * A reused (preallocated) drive command goes to its pending slot even if coalescing has just been
+ * turned off, so an instance is never in the queue and in a slot (or twice in the queue) at once.
+ *
+ * The in-flight operation (the executed command waiting for its GATT callback) has a deadline.
+ * If the callback doesn't arrive in time the operation is failed and the next command is processed.
+ * Every operation gets a new id, the callback releases the slot with the id of its operation
+ * so a late callback of a timed out operation doesn't release the next one.
+ */
+class SBrickCommandPipeline {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickCommandPipeline.class.getSimpleName();
+
+    private static final int CommandQueueCapacity = 20;
+
+    private final SBrickManagerBase sbrickManager;
+    private final String sbrickAddress;
+
+    // Pending slot indices: 0-3 are the remote control channels, 4 is the quick drive, 5 is the multi-channel drive.
+    private static final int QuickDriveSlot = 4;
+    private static final int MultiDriveSlot = 5;
+    private static final int PendingSlotCount = 6;
+
+    private final Object queueLock = new Object();
+    private final ArrayDeque<Command> commandQueue = new ArrayDeque<>(CommandQueueCapacity);
+    private final WriteCharacteristicCommand[] pendingWriteCommands = new WriteCharacteristicCommand[PendingSlotCount];
+    private final int[] pendingSlotOrder = new int[PendingSlotCount];
+    private int pendingSlotHead = 0;
+    private int pendingSlotCount = 0;
+
+    // A permit is available when no operation is in flight.
+    private final Semaphore commandSemaphore = new Semaphore(1);
+
+    private final Object inFlightLock = new Object();
+    private Command inFlightCommand = null;
+    // System.nanoTime deadline of the in-flight command, 0 if it never times out.
+    private long inFlightDeadline = 0;
+    // Id of the in-flight operation, 0 is never used.
+    private long inFlightOperationId = 0;
+    private long lastOperationId = 0;
+    private Thread commandProcessThread = null;
+
+    private volatile boolean isCoalescing = true;
+
+    //
+    // Constructor
+    //
+
+    SBrickCommandPipeline(SBrickManagerBase sbrickManager, String sbrickAddress) {
+        Log.i(TAG, "SBrickCommandPipeline - " + sbrickAddress);
+
+        this.sbrickManager = sbrickManager;
+        this.sbrickAddress = sbrickAddress;
+    }
+
+    //
+    // Internal API
+    //
+
+    String getSBrickAddress() { return sbrickAddress; }
+
+    void setCoalescing(boolean isCoalescing) { this.isCoalescing = isCoalescing; }
+
+    synchronized void start() {
+        Log.i(TAG, "start - " + sbrickAddress);
+
+        if (commandProcessThread != null) {
+            Log.w(TAG, "  Pipeline has already been started.");
+            return;
+        }
+
+        commandProcessThread = new Thread("SBrickCommandPipeline-" + sbrickAddress) {
+
+            @Override
+            public void run() {
+
+                try {
+                    while (true) {
+                        long operationId = 0;
+                        // True while this iteration holds the permit and no operation has taken it over.
+                        boolean isHoldingPermit = false;
+                        try {
+                            // Wait for the GATT callback to release the semaphore (or the deadline to pass).
+                            awaitInFlightOperation();
+                            isHoldingPermit = true;
+
+                            // Get the next command to process.
+                            Command command = takeCommand();
+
+                            if (command instanceof QuitCommand) {
+
+                                // Quit command
+                                Log.i(TAG, "Quit command - " + sbrickAddress);
+                                clearCommands();
+                                break;
+                            } else if (command instanceof SBrickCommand) {
+
+                                SBrickCommand sbrickCommand = (SBrickCommand) command;
+                                CommandMethod commandMethod = sbrickCommand.getCommandMethod();
+                                SBrickBase sbrick = (SBrickBase) sbrickCommand.getSbrick();
+
+                                // Set the last write command and its time on the SBrick before executing,
+                                // the GATT callback may arrive before execute() returns.
+                                if (command instanceof WriteCharacteristicCommand) {
+                                    WriteCharacteristicCommand writeCommand = (WriteCharacteristicCommand) command;
+                                    writeCommand.latch();
+                                    sbrick.setLastWriteCommand(writeCommand);
+                                }
+
+                                // Execute the command method, it's in flight before execute() returns.
+                                long now = System.nanoTime();
+                                sbrickManager.onCommandDequeued(command, now);
+                                operationId = setInFlightCommand(command, now);
+                                isHoldingPermit = false;
+                                sbrick.setExecutingOperationId(operationId);
+                                boolean isExecuted = commandMethod != null && commandMethod.execute();
+                                sbrickManager.onCommandExecuted(command, System.nanoTime());
+
+                                if (!isExecuted) {
+                                    Log.w(TAG, "Command method execution failed - " + sbrickAddress);
+                                    // Command wasn't sent, no need to wait for the GATT callback.
+                                    releaseCommandSemaphore(operationId);
+                                }
+                            } else {
+                                Log.w(TAG, "Unknown command - " + sbrickAddress + ", " + command);
+                                isHoldingPermit = false;
+                                commandSemaphore.release();
+                            }
+                        } catch (InterruptedException ex) {
+                            Log.i(TAG, "Command process thread has been interrupted - " + sbrickAddress);
+                            break;
+                        } catch (Exception ex) {
+                            Log.e(TAG, "Command process thread has thrown an exception - " + sbrickAddress, ex);
+
+                            // No operation has been registered, the permit would be lost otherwise.
+                            if (isHoldingPermit)
+                                commandSemaphore.release();
+                            else
+                                releaseCommandSemaphore(operationId);
+                        }
+                    }
+
+                    Log.i(TAG, "Command process thread exits - " + sbrickAddress);
+                } catch (Exception ex) {
+                    Log.e(TAG, "Command process thread has thrown an exception - " + sbrickAddress, ex);
+                }
+            }
+        };
+
+        commandProcessThread.start();
+    }
+
+    synchronized void stop() {
+        Log.i(TAG, "stop - " + sbrickAddress);
+
+        if (commandProcessThread == null) {
+            Log.w(TAG, "  Pipeline has not been started.");
+            return;
+        }
+
+        synchronized (queueLock) {
+            clearCommands();
+            commandQueue.offerFirst(Command.newQuitCommand());
+            queueLock.notifyAll();
+        }
+
+        // Just to be sure the semaphore doesn't block the thread.
+        commandSemaphore.release();
+
+        commandProcessThread = null;
+    }
+
+    boolean sendCommand(Command command) {
+
+        synchronized (queueLock) {
+            if (command instanceof WriteCharacteristicCommand && (isCoalescing || ((WriteCharacteristicCommand) command).isReused())) {
+                setPendingWriteCommand((WriteCharacteristicCommand) command);
+            }
+            else {
+                if (commandQueue.size() >= CommandQueueCapacity)
+                    return false;
+
+                commandQueue.offerLast(command);
+            }
+
+            queueLock.notifyAll();
+            return true;
+        }
+    }
+
+    boolean sendPriorityCommand(Command command) {
+
+        synchronized (queueLock) {
+            if (commandQueue.size() >= CommandQueueCapacity)
+                return false;
+
+            commandQueue.offerFirst(command);
+            queueLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Called when the GATT callback of the in-flight command has arrived.
+     * A callback of another operation (late or unsolicited) is ignored.
+     * @param operationId is the id of the operation the callback belongs to.
+     */
+    void releaseCommandSemaphore(long operationId) {
+
+        synchronized (inFlightLock) {
+            if (inFlightCommand == null || inFlightOperationId != operationId) {
+                Log.w(TAG, "Callback of operation " + operationId + " ignored, in flight: " + inFlightOperationId + " - " + sbrickAddress);
+                return;
+            }
+
+            inFlightCommand = null;
+            inFlightDeadline = 0;
+            inFlightOperationId = 0;
+        }
+
+        commandSemaphore.release();
+    }
+
+    //
+    // Private methods
+    //
+
+    /**
+     * @return The id of the new in-flight operation.
+     */
+    private long setInFlightCommand(Command command, long now) {
+
+        long timeoutNs = sbrickManager.getOperationTimeoutNs(command);
+
+        synchronized (inFlightLock) {
+            inFlightCommand = command;
+            inFlightDeadline = timeoutNs > 0 ? now + timeoutNs : 0;
+            inFlightOperationId = ++lastOperationId;
+            return inFlightOperationId;
+        }
+    }
+
+    /**
+     * Waits until the in-flight operation is done. If its deadline passes the operation is failed
+     * and the slot is taken over.
+     */
+    private void awaitInFlightOperation() throws InterruptedException {
+
+        while (true) {
+            long deadline;
+            synchronized (inFlightLock) {
+                deadline = inFlightDeadline;
+            }
+
+            if (deadline == 0) {
+                commandSemaphore.acquire();
+                return;
+            }
+
+            long remainingNs = deadline - System.nanoTime();
+            if (remainingNs > 0 && commandSemaphore.tryAcquire(remainingNs, TimeUnit.NANOSECONDS))
+                return;
+
+            Command timedOutCommand = null;
+            synchronized (inFlightLock) {
+                if (inFlightCommand != null && inFlightDeadline == deadline) {
+                    timedOutCommand = inFlightCommand;
+                    inFlightCommand = null;
+                    inFlightDeadline = 0;
+                    inFlightOperationId = 0;
+                }
+            }
+
+            // Released right at the deadline, take the permit.
+            if (timedOutCommand == null)
+                continue;
+
+            Log.w(TAG, "Operation timed out - " + sbrickAddress + ", " + timedOutCommand);
+            sbrickManager.onCommandTimedOut(timedOutCommand);
+            return;
+        }
+    }
+
+    private Command takeCommand() throws InterruptedException {
+
+        synchronized (queueLock) {
+            while (commandQueue.isEmpty() && pendingSlotCount == 0)
+                queueLock.wait();
+
+            // Commands in the FIFO queue (connect, read, priority commands) go first.
+            if (!commandQueue.isEmpty())
+                return commandQueue.pollFirst();
+
+            int slot = pendingSlotOrder[pendingSlotHead];
+            pendingSlotHead = (pendingSlotHead + 1) % PendingSlotCount;
+            pendingSlotCount--;
+
+            Command command = pendingWriteCommands[slot];
+            pendingWriteCommands[slot] = null;
+            return command;
+        }
+    }
+
+    private void setPendingWriteCommand(WriteCharacteristicCommand command) {
+
+        int slot;
+        if (command instanceof WriteRemoteControlCommand) {
+            slot = ((WriteRemoteControlCommand) command).getChannel();
+        }
+        else if (command instanceof WriteQuickDriveCommand) {
+            slot = QuickDriveSlot;
+
+            // Quick drive sets all the channels, the older pending channel writes are obsolete.
+            for (int channel = 0; channel < QuickDriveSlot; channel++)
+                removePendingSlot(channel);
+            removePendingSlot(MultiDriveSlot);
+        }
+        else if (command instanceof WriteMultiDriveCommand) {
+            slot = MultiDriveSlot;
+
+            // The older pending writes of the channels in the frame are obsolete.
+            WriteMultiDriveCommand multiDriveCommand = (WriteMultiDriveCommand) command;
+            for (int channel = 0; channel < QuickDriveSlot; channel++) {
+                if (multiDriveCommand.hasPendingChannel(channel))
+                    removePendingSlot(channel);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Unknown write command: " + command);
+        }
+
+        if (pendingWriteCommands[slot] != null) {
+            sbrickManager.onCommandCoalesced(pendingWriteCommands[slot]);
+        }
+        else {
+            pendingSlotOrder[(pendingSlotHead + pendingSlotCount) % PendingSlotCount] = slot;
+            pendingSlotCount++;
+        }
+
+        // Replace the pending command in place, it keeps its position.
+        pendingWriteCommands[slot] = command;
+    }
+
+    private void removePendingSlot(int slot) {
+
+        if (pendingWriteCommands[slot] == null)
+            return;
+
+        sbrickManager.onCommandCoalesced(pendingWriteCommands[slot]);
+        pendingWriteCommands[slot] = null;
+
+        // Compact the pending slot order ring
+        int count = 0;
+        for (int i = 0; i < pendingSlotCount; i++) {
+            int s = pendingSlotOrder[(pendingSlotHead + i) % PendingSlotCount];
+            if (s != slot)
+                pendingSlotOrder[(pendingSlotHead + count++) % PendingSlotCount] = s;
+        }
+        pendingSlotCount = count;
+    }
+
+    private void clearCommands() {
+
+        synchronized (queueLock) {
+            commandQueue.clear();
+
+            for (int slot = 0; slot < PendingSlotCount; slot++)
+                pendingWriteCommands[slot] = null;
+
+            pendingSlotHead = 0;
+            pendingSlotCount = 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import com.scn.sbrickmanager.sbrickcommand.Command;
+import com.scn.sbrickmanager.sbrickcommand.SBrickCommand;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Schedules the commands on the per-SBrick command pipelines.
+ */
+class SBrickCommandScheduler {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickCommandScheduler.class.getSimpleName();
+
+    private final SBrickManagerBase sbrickManager;
+
+    // The pipelines are looked up without locking, only starting, stopping and
+    // creating a pipeline take the scheduler lock.
+    private final ConcurrentMap<String, SBrickCommandPipeline> pipelineMap = new ConcurrentHashMap<>();
+    private volatile boolean isRunning = false;
+    private volatile boolean isCoalescing = true;
+
+    //
+    // Constructor
+    //
+
+    SBrickCommandScheduler(SBrickManagerBase sbrickManager) {
+        this.sbrickManager = sbrickManager;
+    }
+
+    //
+    // Internal API
+    //
+
+    boolean isRunning() { return isRunning; }
+
+    boolean isCoalescing() { return isCoalescing; }
+
+    synchronized void setCoalescing(boolean isCoalescing) {
+        Log.i(TAG, "setCoalescing - " + isCoalescing);
+
+        this.isCoalescing = isCoalescing;
+
+        for (SBrickCommandPipeline pipeline : pipelineMap.values())
+            pipeline.setCoalescing(isCoalescing);
+    }
+
+    synchronized boolean start() {
+        Log.i(TAG, "start...");
+
+        if (isRunning) {
+            Log.w(TAG, "  Scheduler has already been started.");
+            return false;
+        }
+
+        isRunning = true;
+        return true;
+    }
+
+    synchronized void stop() {
+        Log.i(TAG, "stop...");
+
+        if (!isRunning) {
+            Log.w(TAG, "  Scheduler has not been started.");
+            return;
+        }
+
+        for (SBrickCommandPipeline pipeline : pipelineMap.values())
+            pipeline.stop();
+
+        pipelineMap.clear();
+        isRunning = false;
+    }
+
+    boolean sendCommand(Command command) {
+        SBrickCommandPipeline pipeline = getPipeline(command);
+        return pipeline != null && pipeline.sendCommand(command);
+    }
+
+    boolean sendPriorityCommand(Command command) {
+        SBrickCommandPipeline pipeline = getPipeline(command);
+        return pipeline != null && pipeline.sendPriorityCommand(command);
+    }
+
+    void releaseCommandSemaphore(SBrick sbrick, long operationId) {
+        SBrickCommandPipeline pipeline = pipelineMap.get(sbrick.getAddress());
+        if (pipeline != null)
+            pipeline.releaseCommandSemaphore(operationId);
+    }
+
+    //
+    // Private methods
+    //
+
+    private SBrickCommandPipeline getPipeline(Command command) {
+
+        if (!isRunning) {
+            Log.w(TAG, "Command processing has not been started.");
+            return null;
+        }
+
+        if (!(command instanceof SBrickCommand)) {
+            Log.w(TAG, "Not an SBrick command: " + command);
+            return null;
+        }
+
+        String sbrickAddress = ((SBrickCommand) command).getSbrick().getAddress();
+
+        SBrickCommandPipeline pipeline = pipelineMap.get(sbrickAddress);
+        if (pipeline != null)
+            return pipeline;
+
+        return createPipeline(sbrickAddress);
+    }
+
+    private synchronized SBrickCommandPipeline createPipeline(String sbrickAddress) {
+
+        // Stopped meanwhile
+        if (!isRunning)
+            return null;
+
+        SBrickCommandPipeline pipeline = pipelineMap.get(sbrickAddress);
+        if (pipeline == null) {
+            pipeline = new SBrickCommandPipeline(sbrickManager, sbrickAddress);
+            pipeline.setCoalescing(isCoalescing);
+            pipelineMap.put(sbrickAddress, pipeline);
+            pipeline.start();
+        }
+
+        return pipeline;
+    }
+}
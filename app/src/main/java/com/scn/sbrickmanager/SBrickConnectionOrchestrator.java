@@ -0,0 +1,222 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects a group of SBricks with bounded parallelism.
+ * At most maxParallelConnections GATT connections are being opened at a time, a connection
+ * slot is freed when the GATT connection is up (service discovery runs on the SBrick's own
+ * pipeline) or the connection has failed. It measures the time until all the SBricks are ready
+ * (or have failed) and counts the SBricks that have failed.
+ */
+class SBrickConnectionOrchestrator {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickConnectionOrchestrator.class.getSimpleName();
+
+    static final int DefaultMaxParallelConnections = 3;
+
+    // The connects are started on this thread, never under an SBrick lock.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SBrickConnectionOrchestrator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Object lockObject = new Object();
+
+    private final ArrayDeque<SBrickBase> waitingSBricks = new ArrayDeque<>();
+    private final Set<SBrickBase> connectingSBricks = new HashSet<>();
+    private final Set<SBrickBase> pendingSBricks = new HashSet<>();
+
+    private int maxParallelConnections = DefaultMaxParallelConnections;
+    private long startTime = 0;
+    private long timeToAllReadyNs = -1;
+    private int failedCount = 0;
+
+    //
+    // Constructor
+    //
+
+    SBrickConnectionOrchestrator() {
+        Log.i(TAG, "SBrickConnectionOrchestrator...");
+    }
+
+    //
+    // Internal API
+    //
+
+    int getMaxParallelConnections() {
+        synchronized (lockObject) {
+            return maxParallelConnections;
+        }
+    }
+
+    void setMaxParallelConnections(int maxParallelConnections) {
+        Log.i(TAG, "setMaxParallelConnections - " + maxParallelConnections);
+
+        if (maxParallelConnections < 1)
+            throw new IllegalArgumentException("maxParallelConnections must be at least 1.");
+
+        synchronized (lockObject) {
+            this.maxParallelConnections = maxParallelConnections;
+        }
+
+        startNextConnections();
+    }
+
+    /**
+     * @return The time from the start of the connection until all the SBricks got ready or failed in milliseconds,
+     * -1 while some of them are still connecting.
+     */
+    long getTimeToAllReadyMs() {
+        synchronized (lockObject) {
+            return timeToAllReadyNs < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(timeToAllReadyNs);
+        }
+    }
+
+    /**
+     * @return The number of the SBricks that have failed to connect since the start of the connection.
+     */
+    int getFailedCount() {
+        synchronized (lockObject) {
+            return failedCount;
+        }
+    }
+
+    /**
+     * Starts connecting the SBricks, the ones already connected are skipped.
+     * The SBricks join the connection in progress if there is one.
+     * @param sbricks is the SBricks to connect.
+     */
+    void connect(List<SBrickBase> sbricks) {
+        Log.i(TAG, "connect - " + sbricks.size() + " SBrick(s)");
+
+        synchronized (lockObject) {
+            if (pendingSBricks.isEmpty()) {
+                startTime = System.nanoTime();
+                timeToAllReadyNs = -1;
+                failedCount = 0;
+            }
+
+            for (SBrickBase sbrick : sbricks) {
+                if (sbrick.isConnected() || pendingSBricks.contains(sbrick))
+                    continue;
+
+                pendingSBricks.add(sbrick);
+
+                // Being connected already (e.g. reconnecting), just wait for it.
+                SBrickConnectionState state = sbrick.getConnectionState();
+                if (state == SBrickConnectionState.Connecting || state == SBrickConnectionState.DiscoveringServices)
+                    continue;
+
+                waitingSBricks.offerLast(sbrick);
+            }
+
+            if (pendingSBricks.isEmpty()) {
+                Log.i(TAG, "  All the SBricks are connected.");
+                timeToAllReadyNs = 0;
+                return;
+            }
+        }
+
+        startNextConnections();
+    }
+
+    /**
+     * Called by the SBricks when their connection state changes.
+     */
+    void onConnectionStateChanged(SBrickBase sbrick, SBrickConnectionState state) {
+
+        synchronized (lockObject) {
+            if (!pendingSBricks.contains(sbrick))
+                return;
+
+            switch (state) {
+                case DiscoveringServices:
+                    connectingSBricks.remove(sbrick);
+                    break;
+
+                case Ready:
+                    connectingSBricks.remove(sbrick);
+                    pendingSBricks.remove(sbrick);
+                    onSBrickSettled();
+                    break;
+
+                case Failed:
+                case Disconnected:
+                    Log.w(TAG, "Failed to connect SBrick - " + sbrick.getAddress());
+                    connectingSBricks.remove(sbrick);
+                    pendingSBricks.remove(sbrick);
+                    failedCount++;
+                    onSBrickSettled();
+                    break;
+
+                default:
+                    return;
+            }
+        }
+
+        startNextConnections();
+    }
+
+    //
+    // Private methods
+    //
+
+    // Guarded by the lock object
+    private void onSBrickSettled() {
+
+        if (!pendingSBricks.isEmpty())
+            return;
+
+        timeToAllReadyNs = System.nanoTime() - startTime;
+        if (failedCount == 0)
+            Log.i(TAG, "All the SBricks are ready in " + TimeUnit.NANOSECONDS.toMillis(timeToAllReadyNs) + " ms.");
+        else
+            Log.w(TAG, "All the SBricks are ready or failed in " + TimeUnit.NANOSECONDS.toMillis(timeToAllReadyNs) + " ms, " + failedCount + " failed.");
+    }
+
+    private void startNextConnections() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                List<SBrickBase> sbricksToConnect = new ArrayList<>();
+
+                synchronized (lockObject) {
+                    while (connectingSBricks.size() < maxParallelConnections && !waitingSBricks.isEmpty()) {
+                        SBrickBase sbrick = waitingSBricks.pollFirst();
+                        connectingSBricks.add(sbrick);
+                        sbricksToConnect.add(sbrick);
+                    }
+                }
+
+                for (SBrickBase sbrick : sbricksToConnect) {
+                    Log.i(TAG, "Start connecting SBrick - " + sbrick.getAddress());
+
+                    if (!sbrick.connect()) {
+                        Log.w(TAG, "  Could not start connecting.");
+                        sbrick.onConnectFailed();
+                    }
+                }
+            }
+        });
+    }
+}
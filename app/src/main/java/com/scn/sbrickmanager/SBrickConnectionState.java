@@ -0,0 +1,12 @@
+package com.scn.sbrickmanager;
+
+/**
+ * SBrick connection state.
+ */
+public enum SBrickConnectionState {
+    Disconnected,
+    Connecting,
+    DiscoveringServices,
+    Ready,
+    Failed
+}
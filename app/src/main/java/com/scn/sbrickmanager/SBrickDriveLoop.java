@@ -0,0 +1,142 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed rate drive output loop shared by all the SBricks.
+ * The input events only update the target channel values of the SBricks,
+ * the loop pushes the latest target state to each SBrick on every tick.
+ * The BLE traffic is bounded by the loop rate regardless of the input event rate.
+ * The loop also resends the non-zero state periodically to keep the SBrick watchdog happy.
+ */
+class SBrickDriveLoop {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickDriveLoop.class.getSimpleName();
+
+    static final int DefaultRateHz = 50;
+    static final int MinRateHz = 1;
+    static final int MaxRateHz = 100;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SBrickDriveLoop");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final CopyOnWriteArrayList<SBrickBase> sbricks = new CopyOnWriteArrayList<>();
+
+    private ScheduledFuture<?> tickFuture = null;
+    private int rateHz = DefaultRateHz;
+
+    //
+    // Constructor
+    //
+
+    SBrickDriveLoop() {
+        Log.i(TAG, "SBrickDriveLoop...");
+    }
+
+    //
+    // Internal API
+    //
+
+    synchronized int getRate() { return rateHz; }
+
+    /**
+     * Sets the loop rate, a running loop is rescheduled with the new rate.
+     * @param rateHz is the rate in Hz.
+     */
+    synchronized void setRate(int rateHz) {
+        Log.i(TAG, "setRate - " + rateHz);
+
+        if (rateHz < MinRateHz || MaxRateHz < rateHz)
+            throw new IllegalArgumentException("rateHz must be in [" + MinRateHz + "-" + MaxRateHz + "].");
+
+        this.rateHz = rateHz;
+
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            schedule();
+        }
+    }
+
+    synchronized void start() {
+        Log.i(TAG, "start...");
+
+        if (tickFuture != null) {
+            Log.w(TAG, "  Drive loop has already been started.");
+            return;
+        }
+
+        schedule();
+    }
+
+    synchronized void stop() {
+        Log.i(TAG, "stop...");
+
+        if (tickFuture == null) {
+            Log.w(TAG, "  Drive loop has not been started.");
+            return;
+        }
+
+        tickFuture.cancel(false);
+        tickFuture = null;
+    }
+
+    /**
+     * Adds the SBrick to the loop if it's not there yet.
+     * @param sbrick is the SBrick to drive.
+     */
+    void add(SBrickBase sbrick) {
+        sbricks.addIfAbsent(sbrick);
+    }
+
+    /**
+     * Removes the SBrick from the loop.
+     * @param sbrick is the SBrick to remove.
+     */
+    void remove(SBrickBase sbrick) {
+        sbricks.remove(sbrick);
+    }
+
+    //
+    // Private methods
+    //
+
+    private void schedule() {
+        long periodUs = TimeUnit.SECONDS.toMicros(1) / rateHz;
+        tickFuture = executor.scheduleAtFixedRate(tick, periodUs, periodUs, TimeUnit.MICROSECONDS);
+    }
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+
+            long now = System.nanoTime();
+
+            for (SBrickBase sbrick : sbricks) {
+                try {
+                    sbrick.onDriveTick(now);
+                }
+                catch (Exception ex) {
+                    // An exception would cancel the periodic task, keep on ticking.
+                    Log.e(TAG, "Drive tick has thrown an exception - " + sbrick.getAddress(), ex);
+                }
+            }
+        }
+    };
+}
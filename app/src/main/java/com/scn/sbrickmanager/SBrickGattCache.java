@@ -0,0 +1,174 @@
+package com.scn.sbrickmanager;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * Resolved GATT characteristics of an SBrick.
+ * The characteristics are resolved once after the service discovery by precomputed UUIDs,
+ * the lookups afterwards are array reads. The cache is invalidated when the SBrick disconnects
+ * or its services change. There's one cache per SBrick, so it's keyed by the device address.
+ */
+class SBrickGattCache {
+
+    //
+    // Public constants
+    //
+
+    // Service UUIDs
+    static final UUID SERVICE_UUID_GENERIC_ACCESS = fromShortUuid(0x1800);
+    static final UUID SERVICE_UUID_GENERIC_ATTRIBUTE = fromShortUuid(0x1801);
+    static final UUID SERVICE_UUID_DEVICE_INFORMATION = fromShortUuid(0x180a);
+    static final UUID SERVICE_UUID_REMOTE_CONTROL = UUID.fromString("4dc591b0-857c-41de-b5f1-15abda665b0c");
+
+    // Characteristic UUIDs
+    static final UUID CHARACTERISTIC_UUID_DEVICE_NAME = fromShortUuid(0x2a00);
+    static final UUID CHARACTERISTIC_UUID_APPEARANCE = fromShortUuid(0x2a01);
+    static final UUID CHARACTERISTIC_UUID_SERVICE_CHANGED = fromShortUuid(0x2a05);
+    static final UUID CHARACTERISTIC_UUID_MODEL_NUMBER = fromShortUuid(0x2a24);
+    static final UUID CHARACTERISTIC_UUID_FIRMWARE_REVISION = fromShortUuid(0x2a26);
+    static final UUID CHARACTERISTIC_UUID_HARDWARE_REVISION = fromShortUuid(0x2a27);
+    static final UUID CHARACTERISTIC_UUID_SOFTWARE_REVISION = fromShortUuid(0x2a28);
+    static final UUID CHARACTERISTIC_UUID_MANUFACTURER_NAME = fromShortUuid(0x2a29);
+    static final UUID CHARACTERISTIC_UUID_REMOTE_CONTROL = UUID.fromString("02b8cbcc-0e25-4bda-8790-a15f53e6010f");
+    static final UUID CHARACTERISTIC_UUID_QUICK_DRIVE = UUID.fromString("489a6ae0-c1ab-4c9c-bdb2-11d373c1b7fb");
+
+    // Descriptor UUIDs
+    static final UUID DESCRIPTOR_UUID_CLIENT_CHARACTERISTIC_CONFIGURATION = fromShortUuid(0x2902);
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickGattCache.class.getSimpleName();
+
+    private static final SBrickCharacteristicType[] CharacteristicTypes = SBrickCharacteristicType.values();
+
+    // Indexed by the SBrickCharacteristicType ordinal
+    private static final UUID[] CharacteristicServiceUuids = new UUID[CharacteristicTypes.length];
+    private static final UUID[] CharacteristicUuids = new UUID[CharacteristicTypes.length];
+
+    static {
+        setCharacteristicUuids(SBrickCharacteristicType.DeviceName, SERVICE_UUID_GENERIC_ACCESS, CHARACTERISTIC_UUID_DEVICE_NAME);
+        setCharacteristicUuids(SBrickCharacteristicType.Appearance, SERVICE_UUID_GENERIC_ACCESS, CHARACTERISTIC_UUID_APPEARANCE);
+        setCharacteristicUuids(SBrickCharacteristicType.ModelNumber, SERVICE_UUID_DEVICE_INFORMATION, CHARACTERISTIC_UUID_MODEL_NUMBER);
+        setCharacteristicUuids(SBrickCharacteristicType.FirmwareRevision, SERVICE_UUID_DEVICE_INFORMATION, CHARACTERISTIC_UUID_FIRMWARE_REVISION);
+        setCharacteristicUuids(SBrickCharacteristicType.HardwareRevision, SERVICE_UUID_DEVICE_INFORMATION, CHARACTERISTIC_UUID_HARDWARE_REVISION);
+        setCharacteristicUuids(SBrickCharacteristicType.SoftwareRevision, SERVICE_UUID_DEVICE_INFORMATION, CHARACTERISTIC_UUID_SOFTWARE_REVISION);
+        setCharacteristicUuids(SBrickCharacteristicType.ManufacturerName, SERVICE_UUID_DEVICE_INFORMATION, CHARACTERISTIC_UUID_MANUFACTURER_NAME);
+    }
+
+    private final String sbrickAddress;
+
+    private final BluetoothGattCharacteristic[] characteristics = new BluetoothGattCharacteristic[CharacteristicTypes.length];
+    private BluetoothGattCharacteristic remoteControlCharacteristic = null;
+    private BluetoothGattCharacteristic quickDriveCharacteristic = null;
+    private BluetoothGattCharacteristic serviceChangedCharacteristic = null;
+    private boolean isValid = false;
+
+    //
+    // Constructor
+    //
+
+    SBrickGattCache(String sbrickAddress) {
+        this.sbrickAddress = sbrickAddress;
+    }
+
+    //
+    // Internal API
+    //
+
+    boolean isValid() { return isValid; }
+
+    BluetoothGattCharacteristic getRemoteControlCharacteristic() { return remoteControlCharacteristic; }
+
+    BluetoothGattCharacteristic getQuickDriveCharacteristic() { return quickDriveCharacteristic; }
+
+    BluetoothGattCharacteristic getServiceChangedCharacteristic() { return serviceChangedCharacteristic; }
+
+    /**
+     * Gets the resolved characteristic of the given type.
+     * @param characteristicType is the type of the characteristic.
+     * @return The characteristic, null if it has not been resolved.
+     */
+    BluetoothGattCharacteristic getCharacteristic(SBrickCharacteristicType characteristicType) {
+        return characteristics[characteristicType.ordinal()];
+    }
+
+    /**
+     * Gets the type of the characteristic by its UUID.
+     * @param characteristic is the characteristic.
+     * @return The type of the characteristic, Unknown if it isn't a known one.
+     */
+    static SBrickCharacteristicType getCharacteristicType(BluetoothGattCharacteristic characteristic) {
+
+        UUID uuid = characteristic.getUuid();
+        for (int i = 0; i < CharacteristicUuids.length; i++) {
+            if (uuid.equals(CharacteristicUuids[i]))
+                return CharacteristicTypes[i];
+        }
+
+        return SBrickCharacteristicType.Unknown;
+    }
+
+    /**
+     * Resolves all the characteristics of the discovered services.
+     * @param gatt is the GATT the services have been discovered on.
+     */
+    void build(BluetoothGatt gatt) {
+        Log.i(TAG, "build - " + sbrickAddress);
+
+        for (int i = 0; i < CharacteristicTypes.length; i++)
+            characteristics[i] = CharacteristicUuids[i] != null ? resolve(gatt, CharacteristicServiceUuids[i], CharacteristicUuids[i]) : null;
+
+        remoteControlCharacteristic = resolve(gatt, SERVICE_UUID_REMOTE_CONTROL, CHARACTERISTIC_UUID_REMOTE_CONTROL);
+        quickDriveCharacteristic = resolve(gatt, SERVICE_UUID_REMOTE_CONTROL, CHARACTERISTIC_UUID_QUICK_DRIVE);
+        serviceChangedCharacteristic = resolve(gatt, SERVICE_UUID_GENERIC_ATTRIBUTE, CHARACTERISTIC_UUID_SERVICE_CHANGED);
+        isValid = true;
+    }
+
+    void invalidate() {
+        Log.i(TAG, "invalidate - " + sbrickAddress);
+
+        for (int i = 0; i < CharacteristicTypes.length; i++)
+            characteristics[i] = null;
+
+        remoteControlCharacteristic = null;
+        quickDriveCharacteristic = null;
+        serviceChangedCharacteristic = null;
+        isValid = false;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static UUID fromShortUuid(int shortUuid) {
+        // Bluetooth base UUID: 0000xxxx-0000-1000-8000-00805f9b34fb
+        return new UUID(((long) shortUuid << 32) | 0x1000L, 0x800000805f9b34fbL);
+    }
+
+    private static void setCharacteristicUuids(SBrickCharacteristicType characteristicType, UUID serviceUuid, UUID characteristicUuid) {
+        CharacteristicServiceUuids[characteristicType.ordinal()] = serviceUuid;
+        CharacteristicUuids[characteristicType.ordinal()] = characteristicUuid;
+    }
+
+    private BluetoothGattCharacteristic resolve(BluetoothGatt gatt, UUID serviceUuid, UUID characteristicUuid) {
+
+        BluetoothGattService service = gatt.getService(serviceUuid);
+        if (service == null) {
+            Log.w(TAG, "  No such service found: " + serviceUuid);
+            return null;
+        }
+
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+        if (characteristic == null)
+            Log.w(TAG, "  No such characteristic found: " + characteristicUuid);
+
+        return characteristic;
+    }
+}
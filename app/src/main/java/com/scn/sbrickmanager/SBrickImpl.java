@@ -14,14 +14,13 @@ import android.util.Log;
 
 import com.scn.sbrickmanager.sbrickcommand.Command;
 import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
-import com.scn.sbrickmanager.sbrickcommand.WriteQuickDriveCommand;
-import com.scn.sbrickmanager.sbrickcommand.WriteRemoteControlCommand;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SBrick real implementation.
@@ -34,28 +33,50 @@ class SBrickImpl extends SBrickBase {
 
     private static final String TAG = SBrickImpl.class.getSimpleName();
 
-    // Service UUIDs
-    private static final String SERVICE_PARTIAL_UUID_GENERIC_GAP = "1800";
-    private static final String SERVICE_PARTIAL_UUID_DEVICE_INFORMATION = "180a";
-    private static final String SERVICE_UUID_REMOTE_CONTROL = "4dc591b0-857c-41de-b5f1-15abda665b0c";
-
-    // Characteristic UUIDs
-    private static final String CHARACTERISTIC_PARTIAL_UUID_DEVICE_NAME = "2a00";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_APPEARANCE = "2a01";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_MODEL_NUMBER = "2a24";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_FIRMWARE_REVISION = "2a26";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_HARDWARE_REVISION = "2a27";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_SOFTWARE_REVISION = "2a28";
-    private static final String CHARACTERISTIC_PARTIAL_UUID_MANUFACTURER_NAME = "2a29";
-    private static final String CHARACTERISTIC_UUID_REMOTE_CONTROL = "2b8cbcc-0e25-4bda-8790-a15f53e6010f";
-    private static final String CHARACTERISTIC_UUID_QUICK_DRIVE = "489a6ae0-c1ab-4c9c-bdb2-11d373c1b7fb";
-
     private final BluetoothDevice bluetoothDevice;
     private BluetoothGatt bluetoothGatt = null;
 
+    private final SBrickGattCache gattCache;
     private BluetoothGattCharacteristic remoteControlCharacteristic = null;
     private BluetoothGattCharacteristic quickDriveCharacteristic = null;
 
+    // The GATT client takes one operation at a time. A write without response lets the command pipeline
+    // go on right away, the next write waits for its callback here (or for the timeout if it's lost).
+    private static final int OutstandingWriteTimeoutMs = 100;
+
+    // GATT operation types
+    private static final int NoGattOperation = -1;
+    private static final int GattConnect = 0;
+    private static final int GattDiscoverServices = 1;
+    private static final int GattReadCharacteristic = 2;
+    private static final int GattWriteCharacteristic = 3;
+    private static final int GattWriteDescriptor = 4;
+
+    private boolean isQuickDriveWriteWithoutResponseSupported = false;
+
+    // The outstanding GATT operation: the one the GATT client has accepted and whose callback hasn't arrived yet.
+    // A callback is matched against it and releases the command pipeline with its pipeline operation id,
+    // so a late callback of a timed out operation never releases the next one.
+    // The GATT client rejects a new operation while one is outstanding, an accepted one replaces
+    // the lost one (if any). Guarded by the GATT operation lock.
+    private final Object gattOperationLock = new Object();
+    private int gattOperationType = NoGattOperation;
+    private long gattOperationId = 0;
+    private UUID gattOperationUuid = null;
+    // The callback is handled by this write type, not by the characteristic's current one.
+    private int gattOperationWriteType = 0;
+    // The previous outstanding operation while the GATT client may still reject the new one.
+    private int previousGattOperationType = NoGattOperation;
+    private UUID previousGattOperationUuid = null;
+    private int previousGattOperationWriteType = 0;
+
+    // Reused write buffers, the characteristic value is copied when the write is initiated.
+    private final byte[] remoteControlBuffer = new byte[4];
+    private final byte[] quickDriveBuffer = new byte[4];
+    private final byte[] watchdogTimeoutBuffer = new byte[2];
+    // Indexed by the number of channels in the multi-channel drive frame.
+    private final byte[][] multiDriveBuffers = new byte[5][];
+
     //
     // Constructor
     //
@@ -68,6 +89,9 @@ class SBrickImpl extends SBrickBase {
         Log.i(TAG, "  name:    " + bluetoothDevice.getName());
 
         this.bluetoothDevice = bluetoothDevice;
+        this.gattCache = new SBrickGattCache(bluetoothDevice.getAddress());
+        for (int channelCount = 1; channelCount <= 4; channelCount++)
+            multiDriveBuffers[channelCount] = new byte[getDriveFrameSize(channelCount)];
         setName(bluetoothDevice.getName());
     }
 
@@ -83,17 +107,17 @@ class SBrickImpl extends SBrickBase {
     @Override
     public void disconnect() {
 
-        synchronized (sbrickManager.getLockObject()) {
+        synchronized (lockObject) {
             Log.i(TAG, "disconnect - " + getAddress());
 
-            if (isConnected && bluetoothGatt != null) {
-                bluetoothGatt.disconnect();
-                bluetoothGatt.close();
-            }
+            sbrickManager.onDisconnectRequested(this);
+
+            // A pending (auto) connection is closed as well.
+            closeGatt();
 
             isConnected = false;
-            remoteControlCharacteristic = null;
-            quickDriveCharacteristic = null;
+            invalidateGattCache();
+            setConnectionState(SBrickConnectionState.Disconnected);
         }
     }
 
@@ -102,17 +126,22 @@ class SBrickImpl extends SBrickBase {
     //
 
     @Override
-    protected CommandMethod createConnectCommandMethod() {
+    protected CommandMethod createConnectCommandMethod(final boolean autoConnect) {
         Log.i(TAG, "createConnectCommandMethod - " + getAddress());
 
         return new CommandMethod() {
             @Override
             public boolean execute() {
-                Log.i(TAG, "Connect command method - " + getAddress());
+                Log.i(TAG, "Connect command method - " + getAddress() + (autoConnect ? " (auto connect)" : " (direct)"));
+
+                // A new GATT client for every attempt, the old one may hold a stale connection.
+                closeGatt();
 
-                bluetoothGatt = bluetoothDevice.connectGatt(context, true, gattCallback);
+                beginGattOperation(GattConnect, null, 0);
+                bluetoothGatt = bluetoothDevice.connectGatt(context, autoConnect, gattCallback);
                 if (bluetoothGatt == null) {
                     Log.w(TAG, "  Can't connect to GATT for SBrick: " + getAddress());
+                    clearGattOperation();
                     return false;
                 }
 
@@ -135,11 +164,25 @@ class SBrickImpl extends SBrickBase {
                     return false;
                 }
 
-                return bluetoothGatt.discoverServices();
+                long previousOperation = beginGattOperation(GattDiscoverServices, null, 0);
+                if (!bluetoothGatt.discoverServices()) {
+                    cancelGattOperation(previousOperation);
+                    return false;
+                }
+
+                return true;
             }
         };
     }
 
+    @Override
+    protected void abortConnection() {
+        Log.i(TAG, "abortConnection - " + getAddress());
+
+        invalidateGattCache();
+        closeGatt();
+    }
+
     @Override
     protected CommandMethod createReadCharacteristicCommandMethod(final SBrickCharacteristicType characteristicType) {
         Log.i(TAG, "createReadCharacteristicCommandMethod - " + getAddress());
@@ -149,94 +192,110 @@ class SBrickImpl extends SBrickBase {
             public boolean execute() {
                 Log.i(TAG, "Read characteristic command method - " + getAddress());
 
-                String serviceUUID = "";
-                String characteristicUUID = "";
+                BluetoothGattCharacteristic gattCharacteristic = gattCache.getCharacteristic(characteristicType);
+                if (gattCharacteristic == null) {
+                    Log.w(TAG, "  Characteristic has not been resolved: " + characteristicType);
+                    return false;
+                }
 
-                switch (characteristicType) {
-                    case DeviceName:
-                        serviceUUID = SERVICE_PARTIAL_UUID_GENERIC_GAP;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_DEVICE_NAME;
-                        break;
+                long previousOperation = beginGattOperation(GattReadCharacteristic, gattCharacteristic.getUuid(), 0);
+                if (!bluetoothGatt.readCharacteristic(gattCharacteristic)) {
+                    cancelGattOperation(previousOperation);
+                    return false;
+                }
 
-                    case Appearance:
-                        serviceUUID = SERVICE_PARTIAL_UUID_GENERIC_GAP;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_APPEARANCE;
-                        break;
+                return true;
+            }
+        };
+    }
 
-                    case ModelNumber:
-                        serviceUUID = SERVICE_PARTIAL_UUID_DEVICE_INFORMATION;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_MODEL_NUMBER;
-                        break;
+    @Override
+    protected boolean writeRemoteControl(int channel, int value) {
+        //Log.i(TAG, "writeRemoteControl - " + getAddress());
 
-                    case FirmwareRevision:
-                        serviceUUID = SERVICE_PARTIAL_UUID_DEVICE_INFORMATION;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_FIRMWARE_REVISION;
-                        break;
+        // Services are being rediscovered
+        if (remoteControlCharacteristic == null)
+            return false;
 
-                    case HardwareRevision:
-                        serviceUUID = SERVICE_PARTIAL_UUID_DEVICE_INFORMATION;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_HARDWARE_REVISION;
-                        break;
+        remoteControlBuffer[0] = 0x01;
+        remoteControlBuffer[1] = (byte) channel;
+        remoteControlBuffer[2] = (byte) ((0 <= value) ? 0 : 1);
+        remoteControlBuffer[3] = (byte) (Math.min(255, Math.abs(value)));
 
-                    case SoftwareRevision:
-                        serviceUUID = SERVICE_PARTIAL_UUID_DEVICE_INFORMATION;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_SOFTWARE_REVISION;
-                        break;
+        return writeCharacteristic(remoteControlCharacteristic, remoteControlBuffer);
+    }
 
-                    case ManufacturerName:
-                        serviceUUID = SERVICE_PARTIAL_UUID_DEVICE_INFORMATION;
-                        characteristicUUID = CHARACTERISTIC_PARTIAL_UUID_MANUFACTURER_NAME;
-                        break;
-                }
+    @Override
+    protected boolean writeMultiDrive(int channelMask, int v0, int v1, int v2, int v3) {
+        //Log.i(TAG, "writeMultiDrive - " + getAddress());
 
-                BluetoothGattCharacteristic gattCharacteristic = getGattCharacteristic(bluetoothGatt, serviceUUID, characteristicUUID);
-                if (gattCharacteristic == null)
-                    return false;
+        // Services are being rediscovered
+        if (remoteControlCharacteristic == null)
+            return false;
 
-                return bluetoothGatt.readCharacteristic(gattCharacteristic);
-            }
-        };
+        byte[] buffer = multiDriveBuffers[Integer.bitCount(channelMask)];
+        buffer[0] = 0x01;
+
+        int index = 1;
+        for (int channel = 0; channel < 4; channel++) {
+            if ((channelMask & (1 << channel)) == 0)
+                continue;
+
+            int value = channel == 0 ? v0 : channel == 1 ? v1 : channel == 2 ? v2 : v3;
+            buffer[index++] = (byte) channel;
+            buffer[index++] = (byte) ((0 <= value) ? 0 : 1);
+            buffer[index++] = (byte) (Math.min(255, Math.abs(value)));
+        }
+
+        return writeCharacteristic(remoteControlCharacteristic, buffer);
     }
 
     @Override
-    protected CommandMethod createWriteRemoteControlCommandMethod(final int channel, final int value) {
-        //Log.i(TAG, "createWriteRemoteControlCommandMethod - " + getAddress());
+    protected boolean writeQuickDrive(int v0, int v1, int v2, int v3) {
+        //Log.i(TAG, "writeQuickDrive - " + getAddress());
 
-        return new CommandMethod() {
-            @Override
-            public boolean execute() {
-                //Log.i(TAG, "Write remote control command method - " + getAddress());
+        // Services are being rediscovered
+        if (quickDriveCharacteristic == null)
+            return false;
 
-                byte invert = (byte) ((0 <= value) ? 0 : 1);
-                byte byteValue = (byte) (Math.min(255, Math.abs(value)));
+        // 0 doesn't stop the watchdog on quick drive, let's set the second bit to 1
+        quickDriveBuffer[0] = (byte) ((Math.min(255, Math.abs(v0)) & 0xfe) | 0x02 | (0 <= v0 ? 0 : 1));
+        quickDriveBuffer[1] = (byte) ((Math.min(255, Math.abs(v1)) & 0xfe) | 0x02 | (0 <= v1 ? 0 : 1));
+        quickDriveBuffer[2] = (byte) ((Math.min(255, Math.abs(v2)) & 0xfe) | 0x02 | (0 <= v2 ? 0 : 1));
+        quickDriveBuffer[3] = (byte) ((Math.min(255, Math.abs(v3)) & 0xfe) | 0x02 | (0 <= v3 ? 0 : 1));
 
-                byte[] commandBuffer = new byte[]{0x01, (byte) channel, invert, byteValue};
-                return remoteControlCharacteristic.setValue(commandBuffer) &&
-                        bluetoothGatt.writeCharacteristic(remoteControlCharacteristic);
-            }
-        };
+        if (!sbrickManager.isWriteWithoutResponse() || !isQuickDriveWriteWithoutResponseSupported)
+            return writeCharacteristic(quickDriveCharacteristic, quickDriveBuffer);
+
+        // Write without response, the next write is paced by its callback instead of the command pipeline.
+        if (!writeCharacteristic(quickDriveCharacteristic, quickDriveBuffer, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE))
+            return false;
+
+        onWriteCharacteristicDone();
+
+        // Let the command process thread proceed right away.
+        sbrickManager.releaseCommandSemaphore(this, getExecutingOperationId());
+        return true;
     }
 
     @Override
-    protected CommandMethod createWriteQuickDriveCommandMethod(final int v0, final int v1, final int v2, final int v3) {
-        //Log.i(TAG, "createWriteQuickDriveCommandMethod - " + getAddress());
+    protected boolean writeWatchdogTimeout(int timeoutMs) {
+        Log.i(TAG, "writeWatchdogTimeout - " + getAddress() + ", " + timeoutMs + " ms");
 
-        return new CommandMethod() {
-            @Override
-            public boolean execute() {
-                //Log.i(TAG, "Write quick drive command method - " + getAddress());
+        // Services are being rediscovered
+        if (remoteControlCharacteristic == null)
+            return false;
 
-                // 0 doesn't stop the watchdog on quick drive, let's set the second bit to 1
-                byte bv0 = (byte) ((Math.min(255, Math.abs(v0)) & 0xfe) | 0x02 | (0 <= v0 ? 0 : 1));
-                byte bv1 = (byte) ((Math.min(255, Math.abs(v1)) & 0xfe) | 0x02 | (0 <= v1 ? 0 : 1));
-                byte bv2 = (byte) ((Math.min(255, Math.abs(v2)) & 0xfe) | 0x02 | (0 <= v2 ? 0 : 1));
-                byte bv3 = (byte) ((Math.min(255, Math.abs(v3)) & 0xfe) | 0x02 | (0 <= v3 ? 0 : 1));
+        // The timeout is in 0.1 s units
+        watchdogTimeoutBuffer[0] = 0x0d;
+        watchdogTimeoutBuffer[1] = (byte) Math.max(1, Math.min(255, timeoutMs / 100));
 
-                byte[] commandBuffer = new byte[]{bv0, bv1, bv2, bv3};
-                return quickDriveCharacteristic.setValue(commandBuffer) &&
-                        bluetoothGatt.writeCharacteristic(quickDriveCharacteristic);
-            }
-        };
+        return writeCharacteristic(remoteControlCharacteristic, watchdogTimeoutBuffer);
+    }
+
+    @Override
+    protected boolean isQuickDriveSupported() {
+        return quickDriveCharacteristic != null;
     }
 
     //
@@ -248,83 +307,103 @@ class SBrickImpl extends SBrickBase {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
 
-            synchronized (sbrickManager.getLockObject()) {
+            synchronized (lockObject) {
                 Log.i(TAG, "BluetoothGattCallback.onConnectionStateChange - " + getAddress());
 
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-
-                    switch (newState) {
-                        case BluetoothProfile.STATE_CONNECTED:
-                            Log.i(TAG, "  STATE_CONNECTED");
+                long operationId;
+                if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+                    Log.i(TAG, "  STATE_CONNECTED");
 
-                            bluetoothGatt = gatt;
-
-                            // Discover services
-                            CommandMethod commandMethod = createDiscoverServicesCommandMethod();
-                            sbrickManager.sendCommand(Command.newDiscoverServicesCommand(SBrickImpl.this, commandMethod));
-                            break;
-
-                        case BluetoothProfile.STATE_DISCONNECTED:
-                            Log.i(TAG, "  STATE_DISCONNECTED");
-
-                            isConnected = false;
-                            remoteControlCharacteristic = null;
-                            quickDriveCharacteristic = null;
-
-                            sendLocalBroadcast(ACTION_SBRICK_DISCONNECTED);
-                            break;
+                    operationId = endGattOperation(GattConnect, null);
+                    bluetoothGatt = gatt;
+                    setConnectionState(SBrickConnectionState.DiscoveringServices);
 
-                        default:
-                            Log.i(TAG, "  State: " + newState);
-                            break;
-                    }
-                } else {
-                    Log.w(TAG, "  GATT not success.");
-                    sendLocalBroadcast(ACTION_SBRICK_CONNECT_FAILED);
+                    // Discover services
+                    CommandMethod commandMethod = createDiscoverServicesCommandMethod();
+                    sbrickManager.sendCommand(Command.newDiscoverServicesCommand(SBrickImpl.this, commandMethod));
+                }
+                else if (newState == BluetoothProfile.STATE_DISCONNECTED || status != BluetoothGatt.GATT_SUCCESS) {
+                    Log.i(TAG, "  STATE_DISCONNECTED, status: " + status);
+
+                    // The link supervision timeout arrives as a failure status, the link is lost either way.
+                    // No callback arrives for the outstanding operation (if any), it ends here.
+                    operationId = clearGattOperation();
+                    boolean wasConnected = isConnected;
+                    invalidateGattCache();
+                    closeGatt();
+
+                    if (wasConnected)
+                        onConnectionLost();
+                    else
+                        onConnectionAttemptFailed();
+                }
+                else {
+                    Log.i(TAG, "  State: " + newState);
+                    return;
                 }
 
                 // Release the semaphore to let the command process thread to proceed.
-                sbrickManager.releaseCommandSemaphore();
+                releaseCommandSemaphore(operationId);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
 
-            synchronized (sbrickManager.getLockObject()) {
+            synchronized (lockObject) {
                 Log.i(TAG, "BluetoothGattCallback.onServicesDiscovered - " + getAddress());
 
+                long operationId = endGattOperation(GattDiscoverServices, null);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     Log.i(TAG, "  GATT_SUCCESS");
                     //logServices(gatt);
 
-                    remoteControlCharacteristic = getGattCharacteristic(gatt, SERVICE_UUID_REMOTE_CONTROL, CHARACTERISTIC_UUID_REMOTE_CONTROL);
-                    quickDriveCharacteristic = getGattCharacteristic(gatt, SERVICE_UUID_REMOTE_CONTROL, CHARACTERISTIC_UUID_QUICK_DRIVE);
+                    gattCache.build(gatt);
+                    remoteControlCharacteristic = gattCache.getRemoteControlCharacteristic();
+                    quickDriveCharacteristic = gattCache.getQuickDriveCharacteristic();
+
+                    // The SBrick sends the Service Changed indications once they are enabled in its CCCD,
+                    // the descriptor write takes the in-flight slot like any other GATT operation.
+                    BluetoothGattCharacteristic serviceChangedCharacteristic = gattCache.getServiceChangedCharacteristic();
+                    if (serviceChangedCharacteristic != null &&
+                            serviceChangedCharacteristic.getDescriptor(SBrickGattCache.DESCRIPTOR_UUID_CLIENT_CHARACTERISTIC_CONFIGURATION) != null) {
+                        gatt.setCharacteristicNotification(serviceChangedCharacteristic, true);
+
+                        CommandMethod commandMethod = createEnableServiceChangedIndicationCommandMethod();
+                        sbrickManager.sendCommand(Command.newWriteDescriptorCommand(SBrickImpl.this, commandMethod));
+                    }
+
+                    isQuickDriveWriteWithoutResponseSupported = quickDriveCharacteristic != null &&
+                            (quickDriveCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+                    Log.i(TAG, "  Quick drive write without response supported: " + isQuickDriveWriteWithoutResponseSupported);
                     isConnected = true;
+                    setConnectionState(SBrickConnectionState.Ready);
 
                     sendLocalBroadcast(ACTION_SBRICK_CONNECTED);
                 } else {
                     Log.w(TAG, "  GATT not success.");
-                    disconnect();
-                    sendLocalBroadcast(ACTION_SBRICK_CONNECT_FAILED);
+                    invalidateGattCache();
+                    closeGatt();
+                    onConnectionAttemptFailed();
                 }
 
                 // Release the semaphore to let the command process thread to proceed.
-                sbrickManager.releaseCommandSemaphore();
+                releaseCommandSemaphore(operationId);
             }
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
 
-            synchronized (sbrickManager.getLockObject()) {
+            synchronized (lockObject) {
                 Log.i(TAG, "BluetoothGattCallback.onCharacteristicRead - " + getAddress());
 
+                long operationId = endGattOperation(GattReadCharacteristic, characteristic.getUuid());
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     Log.i(TAG, "  GATT_SUCCESS");
 
                     String value = "N/A";
-                    SBrickCharacteristicType characteristicType = getSBrickCharacteristicType(characteristic);
+                    SBrickCharacteristicType characteristicType = SBrickGattCache.getCharacteristicType(characteristic);
 
                     switch (characteristicType) {
                         case DeviceName:
@@ -357,131 +436,254 @@ class SBrickImpl extends SBrickBase {
                 }
 
                 // Release the semaphore to let the command process thread to proceed.
-                sbrickManager.releaseCommandSemaphore();
+                releaseCommandSemaphore(operationId);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+
+            synchronized (lockObject) {
+                Log.i(TAG, "BluetoothGattCallback.onCharacteristicChanged - " + getAddress());
+
+                if (!SBrickGattCache.CHARACTERISTIC_UUID_SERVICE_CHANGED.equals(characteristic.getUuid()))
+                    return;
+
+                // The handles may have moved, resolve them again after a new discovery.
+                Log.i(TAG, "  Services changed.");
+                invalidateGattCache();
+
+                CommandMethod commandMethod = createDiscoverServicesCommandMethod();
+                sbrickManager.sendCommand(Command.newDiscoverServicesCommand(SBrickImpl.this, commandMethod));
             }
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
 
-            synchronized (sbrickManager.getLockObject()) {
+            synchronized (lockObject) {
                 //Log.i(TAG, "BluetoothGattCallback.onCharacteristicWrite...");
 
+                long operationId;
+                int writeType;
+                synchronized (gattOperationLock) {
+                    writeType = gattOperationWriteType;
+                    operationId = endGattOperation(GattWriteCharacteristic, characteristic.getUuid());
+                }
+
+                // Not the callback of the outstanding write, it has already been handled.
+                if (operationId == 0)
+                    return;
+
+                // The callback of a write without response only lets the next write go,
+                // the command process thread hasn't been waiting for it.
+                if (writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE)
+                    return;
+
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     //Log.i(TAG, "  GATT_SUCCESS");
 
-                    if (lastWriteCommand != null) {
-
-                        // Update channel values
-                        if (lastWriteCommand instanceof WriteRemoteControlCommand) {
-                            //Log.i(TAG, "  Last write command is remote control.");
-
-                            WriteRemoteControlCommand command = (WriteRemoteControlCommand) lastWriteCommand;
-                            channelValues[command.getChannel()] = command.getValue();
-                        } else if (lastWriteCommand instanceof WriteQuickDriveCommand) {
-                            //Log.i(TAG, "  Last write command is quick drive.");
-
-                            WriteQuickDriveCommand command = (WriteQuickDriveCommand) lastWriteCommand;
-                            channelValues[0] = command.getV0();
-                            channelValues[1] = command.getV1();
-                            channelValues[2] = command.getV2();
-                            channelValues[3] = command.getV3();
-                        }
-
-                        // Start the watchdog timer if any of the channels is not 0
-                        boolean needWatchdog = channelValues[0] != 0 || channelValues[1] != 0 || channelValues[2] != 0 || channelValues[3] != 0;
-                        if (needWatchdog)
-                            startWatchdogTimer();
-                        else
-                            stopWatchdogTimer();
-                    }
+                    onWriteCharacteristicDone();
                 } else {
                     Log.w(TAG, "  GATT not success.");
                     sendLocalBroadcast(ACTION_SBRICK_WRITE_CHARACTERISTIC_FAILED);
                 }
 
                 // Release the semaphore to let the command process thread to proceed.
-                sbrickManager.releaseCommandSemaphore();
+                releaseCommandSemaphore(operationId);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+
+            synchronized (lockObject) {
+                Log.i(TAG, "BluetoothGattCallback.onDescriptorWrite - " + getAddress());
+
+                long operationId = endGattOperation(GattWriteDescriptor, descriptor.getUuid());
+                if (status != BluetoothGatt.GATT_SUCCESS)
+                    Log.w(TAG, "  GATT not success, Service Changed indications are not enabled.");
+
+                // Release the semaphore to let the command process thread to proceed.
+                releaseCommandSemaphore(operationId);
             }
         }
     };
 
-    private SBrickCharacteristicType getSBrickCharacteristicType(BluetoothGattCharacteristic characteristic) {
-        String uuid = characteristic.getUuid().toString();
-        final int PARTIAL_UUID_POSITION = 4;
-        if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_APPEARANCE) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.Appearance;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_DEVICE_NAME) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.DeviceName;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_FIRMWARE_REVISION) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.FirmwareRevision;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_HARDWARE_REVISION) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.HardwareRevision;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_SOFTWARE_REVISION) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.SoftwareRevision;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_MODEL_NUMBER) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.ModelNumber;
-        else if (uuid.indexOf(CHARACTERISTIC_PARTIAL_UUID_MANUFACTURER_NAME) == PARTIAL_UUID_POSITION)
-            return SBrickCharacteristicType.ManufacturerName;
-        return SBrickCharacteristicType.Unknown;
+    /**
+     * Enables the Service Changed indications by writing the CCCD of the characteristic.
+     * The characteristic is resolved when the command is executed, the services may have been rediscovered meanwhile.
+     */
+    private CommandMethod createEnableServiceChangedIndicationCommandMethod() {
+
+        return new CommandMethod() {
+            @Override
+            public boolean execute() {
+                Log.i(TAG, "Enable Service Changed indication command method - " + getAddress());
+
+                BluetoothGattCharacteristic serviceChangedCharacteristic = gattCache.getServiceChangedCharacteristic();
+                if (bluetoothGatt == null || serviceChangedCharacteristic == null) {
+                    Log.w(TAG, "  Service Changed characteristic has not been resolved.");
+                    return false;
+                }
+
+                BluetoothGattDescriptor descriptor =
+                        serviceChangedCharacteristic.getDescriptor(SBrickGattCache.DESCRIPTOR_UUID_CLIENT_CHARACTERISTIC_CONFIGURATION);
+                if (descriptor == null || !awaitGattOperation())
+                    return false;
+
+                long previousOperation = beginGattOperation(GattWriteDescriptor, descriptor.getUuid(), 0);
+                if (!descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE) || !bluetoothGatt.writeDescriptor(descriptor)) {
+                    cancelGattOperation(previousOperation);
+                    return false;
+                }
+
+                return true;
+            }
+        };
+    }
+
+    private boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value) {
+        return writeCharacteristic(characteristic, value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
     }
 
-    private BluetoothGattService getService(BluetoothGatt gatt, String uuid) {
-        Log.i(TAG, "getService...");
+    /**
+     * Writes the characteristic once the outstanding operation (if any) is done.
+     */
+    private boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value, int writeType) {
 
-        if (gatt == null) {
-            Log.w(TAG, "  No GATT yet.");
-            return null;
+        if (!awaitGattOperation())
+            return false;
+
+        long previousOperation = beginGattOperation(GattWriteCharacteristic, characteristic.getUuid(), writeType);
+        characteristic.setWriteType(writeType);
+        if (!characteristic.setValue(value) || !bluetoothGatt.writeCharacteristic(characteristic)) {
+            cancelGattOperation(previousOperation);
+            return false;
         }
 
-        if (uuid.length() == 4) {
-            Log.i(TAG, "  Partial service UUID");
-            String partialUUID = "0000" + uuid;
-            for (BluetoothGattService service : gatt.getServices()) {
-                if (service.getUuid().toString().startsWith(partialUUID))
-                    return service;
+        return true;
+    }
+
+    private boolean awaitGattOperation() {
+
+        synchronized (gattOperationLock) {
+            try {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OutstandingWriteTimeoutMs);
+                while (gattOperationType != NoGattOperation) {
+                    long remainingNs = deadline - System.nanoTime();
+                    if (remainingNs <= 0) {
+                        Log.w(TAG, "The callback of the outstanding operation hasn't arrived in time - " + getAddress());
+                        break;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(gattOperationLock, remainingNs);
+                }
             }
+            catch (InterruptedException ex) {
+                Log.w(TAG, "Interrupted while waiting for the outstanding operation - " + getAddress());
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            return true;
         }
-        else {
-            Log.i(TAG, "  Full service UUID");
-            BluetoothGattService service = gatt.getService(UUID.fromString(uuid));
-            if (service != null)
-                return service;
-        }
+    }
+
+    /**
+     * Makes the executing pipeline operation the outstanding GATT operation, call it before the operation is started,
+     * its callback may arrive before the GATT call returns.
+     * @return The pipeline operation id of the previous outstanding operation (0 if none), it's restored if the GATT client rejects the new one.
+     */
+    private long beginGattOperation(int type, UUID uuid, int writeType) {
+
+        synchronized (gattOperationLock) {
+            long previousOperationId = gattOperationType != NoGattOperation ? gattOperationId : 0;
+            if (previousOperationId != 0) {
+                previousGattOperationType = gattOperationType;
+                previousGattOperationUuid = gattOperationUuid;
+                previousGattOperationWriteType = gattOperationWriteType;
+            }
 
-        Log.i(TAG, "  No such service found.");
-        return null;
+            gattOperationType = type;
+            gattOperationId = getExecutingOperationId();
+            gattOperationUuid = uuid;
+            gattOperationWriteType = writeType;
+            return previousOperationId;
+        }
     }
 
-    private BluetoothGattCharacteristic getGattCharacteristic(BluetoothGatt gatt, String serviceUUID, String characteristicUUID) {
-        Log.i(TAG, "getGattCharacteristic...");
-        Log.i(TAG, "  Service UUID       : " + serviceUUID);
-        Log.i(TAG, "  Characteristic UUID: " + characteristicUUID);
+    /**
+     * The GATT client has rejected the operation, the previous one (if any) is still outstanding.
+     */
+    private void cancelGattOperation(long previousOperationId) {
 
-        if (gatt == null)
-            return null;
+        synchronized (gattOperationLock) {
+            if (previousOperationId == 0) {
+                clearGattOperation();
+                return;
+            }
 
-        BluetoothGattService service = getService(gatt, serviceUUID);
-        if (service == null)
-            return null;
+            gattOperationType = previousGattOperationType;
+            gattOperationId = previousOperationId;
+            gattOperationUuid = previousGattOperationUuid;
+            gattOperationWriteType = previousGattOperationWriteType;
+        }
+    }
 
-        if (characteristicUUID.length() == 4) {
-            Log.i(TAG, "  Partial characteristic UUID");
-            String partialUUID = "0000" + characteristicUUID;
-            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                if (characteristic.getUuid().toString().startsWith(partialUUID))
-                    return characteristic;
+    /**
+     * Ends the outstanding GATT operation if the callback belongs to it.
+     * @return The pipeline operation id of the ended operation, 0 if the callback doesn't belong to the outstanding operation.
+     */
+    private long endGattOperation(int type, UUID uuid) {
+
+        synchronized (gattOperationLock) {
+            if (gattOperationType != type || (uuid != null && !uuid.equals(gattOperationUuid))) {
+                Log.w(TAG, "Callback without an outstanding operation ignored - " + getAddress());
+                return 0;
             }
+
+            return clearGattOperation();
+        }
+    }
+
+    /**
+     * @return The pipeline operation id of the outstanding GATT operation, 0 if there was none.
+     */
+    private long clearGattOperation() {
+
+        synchronized (gattOperationLock) {
+            long operationId = gattOperationType != NoGattOperation ? gattOperationId : 0;
+            gattOperationType = NoGattOperation;
+            gattOperationId = 0;
+            gattOperationUuid = null;
+            gattOperationLock.notifyAll();
+            return operationId;
         }
-        else {
-            Log.i(TAG, "  Full characteristic UUID");
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristicUUID));
-            if (characteristic != null)
-                return characteristic;
+    }
+
+    private void releaseCommandSemaphore(long operationId) {
+
+        if (operationId != 0)
+            sbrickManager.releaseCommandSemaphore(this, operationId);
+    }
+
+    private void closeGatt() {
+
+        // No callback arrives for the outstanding operation of a closed GATT client.
+        clearGattOperation();
+
+        if (bluetoothGatt != null) {
+            bluetoothGatt.disconnect();
+            bluetoothGatt.close();
+            bluetoothGatt = null;
         }
+    }
 
-        Log.w(TAG, "  No such characteristic found.");
-        return null;
+    private void invalidateGattCache() {
+        gattCache.invalidate();
+        remoteControlCharacteristic = null;
+        quickDriveCharacteristic = null;
     }
 
     private void logServices(BluetoothGatt gatt) {
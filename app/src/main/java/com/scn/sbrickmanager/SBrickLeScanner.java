@@ -0,0 +1,138 @@
+package com.scn.sbrickmanager;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SBrick scanner on BluetoothLeScanner (Android 5.0+).
+ * The advertisements are filtered by the controller with scan filters,
+ * only the SBricks wake up the callback.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class SBrickLeScanner extends SBrickScanner {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickLeScanner.class.getSimpleName();
+
+    // The controller batches the results for this long when it supports offloaded batching.
+    static final long ReportDelayMs = 250;
+
+    private final List<ScanFilter> scanFilters = new ArrayList<>();
+    private BluetoothLeScanner bluetoothLeScanner = null;
+
+    //
+    // Constructor
+    //
+
+    SBrickLeScanner(BluetoothAdapter bluetoothAdapter, SBrickManagerImpl sbrickManager) {
+        super(bluetoothAdapter, sbrickManager);
+
+        Log.i(TAG, "SBrickLeScanner...");
+
+        // The Vengit manufacturer data, the device name filter would be case sensitive.
+        scanFilters.add(new ScanFilter.Builder().setManufacturerData(VengitCompanyId, new byte[0]).build());
+    }
+
+    //
+    // SBrickScanner overrides
+    //
+
+    @Override
+    boolean start(SBrickScanMode scanMode) {
+        Log.i(TAG, "start - " + scanMode);
+
+        // The scanner is null while Bluetooth is off.
+        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (bluetoothLeScanner == null) {
+            Log.w(TAG, "  Bluetooth LE scanner is not available.");
+            return false;
+        }
+
+        ScanSettings.Builder scanSettingsBuilder = new ScanSettings.Builder()
+                .setScanMode(getScanSettingsMode(scanMode));
+
+        // The results are delivered in onBatchScanResults, the host is not woken up per advertisement.
+        if (bluetoothAdapter.isOffloadedScanBatchingSupported())
+            scanSettingsBuilder.setReportDelay(ReportDelayMs);
+
+        ScanSettings scanSettings = scanSettingsBuilder.build();
+
+        bluetoothLeScanner.startScan(scanFilters, scanSettings, scanCallback);
+        return true;
+    }
+
+    @Override
+    void stop() {
+        Log.i(TAG, "stop...");
+
+        if (bluetoothLeScanner == null)
+            return;
+
+        // Throws if Bluetooth has been turned off meanwhile.
+        try {
+            bluetoothLeScanner.stopScan(scanCallback);
+        }
+        catch (IllegalStateException ex) {
+            Log.w(TAG, "  Failed to stop scanning.", ex);
+        }
+
+        bluetoothLeScanner = null;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int getScanSettingsMode(SBrickScanMode scanMode) {
+
+        switch (scanMode) {
+            case LowPower:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            case LowLatency:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+            default:
+                return ScanSettings.SCAN_MODE_BALANCED;
+        }
+    }
+
+    private void onSBrickFound(ScanResult result) {
+
+        // The name comes from the advertisement, BluetoothDevice.getName() would be a binder call.
+        ScanRecord scanRecord = result.getScanRecord();
+        String name = scanRecord != null ? scanRecord.getDeviceName() : null;
+        sbrickManager.onSBrickFound(result.getDevice(), name, result.getRssi());
+    }
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            onSBrickFound(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results)
+                onSBrickFound(result);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(TAG, "onScanFailed - " + errorCode);
+        }
+    };
+}
@@ -0,0 +1,95 @@
+package com.scn.sbrickmanager;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+/**
+ * SBrick scanner on the deprecated BluetoothAdapter.startLeScan (before Android 5.0).
+ * Every advertisement wakes up the callback, it filters them by parsing the scan record
+ * without any binder call, allocation or logging for the other devices.
+ */
+@SuppressWarnings("deprecation")
+class SBrickLegacyScanner extends SBrickScanner {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickLegacyScanner.class.getSimpleName();
+
+    // Advertising data types
+    private static final int AdTypeManufacturerData = 0xff;
+
+    //
+    // Constructor
+    //
+
+    SBrickLegacyScanner(BluetoothAdapter bluetoothAdapter, SBrickManagerImpl sbrickManager) {
+        super(bluetoothAdapter, sbrickManager);
+
+        Log.i(TAG, "SBrickLegacyScanner...");
+    }
+
+    //
+    // SBrickScanner overrides
+    //
+
+    @Override
+    boolean start(SBrickScanMode scanMode) {
+        Log.i(TAG, "start - " + scanMode + " (the scan mode is not supported)");
+
+        return bluetoothAdapter.startLeScan(leScanCallback);
+    }
+
+    @Override
+    void stop() {
+        Log.i(TAG, "stop...");
+
+        bluetoothAdapter.stopLeScan(leScanCallback);
+    }
+
+    //
+    // Private methods
+    //
+
+    /**
+     * Checks if the scan record has the Vengit manufacturer data, like the scan filter of the LE scanner.
+     */
+    private static boolean isSBrickScanRecord(byte[] scanRecord) {
+
+        if (scanRecord == null)
+            return false;
+
+        int index = 0;
+        while (index < scanRecord.length) {
+            int length = scanRecord[index] & 0xff;
+            if (length == 0 || scanRecord.length < index + 1 + length)
+                break;
+
+            int type = scanRecord[index + 1] & 0xff;
+            int dataIndex = index + 2;
+            int dataLength = length - 1;
+
+            if (type == AdTypeManufacturerData && dataLength >= 2 &&
+                    ((scanRecord[dataIndex] & 0xff) | (scanRecord[dataIndex + 1] & 0xff) << 8) == VengitCompanyId)
+                return true;
+
+            index += 1 + length;
+        }
+
+        return false;
+    }
+
+    private final BluetoothAdapter.LeScanCallback leScanCallback = new BluetoothAdapter.LeScanCallback() {
+
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+
+            if (device == null || !isSBrickScanRecord(scanRecord))
+                return;
+
+            sbrickManager.onSBrickFound(device, null, rssi);
+        }
+    };
+}
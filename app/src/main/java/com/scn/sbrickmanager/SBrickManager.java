@@ -13,11 +13,19 @@ public interface SBrickManager {
     //
 
     // Broadcast actions
-    String ACTION_FOUND_AN_SBRICK = "com.scn.sbrickmanager.ACTION_FOUND_AN_SBRICK";
+    String ACTION_SBRICK_SCAN_RESULTS = "com.scn.sbrickmanager.ACTION_SBRICK_SCAN_RESULTS";
+    String ACTION_SBRICK_SCAN_FINISHED = "com.scn.sbrickmanager.ACTION_SBRICK_SCAN_FINISHED";
 
     // Broadcast extras
-    String EXTRA_SBRICK_NAME = "com.scn.sbrickmanager.EXTRA_SBRICK_NAME";
     String EXTRA_SBRICK_ADDRESS = "com.scn.sbrickmanager.EXTRA_SBRICK_ADDRESS";
+    // String arrays of the scan results broadcast
+    String EXTRA_ADDED_SBRICK_ADDRESSES = "com.scn.sbrickmanager.EXTRA_ADDED_SBRICK_ADDRESSES";
+    String EXTRA_UPDATED_SBRICK_ADDRESSES = "com.scn.sbrickmanager.EXTRA_UPDATED_SBRICK_ADDRESSES";
+    String EXTRA_REMOVED_SBRICK_ADDRESSES = "com.scn.sbrickmanager.EXTRA_REMOVED_SBRICK_ADDRESSES";
+    String EXTRA_SCAN_SESSION_STATE = "com.scn.sbrickmanager.EXTRA_SCAN_SESSION_STATE";
+
+    // Android reports this value if the RSSI is not available.
+    int RSSI_UNKNOWN = 127;
 
     //
     // API
@@ -47,6 +55,8 @@ public interface SBrickManager {
 
     /**
      * Starts the SBrick scanning.
+     * The scan results are published in batches in the ACTION_SBRICK_SCAN_RESULTS broadcast:
+     * the new SBricks, the SBricks whose RSSI has changed and the forgotten SBricks.
      * @return True if the scanning has been started OK, false otherwise.
      */
     boolean startSBrickScan();
@@ -56,6 +66,31 @@ public interface SBrickManager {
      */
     void stopSBrickScan();
 
+    /**
+     * Starts a scan session, the scanning stops as soon as the stop condition is met.
+     * @param stopCondition is the stop condition of the session.
+     * @return The session, null if the scanning could not be started (e.g. already scanning).
+     */
+    SBrickScanSession startScanSession(SBrickScanSession.StopCondition stopCondition);
+
+    /**
+     * Gets the last RSSI of the SBrick seen by the scanning.
+     * @param sbrickAddress is the address of the SBrick.
+     * @return The RSSI in dBm, RSSI_UNKNOWN if the SBrick hasn't been seen recently.
+     */
+    int getRssi(String sbrickAddress);
+
+    /**
+     * @return The scan mode.
+     */
+    SBrickScanMode getScanMode();
+
+    /**
+     * Sets the scan mode, it takes effect when the next scanning is started.
+     * @param scanMode is the scan mode.
+     */
+    void setScanMode(SBrickScanMode scanMode);
+
     /**
      * Gets the SBricks have been scanned previously.
      * @return List of the SBricks.
@@ -91,4 +126,106 @@ public interface SBrickManager {
      * Stops the SBrick command processing.
      */
     void stopCommandProcessing();
+
+    /**
+     * Starts connecting the SBricks, the ones already connected are skipped.
+     * At most getMaxParallelConnections() connections are being opened at a time.
+     * The result is reported by the SBrick broadcasts.
+     * @param sbricks is the SBricks to connect.
+     * @return true if connecting has been started, false otherwise.
+     */
+    boolean connectSBricks(List<SBrick> sbricks);
+
+    /**
+     * @return The max number of the SBrick connections being opened at a time.
+     */
+    int getMaxParallelConnections();
+
+    /**
+     * Sets the max number of the SBrick connections being opened at a time.
+     * @param maxParallelConnections is the max number of connections, at least 1.
+     */
+    void setMaxParallelConnections(int maxParallelConnections);
+
+    /**
+     * Gets the time of the last connectSBricks until all the SBricks got ready or failed.
+     * @return The time in milliseconds, -1 while some of them are still connecting.
+     */
+    long getTimeToAllReadyMs();
+
+    /**
+     * Gets the number of the SBricks of the last connectSBricks that have failed to connect.
+     * @return The failed count, getTimeToAllReadyMs() includes the failures if it's not 0.
+     */
+    int getFailedConnectionCount();
+
+    /**
+     * Checks if the drive commands are coalesced.
+     * @return true if coalescing is on, false otherwise.
+     */
+    boolean isCommandCoalescing();
+
+    /**
+     * Turns the drive command coalescing on or off.
+     * When on, at most one drive command is pending per SBrick (and channel), a newer
+     * command replaces the pending one so always the latest value is written.
+     * Connect and read commands keep their FIFO order in both modes.
+     * @param isCoalescing true to turn coalescing on, false otherwise.
+     */
+    void setCommandCoalescing(boolean isCoalescing);
+
+    /**
+     * Gets the rate of the drive loop pushing the drive commands to the SBricks.
+     * @return The rate in Hz.
+     */
+    int getDriveRate();
+
+    /**
+     * Sets the rate of the drive loop pushing the drive commands to the SBricks.
+     * @param rateHz is the rate in Hz (1-100).
+     */
+    void setDriveRate(int rateHz);
+
+    /**
+     * Gets the watchdog timeout set on the SBricks when they get connected.
+     * @return The timeout in milliseconds.
+     */
+    int getWatchdogTimeout();
+
+    /**
+     * Sets the watchdog timeout set on the SBricks when they get connected, it takes effect on the next connection.
+     * The SBrick stops its motors if no drive command arrives within the timeout, the keep-alive
+     * period of the running motors is derived from it.
+     * @param timeoutMs is the timeout in milliseconds (100-25500).
+     */
+    void setWatchdogTimeout(int timeoutMs);
+
+    /**
+     * Gets the timeout of the GATT operations of the given type.
+     * @param operationType is the operation type.
+     * @return The timeout in milliseconds, 0 if the operations never time out.
+     */
+    int getOperationTimeout(SBrickOperationType operationType);
+
+    /**
+     * Sets the timeout of the GATT operations of the given type. An operation
+     * whose GATT callback doesn't arrive in time is failed and the next command is processed.
+     * @param operationType is the operation type.
+     * @param timeoutMs is the timeout in milliseconds, 0 to never time out.
+     */
+    void setOperationTimeout(SBrickOperationType operationType, int timeoutMs);
+
+    /**
+     * Checks if the quick drive characteristic is written without response.
+     * @return true if write without response is on, false otherwise.
+     */
+    boolean isWriteWithoutResponse();
+
+    /**
+     * Turns the write without response mode of the quick drive characteristic on or off.
+     * It only takes effect on the SBricks whose quick drive characteristic supports it,
+     * the others keep writing with response.
+     * @param isWriteWithoutResponse true to turn write without response on, false otherwise.
+     */
+    void setWriteWithoutResponse(boolean isWriteWithoutResponse);
 }
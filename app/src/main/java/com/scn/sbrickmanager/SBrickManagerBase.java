@@ -1,24 +1,26 @@
 package com.scn.sbrickmanager;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.scn.sbrickmanager.sbrickcommand.Command;
-import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
-import com.scn.sbrickmanager.sbrickcommand.QuitCommand;
 import com.scn.sbrickmanager.sbrickcommand.SBrickCommand;
-import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
-import com.scn.sbrickmanager.sbrickcommand.WriteQuickDriveCommand;
-import com.scn.sbrickmanager.sbrickcommand.WriteRemoteControlCommand;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * SBrick manager base abstract class.
@@ -33,19 +35,52 @@ abstract class SBrickManagerBase implements SBrickManager {
 
     private static final String SBrickMapPreferencesName = "SBrickMapPrefs";
 
-    private LinkedBlockingDeque<Command> commandQueue = new LinkedBlockingDeque<>(20);
-    private Thread commandProcessThread = null;
-    private Semaphore commandSemaphore = new Semaphore(1);
-    private Object lockObject = new Object();
+    private final SBrickCommandScheduler commandScheduler = new SBrickCommandScheduler(this);
+    private final SBrickDriveLoop driveLoop = new SBrickDriveLoop();
+    private final SBrickConnectionOrchestrator connectionOrchestrator = new SBrickConnectionOrchestrator();
+    private final SBrickReconnectEngine reconnectEngine = new SBrickReconnectEngine();
+    // Guards only the manager lifecycle (command processing, scanning), the SBricks have their own locks.
+    private final Object lockObject = new Object();
+    private volatile boolean isWriteWithoutResponse = false;
+    private volatile int watchdogTimeoutMs = DefaultWatchdogTimeoutMs;
+    private volatile SBrickScanMode scanMode = SBrickScanMode.LowLatency;
+
+    private final SBrickRssiCache rssiCache = new SBrickRssiCache();
+    // Guarded by the lock object
+    private volatile SBrickScanSession scanSession = null;
+    private ScheduledFuture<?> scanTimeoutFuture = null;
+
+    // The scan results are published in batches collected over this window.
+    static final long ScanBatchWindowMs = 250;
+    private final SBrickScanBatch scanBatch = new SBrickScanBatch();
+
+    // The scan session timeouts and the scan batch flushes run on this thread.
+    private final ScheduledExecutorService scanExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SBrickScan");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Watchdog timeout set on the SBricks, the SBrick is stopped within this time if the app goes away.
+    static final int DefaultWatchdogTimeoutMs = 2000;
+    // The SBrick watchdog timeout is set in 0.1 s units (1-255).
+    static final int MinWatchdogTimeoutMs = 100;
+    static final int MaxWatchdogTimeoutMs = 25500;
+
+    // Indexed by the SBrickOperationType ordinal
+    private final AtomicIntegerArray operationTimeoutsMs = new AtomicIntegerArray(SBrickOperationType.values().length);
 
     //
     // Protected members
     //
 
     protected final Context context;
-    protected final Map<String, SBrick> sbrickMap = new HashMap<>();
+    protected final ConcurrentMap<String, SBrick> sbrickMap = new ConcurrentHashMap<>();
 
-    protected boolean isScanning = false;
+    protected volatile boolean isScanning = false;
 
     //
     // Constructor
@@ -55,6 +90,9 @@ abstract class SBrickManagerBase implements SBrickManager {
         Log.i(TAG, "SBrickManagerBase...");
 
         this.context = context;
+
+        for (SBrickOperationType operationType : SBrickOperationType.values())
+            operationTimeoutsMs.set(operationType.ordinal(), operationType.getDefaultTimeoutMs());
     }
 
     //
@@ -133,8 +171,60 @@ abstract class SBrickManagerBase implements SBrickManager {
     public void forgetSBrick(String sbrickAddress) {
         Log.i(TAG, "forgetSBrick - " + sbrickAddress);
 
-        if (sbrickMap.containsKey(sbrickAddress))
-            sbrickMap.remove(sbrickAddress);
+        SBrick sbrick = sbrickMap.remove(sbrickAddress);
+        if (sbrick != null) {
+            reconnectEngine.cancel((SBrickBase) sbrick);
+            driveLoop.remove((SBrickBase) sbrick);
+
+            if (scanBatch.onRemoved(sbrickAddress))
+                scheduleScanBatchFlush();
+        }
+    }
+
+    @Override
+    public SBrickScanSession startScanSession(SBrickScanSession.StopCondition stopCondition) {
+
+        final SBrickScanSession session;
+        synchronized (lockObject) {
+            Log.i(TAG, "startScanSession...");
+
+            if (scanSession != null || !startSBrickScan()) {
+                Log.w(TAG, "  Could not start scanning.");
+                return null;
+            }
+
+            session = new SBrickScanSession(this, stopCondition);
+            scanSession = session;
+            scanTimeoutFuture = scanExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finishScanSession(session, SBrickScanSession.State.TimedOut);
+                }
+            }, stopCondition.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        }
+
+        // E.g. all the addresses to see have been seen
+        if (session.isGoalReached())
+            finishScanSession(session, SBrickScanSession.State.GoalReached);
+
+        return session;
+    }
+
+    @Override
+    public int getRssi(String sbrickAddress) {
+        return rssiCache.getRssi(sbrickAddress);
+    }
+
+    @Override
+    public SBrickScanMode getScanMode() {
+        return scanMode;
+    }
+
+    @Override
+    public void setScanMode(SBrickScanMode scanMode) {
+        Log.i(TAG, "setScanMode - " + scanMode);
+
+        this.scanMode = scanMode;
     }
 
     @Override
@@ -143,84 +233,13 @@ abstract class SBrickManagerBase implements SBrickManager {
         synchronized (lockObject) {
             Log.i(TAG, "startCommandProcessing...");
 
-            if (commandProcessThread != null) {
+            if (!commandScheduler.start()) {
                 Log.w(TAG, "  Command processing has already been started.");
                 return false;
             }
 
-            try {
-                final Semaphore processThreadStartedSemaphore = new Semaphore(1);
-                processThreadStartedSemaphore.acquire();
-
-                commandProcessThread = new Thread() {
-
-                    @Override
-                    public void run() {
-
-                        try {
-                            commandQueue.clear();
-                            processThreadStartedSemaphore.release();
-
-                            while (true) {
-                                try {
-                                    // Wait for the GATT callback to release the semaphore.
-                                    commandSemaphore.acquire();
-
-                                    // Get the next command to process.
-                                    Command command = commandQueue.take();
-
-                                    synchronized (lockObject) {
-                                        if (command instanceof QuitCommand) {
-
-                                            // Quit command
-                                            Log.i(TAG, "Quit command.");
-                                            Log.i(TAG, "Empty the command queue...");
-                                            commandQueue.clear();
-                                            break;
-                                        } else if (command instanceof SBrickCommand) {
-
-                                            SBrickCommand sbrickCommand = (SBrickCommand) command;
-                                            CommandMethod commandMethod = sbrickCommand.getCommandMethod();
-                                            SBrickBase sbrick = (SBrickBase) sbrickCommand.getSbrick(); // Not nice :(
-
-                                            // Execute the command method
-                                            if (commandMethod != null && commandMethod.execute()) {
-
-                                                // Set the last write command and its time on the SBrick
-                                                if (command instanceof WriteCharacteristicCommand)
-                                                    sbrick.setLastWriteCommand((WriteCharacteristicCommand) command);
-                                            } else {
-                                                Log.w(TAG, "Command method execution failed.");
-                                                // Command wasn't sent, no need to wait for the GATT callback.
-                                                commandSemaphore.release();
-                                            }
-                                        }
-                                    }
-                                } catch (Exception ex) {
-                                    Log.e(TAG, "Command process thread has thrown an exception.", ex);
-                                    commandSemaphore.release();
-                                }
-                            }
-
-                            Log.i(TAG, "Command process thread exits...");
-                        } catch (Exception ex) {
-                            Log.e(TAG, "Command process thread has thrown an exception.", ex);
-                        }
-
-                        commandProcessThread = null;
-                    }
-                };
-
-                commandProcessThread.start();
-
-                // Waiting for the process thread to start.
-                processThreadStartedSemaphore.acquire();
-
-                return true;
-            } catch (Exception ex) {
-                Log.e(TAG, "Faild to start command processing thread.", ex);
-                return false;
-            }
+            driveLoop.start();
+            return true;
         }
     }
 
@@ -229,18 +248,118 @@ abstract class SBrickManagerBase implements SBrickManager {
         synchronized (lockObject) {
             Log.i(TAG, "stopCommandProcessing...");
 
-            if (commandProcessThread == null) {
+            if (!commandScheduler.isRunning()) {
                 Log.w(TAG, "  Command processing has not been started.");
                 return;
             }
 
-            Command quitCommand = Command.newQuitCommand();
-            commandQueue.clear();
-            commandQueue.offerFirst(quitCommand);
+            reconnectEngine.cancelAll();
+            driveLoop.stop();
+            commandScheduler.stop();
+        }
+    }
+
+    @Override
+    public boolean connectSBricks(List<SBrick> sbricks) {
+        Log.i(TAG, "connectSBricks...");
 
-            // Just to be sure the semaphore doesn't block the thread.
-            commandSemaphore.release();
+        if (!commandScheduler.isRunning()) {
+            Log.w(TAG, "  Command processing has not been started.");
+            return false;
         }
+
+        List<SBrickBase> sbrickBases = new ArrayList<>();
+        for (SBrick sbrick : sbricks)
+            sbrickBases.add((SBrickBase) sbrick);
+
+        connectionOrchestrator.connect(sbrickBases);
+        return true;
+    }
+
+    @Override
+    public int getMaxParallelConnections() {
+        return connectionOrchestrator.getMaxParallelConnections();
+    }
+
+    @Override
+    public void setMaxParallelConnections(int maxParallelConnections) {
+        connectionOrchestrator.setMaxParallelConnections(maxParallelConnections);
+    }
+
+    @Override
+    public long getTimeToAllReadyMs() {
+        return connectionOrchestrator.getTimeToAllReadyMs();
+    }
+
+    @Override
+    public int getFailedConnectionCount() {
+        return connectionOrchestrator.getFailedCount();
+    }
+
+    @Override
+    public boolean isCommandCoalescing() {
+        return commandScheduler.isCoalescing();
+    }
+
+    @Override
+    public void setCommandCoalescing(boolean isCoalescing) {
+        Log.i(TAG, "setCommandCoalescing - " + isCoalescing);
+
+        commandScheduler.setCoalescing(isCoalescing);
+    }
+
+    @Override
+    public int getDriveRate() {
+        return driveLoop.getRate();
+    }
+
+    @Override
+    public void setDriveRate(int rateHz) {
+        Log.i(TAG, "setDriveRate - " + rateHz);
+
+        driveLoop.setRate(rateHz);
+    }
+
+    @Override
+    public int getWatchdogTimeout() {
+        return watchdogTimeoutMs;
+    }
+
+    @Override
+    public void setWatchdogTimeout(int timeoutMs) {
+        Log.i(TAG, "setWatchdogTimeout - " + timeoutMs);
+
+        if (timeoutMs < MinWatchdogTimeoutMs || MaxWatchdogTimeoutMs < timeoutMs)
+            throw new IllegalArgumentException("timeoutMs must be in [" + MinWatchdogTimeoutMs + "-" + MaxWatchdogTimeoutMs + "].");
+
+        watchdogTimeoutMs = timeoutMs;
+    }
+
+    @Override
+    public int getOperationTimeout(SBrickOperationType operationType) {
+        return operationTimeoutsMs.get(operationType.ordinal());
+    }
+
+    @Override
+    public void setOperationTimeout(SBrickOperationType operationType, int timeoutMs) {
+        Log.i(TAG, "setOperationTimeout - " + operationType + ", " + timeoutMs);
+
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException("timeoutMs must not be negative.");
+
+        operationTimeoutsMs.set(operationType.ordinal(), timeoutMs);
+    }
+
+    @Override
+    public boolean isWriteWithoutResponse() {
+        return isWriteWithoutResponse;
+    }
+
+    @Override
+    public void setWriteWithoutResponse(boolean isWriteWithoutResponse) {
+        Log.i(TAG, "setWriteWithoutResponse - " + isWriteWithoutResponse);
+
+        this.isWriteWithoutResponse = isWriteWithoutResponse;
     }
 
     //
@@ -249,22 +368,229 @@ abstract class SBrickManagerBase implements SBrickManager {
 
     Object getLockObject() { return lockObject; }
 
+    SBrickDriveLoop getDriveLoop() { return driveLoop; }
+
     boolean sendCommand(Command command) {
         //Log.i(TAG, "sendCommand...");
         //Log.i(TAG, "  " + command);
 
-        return commandQueue.offer(command);
+        onCommandEnqueued(command);
+        if (commandScheduler.sendCommand(command))
+            return true;
+
+        onCommandDropped(command);
+        return false;
     }
 
     boolean sendPriorityCommand(Command command) {
         //Log.i(TAG, "sendPriorityCommand...");
         //Log.i(TAG, "  " + command);
 
-        return commandQueue.offerFirst(command);
+        onCommandEnqueued(command);
+        if (commandScheduler.sendPriorityCommand(command))
+            return true;
+
+        onCommandDropped(command);
+        return false;
+    }
+
+    /**
+     * Called by the SBrick when the GATT callback of an operation has arrived.
+     * @param operationId is the id of the operation (SBrickBase.getExecutingOperationId when it was started).
+     */
+    void releaseCommandSemaphore(SBrick sbrick, long operationId) {
+        commandScheduler.releaseCommandSemaphore(sbrick, operationId);
+    }
+
+    /**
+     * Gets the timeout of the command, its deadline is its execution time plus the timeout.
+     * @return The timeout in nanoseconds, 0 if the command never times out.
+     */
+    long getOperationTimeoutNs(Command command) {
+        SBrickOperationType operationType = SBrickOperationType.of(command);
+        return operationType != null ? TimeUnit.MILLISECONDS.toNanos(operationTimeoutsMs.get(operationType.ordinal())) : 0;
+    }
+
+    /**
+     * Called by the command pipeline when the GATT callback of the command hasn't arrived before its deadline.
+     */
+    void onCommandTimedOut(Command command) {
+
+        if (!(command instanceof SBrickCommand))
+            return;
+
+        SBrickBase sbrick = (SBrickBase) ((SBrickCommand) command).getSbrick();
+        sbrick.getMetrics().onTimedOut();
+        sbrick.onOperationTimedOut(command);
+    }
+
+    /**
+     * Called by the scanning for every advertisement of an SBrick, on the scanner thread.
+     * @param address is the address of the SBrick.
+     * @param rssi is the RSSI of the advertisement.
+     * @param isNew is true if the SBrick has just been added to the SBricks.
+     */
+    void onScanResult(String address, int rssi, boolean isNew) {
+
+        boolean isRssiChanged = rssiCache.put(address, rssi);
+
+        boolean isFlushNeeded = false;
+        if (isNew)
+            isFlushNeeded = scanBatch.onAdded(address);
+        else if (isRssiChanged)
+            isFlushNeeded = scanBatch.onUpdated(address);
+
+        if (isFlushNeeded)
+            scheduleScanBatchFlush();
+
+        SBrickScanSession session = scanSession;
+        if (session != null && session.onScanResult(address, isNew))
+            finishScanSession(session, SBrickScanSession.State.GoalReached);
+    }
+
+    /**
+     * Stops the scanning of the session and sends the scan finished broadcast.
+     */
+    void finishScanSession(SBrickScanSession session, SBrickScanSession.State state) {
+
+        synchronized (lockObject) {
+            if (scanSession != session)
+                return;
+
+            Log.i(TAG, "finishScanSession - " + state);
+
+            scanSession = null;
+            if (scanTimeoutFuture != null) {
+                scanTimeoutFuture.cancel(false);
+                scanTimeoutFuture = null;
+            }
+
+            session.finish(state);
+            stopSBrickScan();
+        }
+
+        // The results go before the finished broadcast.
+        flushScanBatch();
+
+        Intent intent = new Intent();
+        intent.setAction(ACTION_SBRICK_SCAN_FINISHED);
+        intent.putExtra(EXTRA_SCAN_SESSION_STATE, state.name());
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
+    void onConnectionStateChanged(SBrickBase sbrick, SBrickConnectionState state) {
+        connectionOrchestrator.onConnectionStateChanged(sbrick, state);
+        reconnectEngine.onConnectionStateChanged(sbrick, state);
     }
 
-    void releaseCommandSemaphore() {
-        commandSemaphore.release();
+    /**
+     * Called by the SBrick when its connection has been lost.
+     * @return True if the SBrick is being reconnected.
+     */
+    boolean onConnectionLost(SBrickBase sbrick) {
+
+        if (!commandScheduler.isRunning()) {
+            Log.w(TAG, "Command processing has not been started, no reconnect.");
+            return false;
+        }
+
+        return reconnectEngine.onConnectionLost(sbrick);
+    }
+
+    /**
+     * Called by the SBrick when a connection attempt has failed.
+     * @return True if the reconnect engine retries.
+     */
+    boolean onConnectionAttemptFailed(SBrickBase sbrick) {
+        return reconnectEngine.onConnectionAttemptFailed(sbrick);
+    }
+
+    /**
+     * Called by the SBrick when it's disconnected on purpose.
+     */
+    void onDisconnectRequested(SBrickBase sbrick) {
+        reconnectEngine.cancel(sbrick);
+    }
+
+    //
+    // Metrics hooks
+    //
+
+    void onCommandEnqueued(Command command) {
+        command.setEnqueueTime(System.nanoTime());
+    }
+
+    void onCommandDropped(Command command) {
+        SBrickMetrics metrics = getMetrics(command);
+        if (metrics != null)
+            metrics.onDropped();
+    }
+
+    void onCommandCoalesced(Command command) {
+        SBrickMetrics metrics = getMetrics(command);
+        if (metrics != null)
+            metrics.onCoalesced();
+    }
+
+    /**
+     * Called by the command pipeline when the command is taken from the queue, right before execution.
+     */
+    void onCommandDequeued(Command command, long now) {
+        SBrickMetrics metrics = getMetrics(command);
+        if (metrics != null && command.getEnqueueTime() != 0)
+            metrics.onDequeued(now - command.getEnqueueTime());
+
+        command.setExecuteTime(now);
+    }
+
+    void onCommandExecuted(Command command, long now) {
+        SBrickMetrics metrics = getMetrics(command);
+        if (metrics != null)
+            metrics.onExecuted(now - command.getExecuteTime());
+    }
+
+    /**
+     * Called by the SBrick when the write callback of the command has arrived.
+     */
+    void onCommandAcked(Command command, long now) {
+        SBrickMetrics metrics = getMetrics(command);
+        if (metrics != null && command.getExecuteTime() != 0)
+            metrics.onAcked(now - command.getExecuteTime());
+    }
+
+    //
+    // Private methods
+    //
+
+    private void scheduleScanBatchFlush() {
+        scanExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushScanBatch();
+            }
+        }, ScanBatchWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushScanBatch() {
+
+        String[][] changes = scanBatch.take();
+        if (changes == null)
+            return;
+
+        Intent intent = new Intent();
+        intent.setAction(ACTION_SBRICK_SCAN_RESULTS);
+        intent.putExtra(EXTRA_ADDED_SBRICK_ADDRESSES, changes[0]);
+        intent.putExtra(EXTRA_UPDATED_SBRICK_ADDRESSES, changes[1]);
+        intent.putExtra(EXTRA_REMOVED_SBRICK_ADDRESSES, changes[2]);
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
+    private SBrickMetrics getMetrics(Command command) {
+
+        if (!(command instanceof SBrickCommand))
+            return null;
+
+        return ((SBrickCommand) command).getSbrick().getMetrics();
     }
 
     //
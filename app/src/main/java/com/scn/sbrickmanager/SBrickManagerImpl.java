@@ -1,26 +1,12 @@
 package com.scn.sbrickmanager;
 
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
-import android.bluetooth.le.ScanResult;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import com.scn.sbrickmanager.sbrickcommand.Command;
-import com.scn.sbrickmanager.sbrickcommand.ConnectCommand;
-import com.scn.sbrickmanager.sbrickcommand.QuitCommand;
-import com.scn.sbrickmanager.sbrickcommand.ReadCharacteristicCommand;
-import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
-
 /**
  * SBrickManager implementation.
  */
@@ -33,6 +19,7 @@ class SBrickManagerImpl extends SBrickManagerBase {
     private static final String TAG = SBrickManagerImpl.class.getSimpleName();
 
     private BluetoothAdapter bluetoothAdapter;
+    private SBrickScanner scanner;
 
     //
     // Constructor
@@ -56,6 +43,8 @@ class SBrickManagerImpl extends SBrickManagerBase {
         bluetoothAdapter = bluetoothManager.getAdapter();
         if (bluetoothAdapter == null)
             throw new RuntimeException("Can't find bluetooth adapter.");
+
+        scanner = SBrickScanner.create(bluetoothAdapter, this);
     }
 
     //
@@ -64,20 +53,19 @@ class SBrickManagerImpl extends SBrickManagerBase {
 
     @Override
     protected SBrick createSBrick(String sbrickAddress) {
+        Log.i(TAG, "createSBrick - " + sbrickAddress);
 
-        synchronized (getLockObject()) {
-            Log.i(TAG, "createSBrick - " + sbrickAddress);
-
-            if (sbrickMap.containsKey(sbrickAddress)) {
-                Log.i(TAG, "  SBrick is already in the map.");
-                return sbrickMap.get(sbrickAddress);
-            }
-
-            BluetoothDevice sbrickDevice = bluetoothAdapter.getRemoteDevice(sbrickAddress);
-            SBrick sbrick = new SBrickImpl(context, this, sbrickDevice);
-            sbrickMap.put(sbrickAddress, sbrick);
+        SBrick sbrick = sbrickMap.get(sbrickAddress);
+        if (sbrick != null) {
+            Log.i(TAG, "  SBrick is already in the map.");
             return sbrick;
         }
+
+        BluetoothDevice sbrickDevice = bluetoothAdapter.getRemoteDevice(sbrickAddress);
+        sbrick = new SBrickImpl(context, this, sbrickDevice);
+
+        SBrick existingSBrick = sbrickMap.putIfAbsent(sbrickAddress, sbrick);
+        return existingSBrick != null ? existingSBrick : sbrick;
     }
 
     //
@@ -117,7 +105,7 @@ class SBrickManagerImpl extends SBrickManagerBase {
                 return false;
             }
 
-            if (bluetoothAdapter.startLeScan(leScanCallback)) {
+            if (scanner.start(getScanMode())) {
                 isScanning = true;
                 return true;
             }
@@ -133,64 +121,54 @@ class SBrickManagerImpl extends SBrickManagerBase {
         synchronized (getLockObject()) {
             Log.i(TAG, "stopSBrickScan...");
 
-            bluetoothAdapter.stopLeScan(leScanCallback);
+            scanner.stop();
             isScanning = false;
         }
     }
 
     @Override
     public SBrick getSBrick(String sbrickAddress) {
+        Log.i(TAG, "getSBrick - " + sbrickAddress);
 
-        synchronized (getLockObject()) {
-            Log.i(TAG, "getSBrick - " + sbrickAddress);
-
-            if (sbrickMap.containsKey(sbrickAddress)) {
-                return sbrickMap.get(sbrickAddress);
-            }
-
+        SBrick sbrick = sbrickMap.get(sbrickAddress);
+        if (sbrick == null)
             Log.w(TAG, "  SBrick not found.");
-            return null;
-        }
+
+        return sbrick;
     }
 
     //
-    // Private methods
+    // Internal API
     //
 
-    private final BluetoothAdapter.LeScanCallback leScanCallback = new BluetoothAdapter.LeScanCallback() {
-
-        @Override
-        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-
-            synchronized (getLockObject()) {
-                Log.i(TAG, "onScanResult...");
-
-                if (device != null && device.getName() != null) {
-                    if (device.getName().equalsIgnoreCase("sbrick")) {
-                        if (!sbrickMap.containsKey(device.getAddress())) {
-                            Log.i(TAG, "  Storing SBrick.");
-                            Log.i(TAG, "    Device address    : " + device.getAddress());
-                            Log.i(TAG, "    Device name       : " + device.getName());
-
-                            SBrick sbrick = new SBrickImpl(context, SBrickManagerImpl.this, device);
-                            sbrickMap.put(device.getAddress(), sbrick);
-
-                            Intent sendIntent = new Intent();
-                            sendIntent.setAction(ACTION_FOUND_AN_SBRICK);
-                            sendIntent.putExtra(EXTRA_SBRICK_NAME, device.getName());
-                            sendIntent.putExtra(EXTRA_SBRICK_ADDRESS, device.getAddress());
-                            LocalBroadcastManager.getInstance(context).sendBroadcast(sendIntent);
-                        } else {
-                            Log.i(TAG, "  Sbrick has already been discovered.");
-                        }
-                    } else {
-                        Log.i(TAG, "  Device is not an SBrick.");
-                        Log.i(TAG, "    Name: " + device.getName());
-                    }
-                } else {
-                    Log.i(TAG, "  Device is null.");
-                }
-            }
+    /**
+     * Called by the scanner on its callback thread when it has found an SBrick.
+     * It's called for every advertisement, the known SBricks return right away.
+     * @param device is the SBrick device.
+     * @param name is the advertised name, null if not known.
+     * @param rssi is the RSSI of the advertisement.
+     */
+    void onSBrickFound(BluetoothDevice device, String name, int rssi) {
+
+        String address = device.getAddress();
+        if (sbrickMap.containsKey(address)) {
+            onScanResult(address, rssi, false);
+            return;
         }
-    };
+
+        SBrick sbrick = new SBrickImpl(context, this, device);
+        if (name != null)
+            sbrick.setName(name);
+
+        if (sbrickMap.putIfAbsent(address, sbrick) != null) {
+            onScanResult(address, rssi, false);
+            return;
+        }
+
+        Log.i(TAG, "onSBrickFound - storing SBrick.");
+        Log.i(TAG, "    Device address    : " + address);
+        Log.i(TAG, "    Device name       : " + sbrick.getName());
+
+        onScanResult(address, rssi, true);
+    }
 }
@@ -1,9 +1,7 @@
 package com.scn.sbrickmanager;
 
 import android.content.Context;
-import android.content.Intent;
 import android.os.AsyncTask;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 class SBrickManagerMock extends SBrickManagerBase {
@@ -42,14 +40,16 @@ class SBrickManagerMock extends SBrickManagerBase {
     protected SBrick createSBrick(String sbrickAddress) {
         Log.i(TAG, "createSBrick - " + sbrickAddress);
 
-        if (sbrickMap.containsKey(sbrickAddress)) {
+        SBrick sbrick = sbrickMap.get(sbrickAddress);
+        if (sbrick != null) {
             Log.i(TAG, "  SBrick has already been created.");
-            return sbrickMap.get(sbrickAddress);
+            return sbrick;
         }
 
-        SBrick sbrick = new SBrickMock(context, this, sbrickAddress, "SCNBrick");
-        sbrickMap.put(sbrickAddress, sbrick);
-        return sbrick;
+        sbrick = new SBrickMock(context, this, sbrickAddress, "SCNBrick");
+
+        SBrick existingSBrick = sbrickMap.putIfAbsent(sbrickAddress, sbrick);
+        return existingSBrick != null ? existingSBrick : sbrick;
     }
 
     //
@@ -93,19 +93,16 @@ class SBrickManagerMock extends SBrickManagerBase {
 
                         // 'Found' an SBrick
                         String address = sbrickAddresses[i];
+                        int rssi = -60 - 5 * i;
                         if (!sbrickMap.containsKey(address)) {
                             Log.i(TAG, "  Storing SBrick.");
                             Log.i(TAG, "    Device address: " + address);
 
-                            SBrick sbrick = createSBrick(address);
-
-                            Intent sendIntent = new Intent();
-                            sendIntent.setAction(ACTION_FOUND_AN_SBRICK);
-                            sendIntent.putExtra(EXTRA_SBRICK_ADDRESS, address);
-                            sendIntent.putExtra(EXTRA_SBRICK_NAME, sbrick.getName());
-                            LocalBroadcastManager.getInstance(context).sendBroadcast(sendIntent);
+                            createSBrick(address);
+                            onScanResult(address, rssi, true);
                         } else {
                             Log.i(TAG, "  Sbrick has already been discovered.");
+                            onScanResult(address, rssi, false);
                         }
                     }
                 }
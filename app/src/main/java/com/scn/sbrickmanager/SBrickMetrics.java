@@ -0,0 +1,164 @@
+package com.scn.sbrickmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command latency and throughput metrics of an SBrick.
+ * Queue wait is the time a command spends in the pipeline before it's taken,
+ * execute is the time of the GATT call, round trip is the time from the GATT call
+ * to the write callback.
+ */
+public class SBrickMetrics {
+
+    //
+    // Private members
+    //
+
+    private final LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+    private final LatencyHistogram executeHistogram = new LatencyHistogram();
+    private final LatencyHistogram roundTripHistogram = new LatencyHistogram();
+
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong keepAliveResendCount = new AtomicLong();
+    private final AtomicLong reconnectAttemptCount = new AtomicLong();
+    private final AtomicLong resumeCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private volatile long connectTimeNs = 0;
+    private volatile long discoverServicesTimeNs = 0;
+    private volatile long timeToResumeNs = 0;
+    private volatile int watchdogTimeoutMs = 0;
+
+    //
+    // API
+    //
+
+    public LatencyHistogram getQueueWaitHistogram() { return queueWaitHistogram; }
+
+    public LatencyHistogram getExecuteHistogram() { return executeHistogram; }
+
+    public LatencyHistogram getRoundTripHistogram() { return roundTripHistogram; }
+
+    /**
+     * @return The number of the acknowledged write commands.
+     */
+    public long getWriteCount() { return writeCount.get(); }
+
+    /**
+     * @return The number of the commands dropped because the command queue was full.
+     */
+    public long getDropCount() { return dropCount.get(); }
+
+    /**
+     * @return The number of the pending drive commands replaced by a newer one.
+     */
+    public long getCoalescedCount() { return coalescedCount.get(); }
+
+    /**
+     * @return The number of the drive commands resent to keep the SBrick watchdog happy.
+     */
+    public long getKeepAliveResendCount() { return keepAliveResendCount.get(); }
+
+    /**
+     * @return The time of the last GATT connection in milliseconds.
+     */
+    public long getConnectTimeMs() { return connectTimeNs / 1000000; }
+
+    /**
+     * @return The time of the last service discovery in milliseconds.
+     */
+    public long getDiscoverServicesTimeMs() { return discoverServicesTimeNs / 1000000; }
+
+    /**
+     * @return The number of the reconnection attempts.
+     */
+    public long getReconnectAttemptCount() { return reconnectAttemptCount.get(); }
+
+    /**
+     * @return The number of the successful reconnections.
+     */
+    public long getResumeCount() { return resumeCount.get(); }
+
+    /**
+     * @return The time from the last connection loss until the drive state was restored in milliseconds.
+     */
+    public long getTimeToResumeMs() { return timeToResumeNs / 1000000; }
+
+    /**
+     * @return The number of the operations failed because their GATT callback didn't arrive in time.
+     */
+    public long getTimeoutCount() { return timeoutCount.get(); }
+
+    /**
+     * @return The watchdog timeout confirmed by the SBrick in milliseconds, 0 if it hasn't been set.
+     */
+    public int getWatchdogTimeoutMs() { return watchdogTimeoutMs; }
+
+    public void reset() {
+        queueWaitHistogram.reset();
+        executeHistogram.reset();
+        roundTripHistogram.reset();
+
+        writeCount.set(0);
+        dropCount.set(0);
+        coalescedCount.set(0);
+        keepAliveResendCount.set(0);
+        reconnectAttemptCount.set(0);
+        resumeCount.set(0);
+        timeoutCount.set(0);
+    }
+
+    //
+    // Object overrides
+    //
+
+    @Override
+    public String toString() {
+        return "queue p50/p95: " + queueWaitHistogram.getPercentileUs(50) / 1000f + "/" + queueWaitHistogram.getPercentileUs(95) / 1000f + " ms" +
+                ", exec p50/p95: " + executeHistogram.getPercentileUs(50) / 1000f + "/" + executeHistogram.getPercentileUs(95) / 1000f + " ms" +
+                ", rtt p50/p95: " + roundTripHistogram.getPercentileUs(50) / 1000f + "/" + roundTripHistogram.getPercentileUs(95) / 1000f + " ms" +
+                ", writes: " + writeCount.get() +
+                ", drops: " + dropCount.get() +
+                ", coalesced: " + coalescedCount.get() +
+                ", resends: " + keepAliveResendCount.get() + " (watchdog " + watchdogTimeoutMs + " ms)" +
+                ", connect/discover: " + getConnectTimeMs() + "/" + getDiscoverServicesTimeMs() + " ms" +
+                ", timeouts: " + timeoutCount.get() +
+                ", resumes: " + resumeCount.get() + " (" + getTimeToResumeMs() + " ms, " + reconnectAttemptCount.get() + " attempts)";
+    }
+
+    //
+    // Internal API
+    //
+
+    void onDequeued(long queueWaitNs) { queueWaitHistogram.record(queueWaitNs); }
+
+    void onExecuted(long executeNs) { executeHistogram.record(executeNs); }
+
+    void onAcked(long roundTripNs) {
+        roundTripHistogram.record(roundTripNs);
+        writeCount.incrementAndGet();
+    }
+
+    void onDropped() { dropCount.incrementAndGet(); }
+
+    void onCoalesced() { coalescedCount.incrementAndGet(); }
+
+    void onKeepAliveResend() { keepAliveResendCount.incrementAndGet(); }
+
+    void onWatchdogTimeoutSet(int timeoutMs) { watchdogTimeoutMs = timeoutMs; }
+
+    void onConnected(long connectNs) { connectTimeNs = connectNs; }
+
+    void onServicesDiscovered(long discoverServicesNs) { discoverServicesTimeNs = discoverServicesNs; }
+
+    void onTimedOut() { timeoutCount.incrementAndGet(); }
+
+    void onReconnectAttempt() { reconnectAttemptCount.incrementAndGet(); }
+
+    void onResumed(long resumeNs) {
+        timeToResumeNs = resumeNs;
+        resumeCount.incrementAndGet();
+    }
+}
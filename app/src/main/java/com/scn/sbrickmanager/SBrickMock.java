@@ -1,6 +1,5 @@
 package com.scn.sbrickmanager;
 
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.content.Intent;
 import android.os.AsyncTask;
@@ -21,11 +20,23 @@ public class SBrickMock extends SBrickBase {
 
     private final static String TAG = SBrickMock.class.getSimpleName();
 
+    // Simulated connection times, a background connection takes longer to be re-established.
+    private static final int DirectConnectDelayMs = 300;
+    private static final int AutoConnectDelayMs = 1500;
+    private static final int DiscoverServicesDelayMs = 300;
+
     private final String address;
 
     private AsyncTask<Void, Void, Void> connectionAsyncTask = null;
     private AsyncTask<Void, Void, Void> discoverServicesAsyncTask = null;
 
+    // Fault injection, the GATT operations never call back.
+    private volatile boolean isDroppingCallbacks = false;
+    // Simulates a firmware without the quick drive characteristic.
+    private volatile boolean isQuickDriveSupported = true;
+    // Simulated write callback delay (e.g. a weak link), 0 to call back right away.
+    private volatile int writeCallbackDelayMs = 0;
+
     //
     // Constructor
     //
@@ -50,25 +61,84 @@ public class SBrickMock extends SBrickBase {
         return address;
     }
 
+    //
+    // API
+    //
+
+    /**
+     * Simulates the loss of the connection (e.g. the SBrick went out of range).
+     */
+    public void simulateConnectionLoss() {
+
+        synchronized (lockObject) {
+            Log.i(TAG, "simulateConnectionLoss - " + getAddress());
+
+            if (!isConnected) {
+                Log.i(TAG, "  Not connected.");
+                return;
+            }
+
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * Turns the callback dropping fault injection on or off. The operations started meanwhile
+     * never call back, like the lost GATT callbacks of a stressed radio.
+     */
+    public void setDroppingCallbacks(boolean isDroppingCallbacks) {
+        Log.i(TAG, "setDroppingCallbacks - " + isDroppingCallbacks);
+
+        this.isDroppingCallbacks = isDroppingCallbacks;
+    }
+
+    /**
+     * Sets whether the mock has the quick drive characteristic, without it the
+     * several channel updates go in multi-channel drive frames.
+     */
+    public void setQuickDriveSupported(boolean isQuickDriveSupported) {
+        Log.i(TAG, "setQuickDriveSupported - " + isQuickDriveSupported);
+
+        this.isQuickDriveSupported = isQuickDriveSupported;
+    }
+
+    /**
+     * Sets the delay of the write callbacks, it simulates a slow SBrick (e.g. a weak link).
+     * @param delayMs is the delay in milliseconds, 0 to call back right away.
+     */
+    public void setWriteCallbackDelay(int delayMs) {
+        Log.i(TAG, "setWriteCallbackDelay - " + delayMs);
+
+        this.writeCallbackDelayMs = delayMs;
+    }
+
     //
     // SBrickBase overrides
     //
 
     @Override
-    protected CommandMethod createConnectCommandMethod() {
+    protected CommandMethod createConnectCommandMethod(final boolean autoConnect) {
         Log.i(TAG, "createConnectCommandMethod - " + getAddress());
 
         return new CommandMethod() {
             @Override
             public synchronized boolean execute() {
 
+                // The callback releases the pipeline with the id of this operation.
+                final long operationId = getExecutingOperationId();
+
+                if (isDroppingCallbacks) {
+                    Log.w(TAG, "  Dropping the connect callback.");
+                    return true;
+                }
+
                 connectionAsyncTask = new AsyncTask<Void, Void, Void>() {
 
                     @Override
                     protected Void doInBackground(Void... params) {
 
                         try {
-                            Thread.sleep(300);
+                            Thread.sleep(autoConnect ? AutoConnectDelayMs : DirectConnectDelayMs);
                         }
                         catch (Exception ex) {
                         }
@@ -82,21 +152,22 @@ public class SBrickMock extends SBrickBase {
                         isConnected = false;
                         connectionAsyncTask = null;
 
-                        sbrickManager.releaseCommandSemaphore();
+                        sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
                     }
 
                     @Override
                     protected synchronized void onPostExecute(Void aVoid) {
                         super.onPostExecute(aVoid);
                         connectionAsyncTask = null;
+                        setConnectionState(SBrickConnectionState.DiscoveringServices);
 
                         // Discover services
                         CommandMethod commandMethod = createDiscoverServicesCommandMethod();
                         sbrickManager.sendCommand(Command.newDiscoverServicesCommand(SBrickMock.this, commandMethod));
 
-                        sbrickManager.releaseCommandSemaphore();
+                        sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
                     }
-                }.execute();
+                }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
                 return true;
             }
@@ -111,13 +182,21 @@ public class SBrickMock extends SBrickBase {
             @Override
             public synchronized boolean execute() {
 
+                // The callback releases the pipeline with the id of this operation.
+                final long operationId = getExecutingOperationId();
+
+                if (isDroppingCallbacks) {
+                    Log.w(TAG, "  Dropping the discover services callback.");
+                    return true;
+                }
+
                 discoverServicesAsyncTask = new AsyncTask<Void, Void, Void>() {
 
                     @Override
                     protected Void doInBackground(Void... params) {
 
                         try {
-                            Thread.sleep(300);
+                            Thread.sleep(DiscoverServicesDelayMs);
                         }
                         catch (Exception ex) {
                         }
@@ -131,7 +210,7 @@ public class SBrickMock extends SBrickBase {
                         isConnected = false;
                         discoverServicesAsyncTask = null;
 
-                        sbrickManager.releaseCommandSemaphore();
+                        sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
                     }
 
                     @Override
@@ -139,17 +218,29 @@ public class SBrickMock extends SBrickBase {
                         super.onPostExecute(aVoid);
                         discoverServicesAsyncTask = null;
                         isConnected = true;
+                        setConnectionState(SBrickConnectionState.Ready);
 
-                        sbrickManager.releaseCommandSemaphore();
+                        sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
                         sendLocalBroadcast(ACTION_SBRICK_CONNECTED);
                     }
-                }.execute();
+                }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
                 return true;
             }
         };
     }
 
+    @Override
+    protected void abortConnection() {
+        Log.i(TAG, "abortConnection - " + getAddress());
+
+        if (connectionAsyncTask != null)
+            connectionAsyncTask.cancel(true);
+
+        if (discoverServicesAsyncTask != null)
+            discoverServicesAsyncTask.cancel(true);
+    }
+
     @Override
     protected CommandMethod createReadCharacteristicCommandMethod(final SBrickCharacteristicType characteristicType) {
         Log.i(TAG, "createReadCharacteristicCommandMethod - " + getAddress());
@@ -158,6 +249,14 @@ public class SBrickMock extends SBrickBase {
             @Override
             public boolean execute() {
 
+                // The callback releases the pipeline with the id of this operation.
+                final long operationId = getExecutingOperationId();
+
+                if (isDroppingCallbacks) {
+                    Log.w(TAG, "  Dropping the read characteristic callback.");
+                    return true;
+                }
+
                 String value = "N/A";
 
                 switch (characteristicType) {
@@ -189,7 +288,7 @@ public class SBrickMock extends SBrickBase {
                 }
 
 
-                sbrickManager.releaseCommandSemaphore();
+                sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
 
                 Intent intent = new Intent();
                 intent.setAction(ACTION_SBRICK_CHARACTERISTIC_READ);
@@ -204,43 +303,46 @@ public class SBrickMock extends SBrickBase {
     }
 
     @Override
-    protected CommandMethod createWriteRemoteControlCommandMethod(int channel, int value) {
-        Log.i(TAG, "createWriteRemoteControlCommandMethod - " + getAddress());
+    protected boolean writeRemoteControl(int channel, int value) {
+        return write();
+    }
 
-        return new CommandMethod() {
-            @Override
-            public boolean execute() {
+    @Override
+    protected boolean writeMultiDrive(int channelMask, int v0, int v1, int v2, int v3) {
+        return write();
+    }
 
-                sbrickManager.releaseCommandSemaphore();
-                return true;
-            }
-        };
+    @Override
+    protected boolean writeQuickDrive(int v0, int v1, int v2, int v3) {
+        return write();
     }
 
     @Override
-    protected CommandMethod createWriteQuickDriveCommandMethod(int v0, int v1, int v2, int v3) {
-        Log.i(TAG, "createWriteQuickDriveCommandMethod - " + getAddress());
+    protected boolean writeWatchdogTimeout(int timeoutMs) {
+        Log.i(TAG, "writeWatchdogTimeout - " + getAddress() + ", " + timeoutMs + " ms");
 
-        return new CommandMethod() {
-            @Override
-            public boolean execute() {
+        return write();
+    }
 
-                sbrickManager.releaseCommandSemaphore();
-                return true;
-            }
-        };
+    @Override
+    protected boolean isQuickDriveSupported() {
+        return isQuickDriveSupported;
     }
 
     @Override
     public synchronized void disconnect() {
         Log.i(TAG, "disconnect - " + getAddress());
 
+        sbrickManager.onDisconnectRequested(this);
+
         if (connectionAsyncTask != null)
             connectionAsyncTask.cancel(true);
 
         if (discoverServicesAsyncTask != null)
             discoverServicesAsyncTask.cancel(true);
 
+        setConnectionState(SBrickConnectionState.Disconnected);
+
         if (!isConnected) {
             Log.i(TAG, "  Already disconnected.");
             return;
@@ -248,4 +350,48 @@ public class SBrickMock extends SBrickBase {
 
         isConnected = false;
     }
+
+    //
+    // Private methods
+    //
+
+    private boolean write() {
+
+        // The callback releases the pipeline with the id of this operation.
+        final long operationId = getExecutingOperationId();
+
+        if (isDroppingCallbacks)
+            return true;
+
+        final int delayMs = writeCallbackDelayMs;
+        if (delayMs == 0) {
+            onWriteCharacteristicDone();
+            sbrickManager.releaseCommandSemaphore(this, operationId);
+            return true;
+        }
+
+        new AsyncTask<Void, Void, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... params) {
+
+                try {
+                    Thread.sleep(delayMs);
+                }
+                catch (Exception ex) {
+                }
+
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                super.onPostExecute(aVoid);
+                onWriteCharacteristicDone();
+                sbrickManager.releaseCommandSemaphore(SBrickMock.this, operationId);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+        return true;
+    }
 }
@@ -0,0 +1,47 @@
+package com.scn.sbrickmanager;
+
+import com.scn.sbrickmanager.sbrickcommand.Command;
+import com.scn.sbrickmanager.sbrickcommand.ConnectCommand;
+import com.scn.sbrickmanager.sbrickcommand.DiscoverServicesCommand;
+import com.scn.sbrickmanager.sbrickcommand.ReadCharacteristicCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
+import com.scn.sbrickmanager.sbrickcommand.WriteDescriptorCommand;
+
+/**
+ * SBrick GATT operation type, every type has its own timeout.
+ */
+public enum SBrickOperationType {
+    Connect(30000),
+    DiscoverServices(10000),
+    ReadCharacteristic(2000),
+    WriteCharacteristic(1000),
+    WriteDescriptor(1000);
+
+    private final int defaultTimeoutMs;
+
+    SBrickOperationType(int defaultTimeoutMs) {
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    public int getDefaultTimeoutMs() { return defaultTimeoutMs; }
+
+    /**
+     * Gets the operation type of the command.
+     * @return The operation type, null if the command isn't a GATT operation.
+     */
+    static SBrickOperationType of(Command command) {
+
+        if (command instanceof WriteCharacteristicCommand)
+            return WriteCharacteristic;
+        else if (command instanceof WriteDescriptorCommand)
+            return WriteDescriptor;
+        else if (command instanceof ReadCharacteristicCommand)
+            return ReadCharacteristic;
+        else if (command instanceof DiscoverServicesCommand)
+            return DiscoverServices;
+        else if (command instanceof ConnectCommand)
+            return Connect;
+
+        return null;
+    }
+}
@@ -0,0 +1,218 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnects the SBricks that have lost their connection.
+ * A lost SBrick is reconnected with direct connections first (fast, but they fail if the SBrick
+ * isn't around), the attempts are backed off exponentially. When the retry budget of the SBrick
+ * is used up it falls back to a background (auto) connection that waits for the SBrick to show up.
+ * When the SBrick is ready again its last drive state is restored in a single write,
+ * or the motors are stopped if the dropout was too long.
+ */
+class SBrickReconnectEngine {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickReconnectEngine.class.getSimpleName();
+
+    // Number of direct connection attempts before falling back to auto connect.
+    static final int MaxDirectConnectAttempts = 4;
+    private static final long BaseBackoffMs = 100;
+    private static final long MaxBackoffMs = 2000;
+
+    // The drive state is only replayed if the SBrick is back within this time, otherwise the motors are stopped.
+    static final long MaxReplayDropoutMs = 1000;
+    // Expected upper bound of the time to resume (the mock stays well within).
+    static final long TimeToResumeTargetMs = 1000;
+
+    // The attempts are started on this thread, never under an SBrick lock.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SBrickReconnectEngine");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Object lockObject = new Object();
+    private final Map<SBrickBase, ReconnectState> reconnectStates = new HashMap<>();
+
+    //
+    // Constructor
+    //
+
+    SBrickReconnectEngine() {
+        Log.i(TAG, "SBrickReconnectEngine...");
+    }
+
+    //
+    // Internal API
+    //
+
+    boolean isReconnecting(SBrickBase sbrick) {
+        synchronized (lockObject) {
+            return reconnectStates.containsKey(sbrick);
+        }
+    }
+
+    /**
+     * Called by the SBrick when its connection has been lost, starts reconnecting.
+     * @return True if the SBrick is being reconnected.
+     */
+    boolean onConnectionLost(SBrickBase sbrick) {
+        Log.i(TAG, "onConnectionLost - " + sbrick.getAddress());
+
+        synchronized (lockObject) {
+            ReconnectState state = reconnectStates.get(sbrick);
+            if (state == null) {
+                state = new ReconnectState(System.nanoTime());
+                reconnectStates.put(sbrick, state);
+            }
+
+            schedule(sbrick, state, 0);
+            return true;
+        }
+    }
+
+    /**
+     * Called by the SBrick when a connection attempt has failed, schedules the next attempt.
+     * @return True if there is a next attempt, false if the SBrick is not being reconnected or it has given up.
+     */
+    boolean onConnectionAttemptFailed(SBrickBase sbrick) {
+
+        synchronized (lockObject) {
+            ReconnectState state = reconnectStates.get(sbrick);
+            if (state == null)
+                return false;
+
+            if (state.isAutoConnect) {
+                Log.w(TAG, "Auto connect has failed, give up - " + sbrick.getAddress());
+                reconnectStates.remove(sbrick);
+                return false;
+            }
+
+            long backoffMs = Math.min(MaxBackoffMs, BaseBackoffMs << Math.min(state.attempt - 1, 16));
+            Log.i(TAG, "Reconnect attempt " + state.attempt + " has failed, retry in " + backoffMs + " ms - " + sbrick.getAddress());
+
+            schedule(sbrick, state, backoffMs);
+            return true;
+        }
+    }
+
+    void onConnectionStateChanged(final SBrickBase sbrick, SBrickConnectionState connectionState) {
+
+        if (connectionState != SBrickConnectionState.Ready)
+            return;
+
+        final ReconnectState state;
+        synchronized (lockObject) {
+            state = reconnectStates.remove(sbrick);
+            if (state == null)
+                return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                long dropoutNs = System.nanoTime() - state.lostTime;
+                boolean isReplay = dropoutNs <= TimeUnit.MILLISECONDS.toNanos(MaxReplayDropoutMs);
+                sbrick.restoreDriveState(isReplay);
+
+                long timeToResumeNs = System.nanoTime() - state.lostTime;
+                sbrick.getMetrics().onResumed(timeToResumeNs);
+
+                long timeToResumeMs = TimeUnit.NANOSECONDS.toMillis(timeToResumeNs);
+                Log.i(TAG, "SBrick resumed in " + timeToResumeMs + " ms after " + state.attempt + " attempt(s), " +
+                        (isReplay ? "drive state replayed" : "motors stopped") + " - " + sbrick.getAddress());
+                if (timeToResumeMs > TimeToResumeTargetMs)
+                    Log.w(TAG, "  Time to resume is above the target (" + TimeToResumeTargetMs + " ms).");
+            }
+        });
+    }
+
+    /**
+     * Stops reconnecting the SBrick (it has been disconnected on purpose).
+     */
+    void cancel(SBrickBase sbrick) {
+
+        synchronized (lockObject) {
+            ReconnectState state = reconnectStates.remove(sbrick);
+            if (state != null && state.future != null)
+                state.future.cancel(false);
+        }
+    }
+
+    void cancelAll() {
+        Log.i(TAG, "cancelAll...");
+
+        synchronized (lockObject) {
+            for (ReconnectState state : reconnectStates.values()) {
+                if (state.future != null)
+                    state.future.cancel(false);
+            }
+
+            reconnectStates.clear();
+        }
+    }
+
+    //
+    // Private methods and classes
+    //
+
+    private void schedule(final SBrickBase sbrick, final ReconnectState state, long delayMs) {
+
+        state.future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(sbrick, state);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(SBrickBase sbrick, ReconnectState state) {
+
+        boolean isAutoConnect;
+        synchronized (lockObject) {
+            // Cancelled or resumed meanwhile
+            if (reconnectStates.get(sbrick) != state)
+                return;
+
+            isAutoConnect = state.attempt >= MaxDirectConnectAttempts;
+            state.isAutoConnect = isAutoConnect;
+            state.attempt++;
+        }
+
+        Log.i(TAG, "Reconnect attempt " + state.attempt + (isAutoConnect ? " (auto connect)" : " (direct)") + " - " + sbrick.getAddress());
+        sbrick.getMetrics().onReconnectAttempt();
+
+        if (!sbrick.reconnect(isAutoConnect)) {
+            Log.w(TAG, "  Could not start reconnecting.");
+            sbrick.onConnectionAttemptFailed();
+        }
+    }
+
+    private static final class ReconnectState {
+
+        private final long lostTime;
+        private int attempt = 0;
+        private boolean isAutoConnect = false;
+        private ScheduledFuture<?> future = null;
+
+        private ReconnectState(long lostTime) {
+            this.lostTime = lostTime;
+        }
+    }
+}
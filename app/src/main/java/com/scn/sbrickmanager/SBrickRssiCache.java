@@ -0,0 +1,66 @@
+package com.scn.sbrickmanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small cache of the last RSSI of the scanned SBricks, the least recently seen ones are evicted.
+ * The entries of the known addresses are updated in place.
+ */
+class SBrickRssiCache {
+
+    //
+    // Private members
+    //
+
+    private static final int MaxEntries = 32;
+
+    private final LinkedHashMap<String, RssiEntry> entries = new LinkedHashMap<String, RssiEntry>(MaxEntries, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RssiEntry> eldest) {
+            return size() > MaxEntries;
+        }
+    };
+
+    //
+    // Internal API
+    //
+
+    /**
+     * @return True if the RSSI of the address has changed.
+     */
+    synchronized boolean put(String address, int rssi) {
+
+        RssiEntry entry = entries.get(address);
+        if (entry == null) {
+            entry = new RssiEntry();
+            entries.put(address, entry);
+        }
+        else if (entry.rssi == rssi) {
+            return false;
+        }
+
+        entry.rssi = rssi;
+        return true;
+    }
+
+    /**
+     * @return The last RSSI of the address, SBrickManager.RSSI_UNKNOWN if it's not in the cache.
+     */
+    synchronized int getRssi(String address) {
+        RssiEntry entry = entries.get(address);
+        return entry != null ? entry.rssi : SBrickManager.RSSI_UNKNOWN;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    //
+    // Private classes
+    //
+
+    private static final class RssiEntry {
+        private int rssi;
+    }
+}
@@ -0,0 +1,86 @@
+package com.scn.sbrickmanager;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the scan result changes (added, updated and removed SBricks) over the batch window,
+ * they are published in a single broadcast. An address is only in one of the sets.
+ */
+class SBrickScanBatch {
+
+    //
+    // Private members
+    //
+
+    private final Set<String> addedAddresses = new LinkedHashSet<>();
+    private final Set<String> updatedAddresses = new LinkedHashSet<>();
+    private final Set<String> removedAddresses = new LinkedHashSet<>();
+
+    //
+    // Internal API
+    //
+
+    /**
+     * @return True if the batch was empty, the flush has to be scheduled.
+     */
+    synchronized boolean onAdded(String address) {
+        boolean wasEmpty = isEmpty();
+        removedAddresses.remove(address);
+        updatedAddresses.remove(address);
+        addedAddresses.add(address);
+        return wasEmpty;
+    }
+
+    /**
+     * @return True if the batch was empty, the flush has to be scheduled.
+     */
+    synchronized boolean onUpdated(String address) {
+        boolean wasEmpty = isEmpty();
+        if (!addedAddresses.contains(address))
+            updatedAddresses.add(address);
+        return wasEmpty;
+    }
+
+    /**
+     * @return True if the batch was empty, the flush has to be scheduled.
+     */
+    synchronized boolean onRemoved(String address) {
+        boolean wasEmpty = isEmpty();
+        updatedAddresses.remove(address);
+
+        // Added and removed within the window, the UI has never known about it.
+        if (!addedAddresses.remove(address))
+            removedAddresses.add(address);
+        return wasEmpty;
+    }
+
+    /**
+     * Takes the collected changes and empties the batch.
+     * @return The added, updated and removed addresses, null if the batch is empty.
+     */
+    synchronized String[][] take() {
+
+        if (isEmpty())
+            return null;
+
+        String[][] changes = new String[][] {
+                addedAddresses.toArray(new String[addedAddresses.size()]),
+                updatedAddresses.toArray(new String[updatedAddresses.size()]),
+                removedAddresses.toArray(new String[removedAddresses.size()])
+        };
+
+        addedAddresses.clear();
+        updatedAddresses.clear();
+        removedAddresses.clear();
+        return changes;
+    }
+
+    //
+    // Private methods
+    //
+
+    private boolean isEmpty() {
+        return addedAddresses.isEmpty() && updatedAddresses.isEmpty() && removedAddresses.isEmpty();
+    }
+}
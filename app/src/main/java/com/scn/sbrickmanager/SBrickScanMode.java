@@ -0,0 +1,11 @@
+package com.scn.sbrickmanager;
+
+/**
+ * SBrick scan mode, the trade-off between the discovery latency and the power consumption.
+ * The legacy scanner (before Android 5.0) always scans with its own fixed mode.
+ */
+public enum SBrickScanMode {
+    LowPower,
+    Balanced,
+    LowLatency
+}
@@ -0,0 +1,172 @@
+package com.scn.sbrickmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SBrick scan session, the scanning stops as soon as the stop condition of the session is met.
+ * The scan results are deduplicated per address. When the session is over the
+ * SBrickManager.ACTION_SBRICK_SCAN_FINISHED broadcast is sent with the final state.
+ */
+public class SBrickScanSession {
+
+    //
+    // Public enums and classes
+    //
+
+    public enum State {
+        Scanning,
+        GoalReached,
+        TimedOut,
+        Cancelled
+    }
+
+    /**
+     * Stop condition of a scan session, every condition has a timeout as well.
+     */
+    public static final class StopCondition {
+
+        private final int newSBrickCount;
+        private final Set<String> addresses;
+        private final long timeoutMs;
+
+        private StopCondition(int newSBrickCount, Set<String> addresses, long timeoutMs) {
+
+            if (timeoutMs <= 0)
+                throw new IllegalArgumentException("timeoutMs must be positive.");
+
+            this.newSBrickCount = newSBrickCount;
+            this.addresses = addresses;
+            this.timeoutMs = timeoutMs;
+        }
+
+        /**
+         * The scanning stops when the given number of new SBricks have been found,
+         * for the callers that know how many SBricks they are looking for.
+         */
+        public static StopCondition newSBricks(int count, long timeoutMs) {
+
+            if (count < 1)
+                throw new IllegalArgumentException("count must be at least 1.");
+
+            return new StopCondition(count, null, timeoutMs);
+        }
+
+        /**
+         * The scanning stops when all the SBricks with the given addresses have been seen
+         * (e.g. the SBricks of a controller profile).
+         */
+        public static StopCondition addressesSeen(Collection<String> addresses, long timeoutMs) {
+            return new StopCondition(0, Collections.unmodifiableSet(new HashSet<>(addresses)), timeoutMs);
+        }
+
+        /**
+         * The scanning only stops at the timeout.
+         */
+        public static StopCondition timeout(long timeoutMs) {
+            return new StopCondition(0, null, timeoutMs);
+        }
+
+        public long getTimeoutMs() { return timeoutMs; }
+    }
+
+    //
+    // Private members
+    //
+
+    private final SBrickManagerBase sbrickManager;
+    private final StopCondition stopCondition;
+
+    private final Set<String> seenAddresses = new HashSet<>();
+    private int newSBrickCount = 0;
+    private int seenTargetCount = 0;
+    private State state = State.Scanning;
+
+    //
+    // Constructor
+    //
+
+    SBrickScanSession(SBrickManagerBase sbrickManager, StopCondition stopCondition) {
+        this.sbrickManager = sbrickManager;
+        this.stopCondition = stopCondition;
+    }
+
+    //
+    // API
+    //
+
+    public synchronized State getState() { return state; }
+
+    public synchronized boolean isScanning() { return state == State.Scanning; }
+
+    /**
+     * @return The number of the new SBricks found in the session.
+     */
+    public synchronized int getNewSBrickCount() { return newSBrickCount; }
+
+    /**
+     * @return The addresses of the SBricks seen in the session.
+     */
+    public synchronized List<String> getSeenAddresses() { return new ArrayList<>(seenAddresses); }
+
+    public StopCondition getStopCondition() { return stopCondition; }
+
+    /**
+     * Stops the scanning.
+     */
+    public void cancel() {
+        sbrickManager.finishScanSession(this, State.Cancelled);
+    }
+
+    //
+    // Internal API
+    //
+
+    /**
+     * Called for every scan result of an SBrick.
+     * @return True if the stop condition has been met.
+     */
+    synchronized boolean onScanResult(String address, boolean isNew) {
+
+        if (state != State.Scanning || !seenAddresses.add(address))
+            return false;
+
+        if (isNew)
+            newSBrickCount++;
+
+        if (stopCondition.addresses != null && stopCondition.addresses.contains(address))
+            seenTargetCount++;
+
+        return isGoalReached();
+    }
+
+    /**
+     * @return True if the stop condition is met right at the start (e.g. no addresses to see).
+     */
+    synchronized boolean isGoalReached() {
+
+        if (stopCondition.newSBrickCount > 0)
+            return stopCondition.newSBrickCount <= newSBrickCount;
+
+        if (stopCondition.addresses != null)
+            return stopCondition.addresses.size() <= seenTargetCount;
+
+        return false;
+    }
+
+    /**
+     * @return False if the session has already been finished.
+     */
+    synchronized boolean finish(State state) {
+
+        if (this.state != State.Scanning)
+            return false;
+
+        this.state = state;
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.scn.sbrickmanager;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+
+/**
+ * SBrick scanner backend base abstract class.
+ * The scanners report the found SBricks to the manager on their own callback thread,
+ * they don't take the manager lock.
+ */
+abstract class SBrickScanner {
+
+    //
+    // Package-private constants
+    //
+
+    // Bluetooth SIG company identifier of Vengit Ltd., the SBrick advertises it in the manufacturer data.
+    // The SBricks are matched by it only, the name can be changed by the user (and its case isn't fixed).
+    static final int VengitCompanyId = 0x0198;
+
+    //
+    // Protected members
+    //
+
+    protected final BluetoothAdapter bluetoothAdapter;
+    protected final SBrickManagerImpl sbrickManager;
+
+    //
+    // Constructor
+    //
+
+    protected SBrickScanner(BluetoothAdapter bluetoothAdapter, SBrickManagerImpl sbrickManager) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.sbrickManager = sbrickManager;
+    }
+
+    //
+    // Internal API
+    //
+
+    /**
+     * Creates the scanner backend for the API level, the hardware filtered one if it's available.
+     */
+    static SBrickScanner create(BluetoothAdapter bluetoothAdapter, SBrickManagerImpl sbrickManager) {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return new SBrickLeScanner(bluetoothAdapter, sbrickManager);
+
+        return new SBrickLegacyScanner(bluetoothAdapter, sbrickManager);
+    }
+
+    /**
+     * Starts scanning.
+     * @param scanMode is the scan mode.
+     * @return True if the scanning has been started.
+     */
+    abstract boolean start(SBrickScanMode scanMode);
+
+    abstract void stop();
+}
@@ -0,0 +1,133 @@
+package com.scn.sbrickmanager;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session bookkeeping of the SBrick session service.
+ * The sessions are reference counted per SBrick, an SBrick that no session uses is idle
+ * until the idle SBricks are released (after the grace period of the service).
+ * Not thread safe, the service calls it on the main thread.
+ */
+class SBrickSessionRegistry {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickSessionRegistry.class.getSimpleName();
+
+    private final SBrickManager sbrickManager;
+
+    private final Map<String, Integer> sbrickRefCounts = new HashMap<>();
+    private final Map<String, SBrick> idleSBricks = new HashMap<>();
+    private int sessionCount = 0;
+
+    //
+    // Constructor
+    //
+
+    SBrickSessionRegistry(SBrickManager sbrickManager) {
+        this.sbrickManager = sbrickManager;
+    }
+
+    //
+    // Internal API
+    //
+
+    int getSessionCount() { return sessionCount; }
+
+    /**
+     * Opens a session on the SBricks. Starts the command processing if needed
+     * and starts connecting the SBricks that are not connected yet.
+     * @return True if the connecting could be started.
+     */
+    boolean open(List<SBrick> sbricks) {
+        Log.i(TAG, "open - " + sbricks.size() + " SBrick(s)");
+
+        // It's all right if it has been started by a previous session.
+        sbrickManager.startCommandProcessing();
+
+        if (!sbrickManager.connectSBricks(sbricks)) {
+            Log.w(TAG, "  Could not start connecting the SBricks.");
+            return false;
+        }
+
+        for (SBrick sbrick : sbricks) {
+            Integer refCount = sbrickRefCounts.get(sbrick.getAddress());
+            sbrickRefCounts.put(sbrick.getAddress(), refCount == null ? 1 : refCount + 1);
+            idleSBricks.remove(sbrick.getAddress());
+        }
+
+        sessionCount++;
+        return true;
+    }
+
+    /**
+     * Closes a session. The SBricks no other session uses are stopped and become idle.
+     */
+    void close(List<SBrick> sbricks) {
+        Log.i(TAG, "close - " + sbricks.size() + " SBrick(s)");
+
+        sessionCount--;
+
+        for (SBrick sbrick : sbricks) {
+            Integer refCount = sbrickRefCounts.get(sbrick.getAddress());
+            if (refCount == null)
+                continue;
+
+            if (refCount > 1) {
+                sbrickRefCounts.put(sbrick.getAddress(), refCount - 1);
+            }
+            else {
+                // The motors don't run on while the connection is kept warm.
+                sbrick.stop();
+
+                sbrickRefCounts.remove(sbrick.getAddress());
+                idleSBricks.put(sbrick.getAddress(), sbrick);
+            }
+        }
+    }
+
+    /**
+     * Disconnects the idle SBricks, the command processing is stopped too if there is no session.
+     * @return True if there is no session.
+     */
+    boolean releaseIdleSBricks() {
+        Log.i(TAG, "releaseIdleSBricks...");
+
+        for (SBrick sbrick : idleSBricks.values()) {
+            Log.i(TAG, "  Disconnect idle SBrick - " + sbrick.getAddress());
+            sbrick.disconnect();
+        }
+
+        idleSBricks.clear();
+
+        if (sessionCount > 0)
+            return false;
+
+        Log.i(TAG, "  No more sessions.");
+        sbrickManager.stopCommandProcessing();
+        return true;
+    }
+
+    /**
+     * Disconnects every SBrick of the sessions and the idle ones, stops the command processing.
+     */
+    void releaseAll() {
+        Log.i(TAG, "releaseAll...");
+
+        for (SBrick sbrick : sbrickManager.getSBricks()) {
+            if (sbrickRefCounts.containsKey(sbrick.getAddress()) || idleSBricks.containsKey(sbrick.getAddress()))
+                sbrick.disconnect();
+        }
+
+        sbrickRefCounts.clear();
+        idleSBricks.clear();
+        sessionCount = 0;
+        sbrickManager.stopCommandProcessing();
+    }
+}
@@ -0,0 +1,209 @@
+package com.scn.sbrickmanager;
+
+import android.app.Notification;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bound service hosting the SBrick command processing and the live connections.
+ * The activities open a session on the SBricks they use and close it when they go away.
+ * The sessions are reference counted per SBrick, an SBrick is only disconnected when no session
+ * has used it for the idle grace period, so a returning activity finds its SBricks connected.
+ * The service keeps itself started while it holds connections and stops itself when idle.
+ * An activity that keeps its session open while it's in the background asks for the foreground,
+ * the service runs in the foreground while it holds sessions.
+ * All the methods must be called on the main thread.
+ */
+public class SBrickSessionService extends Service {
+
+    //
+    // Public constants
+    //
+
+    public static final long IdleGracePeriodMs = 30000;
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = SBrickSessionService.class.getSimpleName();
+
+    private static final int ForegroundNotificationId = 1;
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler();
+
+    private SBrickSessionRegistry sessionRegistry = null;
+    private boolean isStarted = false;
+    private boolean isForegroundRequested = false;
+    private boolean isForeground = false;
+
+    //
+    // Service overrides
+    //
+
+    @Override
+    public void onCreate() {
+        Log.i(TAG, "onCreate...");
+        super.onCreate();
+
+        sessionRegistry = new SBrickSessionRegistry(SBrickManagerHolder.getManager());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        Log.i(TAG, "onBind...");
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Log.i(TAG, "onStartCommand...");
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.i(TAG, "onDestroy...");
+
+        handler.removeCallbacks(releaseIdleSBricksRunnable);
+        sessionRegistry.releaseAll();
+
+        super.onDestroy();
+    }
+
+    //
+    // API
+    //
+
+    public class LocalBinder extends Binder {
+        public SBrickSessionService getService() { return SBrickSessionService.this; }
+    }
+
+    /**
+     * Session of an activity on a set of SBricks.
+     */
+    public static final class Session {
+
+        private final List<SBrick> sbricks;
+        private boolean isClosed = false;
+
+        private Session(List<SBrick> sbricks) {
+            this.sbricks = sbricks;
+        }
+
+        public List<SBrick> getSBricks() { return sbricks; }
+
+        /**
+         * @return True if all the SBricks of the session are connected (e.g. a warm session).
+         */
+        public boolean isAllConnected() {
+            for (SBrick sbrick : sbricks) {
+                if (!sbrick.isConnected())
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Opens a session on the SBricks. Starts the command processing if needed
+     * and starts connecting the SBricks that are not connected yet.
+     * @param sbricks is the SBricks of the session.
+     * @return The session, null if the connecting could not be started.
+     */
+    public Session openSession(List<SBrick> sbricks) {
+        Log.i(TAG, "openSession - " + sbricks.size() + " SBrick(s)");
+
+        if (!sessionRegistry.open(sbricks))
+            return null;
+
+        // Keep the service alive between the bindings of the activities.
+        if (!isStarted) {
+            startService(new Intent(this, SBrickSessionService.class));
+            isStarted = true;
+        }
+
+        updateForeground();
+        return new Session(new ArrayList<>(sbricks));
+    }
+
+    /**
+     * Closes the session. Its SBricks are stopped and disconnected after the idle grace period
+     * unless another session uses them meanwhile.
+     * @param session is the session to close.
+     */
+    public void closeSession(Session session) {
+        Log.i(TAG, "closeSession...");
+
+        if (session == null || session.isClosed) {
+            Log.w(TAG, "  Session has already been closed.");
+            return;
+        }
+
+        session.isClosed = true;
+        sessionRegistry.close(session.sbricks);
+        updateForeground();
+
+        handler.removeCallbacks(releaseIdleSBricksRunnable);
+        handler.postDelayed(releaseIdleSBricksRunnable, IdleGracePeriodMs);
+    }
+
+    /**
+     * Sets whether the service runs in the foreground while it holds sessions,
+     * so the process and the connections of a session kept open in the background stay alive.
+     */
+    public void setKeepInForeground(boolean keepInForeground) {
+        Log.i(TAG, "setKeepInForeground - " + keepInForeground);
+
+        isForegroundRequested = keepInForeground;
+        updateForeground();
+    }
+
+    //
+    // Private methods
+    //
+
+    private final Runnable releaseIdleSBricksRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "releaseIdleSBricksRunnable.run...");
+
+            if (sessionRegistry.releaseIdleSBricks()) {
+                Log.i(TAG, "  No more sessions, stop.");
+                isStarted = false;
+                updateForeground();
+                stopSelf();
+            }
+        }
+    };
+
+    private void updateForeground() {
+
+        boolean needForeground = isForegroundRequested && sessionRegistry.getSessionCount() > 0;
+        if (needForeground == isForeground)
+            return;
+
+        if (needForeground) {
+            Notification notification = new Notification.Builder(this)
+                    .setSmallIcon(getApplicationInfo().icon)
+                    .setContentTitle(getApplicationInfo().loadLabel(getPackageManager()))
+                    .setContentText("Connected to SBricks")
+                    .setOngoing(true)
+                    .build();
+            startForeground(ForegroundNotificationId, notification);
+        }
+        else {
+            stopForeground(true);
+        }
+
+        isForeground = needForeground;
+    }
+}
@@ -8,10 +8,24 @@ import com.scn.sbrickmanager.SBrickCharacteristicType;
  */
 public abstract class Command {
 
+    //
+    // Private members
+    //
+
+    // Timestamps (System.nanoTime) for the latency metrics, 0 if not set.
+    private volatile long enqueueTime = 0;
+    private volatile long executeTime = 0;
+
     //
     // API
     //
 
+    public long getEnqueueTime() { return enqueueTime; }
+    public void setEnqueueTime(long enqueueTime) { this.enqueueTime = enqueueTime; }
+
+    public long getExecuteTime() { return executeTime; }
+    public void setExecuteTime(long executeTime) { this.executeTime = executeTime; }
+
     public static ConnectCommand newConnectCommand(SBrick sbrick, CommandMethod commandMethod) {
         return new ConnectCommand(sbrick, commandMethod);
     }
@@ -24,14 +38,26 @@ public abstract class Command {
         return new ReadCharacteristicCommand(sbrick, commandMethod, characteristicType);
     }
 
+    public static WriteDescriptorCommand newWriteDescriptorCommand(SBrick sbrick, CommandMethod commandMethod) {
+        return new WriteDescriptorCommand(sbrick, commandMethod);
+    }
+
     public static WriteRemoteControlCommand newWriteRemoteControlCommand(SBrick sbrick, CommandMethod commandMethod, int channel, int value) {
         return new WriteRemoteControlCommand(sbrick, commandMethod, channel, value);
     }
 
+    public static WriteMultiDriveCommand newWriteMultiDriveCommand(SBrick sbrick, CommandMethod commandMethod, int channelMask, int v0, int v1, int v2, int v3) {
+        return new WriteMultiDriveCommand(sbrick, commandMethod, channelMask, v0, v1, v2, v3);
+    }
+
     public static WriteQuickDriveCommand newWriteQuickDriveCommand(SBrick sbrick, CommandMethod commandMethod, int v0, int v1, int v2, int v3) {
         return new WriteQuickDriveCommand(sbrick, commandMethod, v0, v1, v2, v3);
     }
 
+    public static WriteWatchdogTimeoutCommand newWriteWatchdogTimeoutCommand(SBrick sbrick, CommandMethod commandMethod, int timeoutMs) {
+        return new WriteWatchdogTimeoutCommand(sbrick, commandMethod, timeoutMs);
+    }
+
     public static QuitCommand newQuitCommand() {
         return new QuitCommand();
     }
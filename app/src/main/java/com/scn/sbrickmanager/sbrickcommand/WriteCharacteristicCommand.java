@@ -7,6 +7,12 @@ import com.scn.sbrickmanager.SBrick;
  */
 public abstract class WriteCharacteristicCommand extends SBrickCommand {
 
+    //
+    // Private members
+    //
+
+    private volatile boolean isReused = false;
+
     //
     // Constructor
     //
@@ -15,6 +21,25 @@ public abstract class WriteCharacteristicCommand extends SBrickCommand {
         super(sbrick, commandMethod);
     }
 
+    //
+    // API
+    //
+
+    public boolean isReused() { return isReused; }
+
+    /**
+     * Marks the command as reused (preallocated). A reused command is always kept in its
+     * pending slot, never in the FIFO queue, so the same instance is never queued twice.
+     */
+    public void setReused(boolean isReused) { this.isReused = isReused; }
+
+    /**
+     * Makes the pending values of a reusable command current.
+     * Called by the command processing right before the command gets executed.
+     */
+    public void latch() {
+    }
+
     //
     // Object overrides
     //
@@ -0,0 +1,26 @@
+package com.scn.sbrickmanager.sbrickcommand;
+
+import com.scn.sbrickmanager.SBrick;
+
+/**
+ * SBrickCommand subclass for writing a GATT descriptor.
+ */
+public class WriteDescriptorCommand extends SBrickCommand {
+
+    //
+    // Constructor
+    //
+
+    WriteDescriptorCommand(SBrick sbrick, CommandMethod commandMethod) {
+        super(sbrick, commandMethod);
+    }
+
+    //
+    // Object overrides
+    //
+
+    @Override
+    public String toString() {
+        return "WriteDescriptorCommand, SBrick: " + getSbrick().getAddress();
+    }
+}
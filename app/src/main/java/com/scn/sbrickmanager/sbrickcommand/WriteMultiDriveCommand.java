@@ -0,0 +1,97 @@
+package com.scn.sbrickmanager.sbrickcommand;
+
+import com.scn.sbrickmanager.SBrick;
+
+/**
+ * WriteCharacteristicCommand subclass for writing several channels in a single
+ * remote control drive frame. Only the channels in the channel mask are written.
+ * The command can be reused: setValues() sets the pending values, latch() makes them current.
+ * The channel masks of the pending values are merged until the command is latched.
+ */
+public class WriteMultiDriveCommand extends WriteCharacteristicCommand {
+
+    //
+    // Private members
+    //
+
+    private int channelMask;
+    private int v0, v1, v2, v3;
+    private int pendingChannelMask;
+    private int pendingV0, pendingV1, pendingV2, pendingV3;
+
+    //
+    // Constructor
+    //
+
+    WriteMultiDriveCommand(SBrick sbrick, CommandMethod commandMethod, int channelMask, int v0, int v1, int v2, int v3) {
+        super(sbrick, commandMethod);
+
+        this.channelMask = this.pendingChannelMask = channelMask;
+        this.v0 = this.pendingV0 = v0;
+        this.v1 = this.pendingV1 = v1;
+        this.v2 = this.pendingV2 = v2;
+        this.v3 = this.pendingV3 = v3;
+    }
+
+    //
+    // API
+    //
+
+    public synchronized int getChannelMask() { return channelMask; }
+    public synchronized int getV0() { return v0; }
+    public synchronized int getV1() { return v1; }
+    public synchronized int getV2() { return v2; }
+    public synchronized int getV3() { return v3; }
+
+    public synchronized int getValue(int channel) {
+        switch (channel) {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            default: return v3;
+        }
+    }
+
+    public synchronized boolean hasChannel(int channel) {
+        return (channelMask & (1 << channel)) != 0;
+    }
+
+    public synchronized boolean hasPendingChannel(int channel) {
+        return (pendingChannelMask & (1 << channel)) != 0;
+    }
+
+    /**
+     * Sets the pending values, they become current on the next latch().
+     * The channel mask is added to the pending one, the values must hold the latest value of every channel.
+     */
+    public synchronized void setValues(int channelMask, int v0, int v1, int v2, int v3) {
+        this.pendingChannelMask |= channelMask;
+        this.pendingV0 = v0;
+        this.pendingV1 = v1;
+        this.pendingV2 = v2;
+        this.pendingV3 = v3;
+    }
+
+    //
+    // WriteCharacteristicCommand overrides
+    //
+
+    @Override
+    public synchronized void latch() {
+        channelMask = pendingChannelMask;
+        v0 = pendingV0;
+        v1 = pendingV1;
+        v2 = pendingV2;
+        v3 = pendingV3;
+        pendingChannelMask = 0;
+    }
+
+    //
+    // Object overrides
+    //
+
+    @Override
+    public String toString() {
+        return "WriteMultiDriveCommand, SBrick address: " + getSbrick().getAddress() + " - channel mask: " + channelMask + ", v0: " + v0 + ", v1: " + v1 + ", v2: " + v2 + ", v3: " + v3;
+    }
+}
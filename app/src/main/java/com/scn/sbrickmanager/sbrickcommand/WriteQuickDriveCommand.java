@@ -4,6 +4,7 @@ import com.scn.sbrickmanager.SBrick;
 
 /**
  * WriteCharacteristicCommand subclass for writing to quick drive characteristic.
+ * The command can be reused: setValues() sets the pending values, latch() makes them current.
  */
 public class WriteQuickDriveCommand extends WriteCharacteristicCommand {
 
@@ -12,6 +13,7 @@ public class WriteQuickDriveCommand extends WriteCharacteristicCommand {
     //
 
     private int v0, v1, v2, v3;
+    private int pendingV0, pendingV1, pendingV2, pendingV3;
 
     //
     // Constructor
@@ -20,20 +22,42 @@ public class WriteQuickDriveCommand extends WriteCharacteristicCommand {
     WriteQuickDriveCommand(SBrick sbrick, CommandMethod commandMethod, int v0, int v1, int v2, int v3) {
         super(sbrick, commandMethod);
 
-        this.v0 = v0;
-        this.v1 = v1;
-        this.v2 = v2;
-        this.v3 = v3;
+        this.v0 = this.pendingV0 = v0;
+        this.v1 = this.pendingV1 = v1;
+        this.v2 = this.pendingV2 = v2;
+        this.v3 = this.pendingV3 = v3;
     }
 
     //
     // API
     //
 
-    public int getV0() { return v0; }
-    public int getV1() { return v1; }
-    public int getV2() { return v2; }
-    public int getV3() { return v3; }
+    public synchronized int getV0() { return v0; }
+    public synchronized int getV1() { return v1; }
+    public synchronized int getV2() { return v2; }
+    public synchronized int getV3() { return v3; }
+
+    /**
+     * Sets the pending values, they become current on the next latch().
+     */
+    public synchronized void setValues(int v0, int v1, int v2, int v3) {
+        this.pendingV0 = v0;
+        this.pendingV1 = v1;
+        this.pendingV2 = v2;
+        this.pendingV3 = v3;
+    }
+
+    //
+    // WriteCharacteristicCommand overrides
+    //
+
+    @Override
+    public synchronized void latch() {
+        v0 = pendingV0;
+        v1 = pendingV1;
+        v2 = pendingV2;
+        v3 = pendingV3;
+    }
 
     //
     // Object overrides
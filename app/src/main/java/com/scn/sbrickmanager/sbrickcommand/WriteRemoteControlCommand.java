@@ -4,6 +4,7 @@ import com.scn.sbrickmanager.SBrick;
 
 /**
  * WriteCharacteristicCommand subclass for writing the remote control characteristic.
+ * The command can be reused: setValue() sets the pending value, latch() makes it current.
  */
 public class WriteRemoteControlCommand extends WriteCharacteristicCommand {
 
@@ -13,6 +14,7 @@ public class WriteRemoteControlCommand extends WriteCharacteristicCommand {
 
     private int channel;
     private int value;
+    private int pendingValue;
 
     //
     // Constructor
@@ -22,7 +24,7 @@ public class WriteRemoteControlCommand extends WriteCharacteristicCommand {
         super(sbrick, commandMethod);
 
         this.channel = channel;
-        this.value = value;
+        this.value = this.pendingValue = value;
     }
 
     //
@@ -30,7 +32,23 @@ public class WriteRemoteControlCommand extends WriteCharacteristicCommand {
     //
 
     public int getChannel() { return channel; }
-    public int getValue() { return value; }
+    public synchronized int getValue() { return value; }
+
+    /**
+     * Sets the pending value, it becomes current on the next latch().
+     */
+    public synchronized void setValue(int value) {
+        this.pendingValue = value;
+    }
+
+    //
+    // WriteCharacteristicCommand overrides
+    //
+
+    @Override
+    public synchronized void latch() {
+        value = pendingValue;
+    }
 
     //
     // Object overrides
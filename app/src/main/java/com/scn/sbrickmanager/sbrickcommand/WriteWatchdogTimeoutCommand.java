@@ -0,0 +1,41 @@
+package com.scn.sbrickmanager.sbrickcommand;
+
+import com.scn.sbrickmanager.SBrick;
+
+/**
+ * WriteCharacteristicCommand subclass for setting the watchdog timeout of the SBrick
+ * through the remote control characteristic.
+ */
+public class WriteWatchdogTimeoutCommand extends WriteCharacteristicCommand {
+
+    //
+    // Private members
+    //
+
+    private final int timeoutMs;
+
+    //
+    // Constructor
+    //
+
+    WriteWatchdogTimeoutCommand(SBrick sbrick, CommandMethod commandMethod, int timeoutMs) {
+        super(sbrick, commandMethod);
+
+        this.timeoutMs = timeoutMs;
+    }
+
+    //
+    // API
+    //
+
+    public int getTimeoutMs() { return timeoutMs; }
+
+    //
+    // Object overrides
+    //
+
+    @Override
+    public String toString() {
+        return "WriteWatchdogTimeoutCommand, SBrick address: " + getSbrick().getAddress() + " - timeout: " + timeoutMs + " ms";
+    }
+}
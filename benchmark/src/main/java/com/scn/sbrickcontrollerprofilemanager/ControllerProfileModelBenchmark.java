@@ -0,0 +1,165 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the controller profile data model.
+ * The legacy* benchmarks use the former model (string keyed map of hash sets, a new set on every miss),
+ * the others the ControllerInput ordinal indexed action arrays of ControllerProfile.
+ * lookupMiss is a key press of an unmapped button, lookupHit reads the actions of every axis.
+ * Run with -prof gc for the memory, gc.alloc.rate.norm of the create benchmarks is the profile plus the garbage of building it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ControllerProfileModelBenchmark {
+
+    //
+    // Private members
+    //
+
+    private static final ControllerInput[] AxisInputs = new ControllerInput[] {
+            ControllerInput.LeftJoyHorizontal,
+            ControllerInput.LeftJoyVertical,
+            ControllerInput.RightJoyHorizontal,
+            ControllerInput.RightJoyVertical,
+            ControllerInput.DpadHorizontal,
+            ControllerInput.DpadVertical,
+            ControllerInput.LeftTrigger,
+            ControllerInput.RightTrigger
+    };
+
+    private ControllerAction[] controllerActions;
+
+    private LegacyControllerProfile legacyProfile;
+    private ControllerProfile profile;
+
+    //
+    // Setup
+    //
+
+    @Setup
+    public void setup() {
+
+        // 2 actions for every axis, like a fully configured gamepad
+        controllerActions = new ControllerAction[AxisInputs.length * 2];
+        for (int axis = 0; axis < AxisInputs.length; axis++) {
+            controllerActions[axis * 2] = new ControllerAction("00:07:80:00:00:0" + (axis % 3), axis % 4, false, false, 100);
+            controllerActions[axis * 2 + 1] = new ControllerAction("00:07:80:00:00:0" + ((axis + 1) % 3), (axis + 1) % 4, true, false, 80);
+        }
+
+        legacyProfile = legacyCreateProfile();
+        profile = createProfile();
+    }
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public LegacyControllerProfile legacyCreateProfile() {
+
+        LegacyControllerProfile newProfile = new LegacyControllerProfile("Benchmark");
+        for (int i = 0; i < controllerActions.length; i++)
+            newProfile.addControllerAction(AxisInputs[i / 2].getControllerActionId(), controllerActions[i]);
+
+        return newProfile;
+    }
+
+    @Benchmark
+    public ControllerProfile createProfile() {
+
+        ControllerProfile newProfile = new ControllerProfile("Benchmark");
+        for (int i = 0; i < controllerActions.length; i++)
+            newProfile.addControllerAction(AxisInputs[i / 2].getControllerActionId(), controllerActions[i]);
+
+        return newProfile;
+    }
+
+    @Benchmark
+    public int legacyLookupMiss() {
+        return legacyProfile.getControllerActions(ControllerProfile.CONTROLLER_ACTION_A).size();
+    }
+
+    @Benchmark
+    public int lookupMiss() {
+        return profile.getControllerActionCount(ControllerInput.A);
+    }
+
+    @Benchmark
+    public void legacyLookupHit(Blackhole blackhole) {
+
+        for (int axis = 0; axis < AxisInputs.length; axis++) {
+            for (ControllerAction controllerAction : legacyProfile.getControllerActions(AxisInputs[axis].getControllerActionId()))
+                blackhole.consume(controllerAction.getChannel());
+        }
+    }
+
+    @Benchmark
+    public void lookupHit(Blackhole blackhole) {
+
+        for (int axis = 0; axis < AxisInputs.length; axis++) {
+            int controllerActionCount = profile.getControllerActionCount(AxisInputs[axis]);
+            for (int i = 0; i < controllerActionCount; i++)
+                blackhole.consume(profile.getControllerAction(AxisInputs[axis], i).getChannel());
+        }
+    }
+
+    //
+    // Legacy model
+    //
+
+    /**
+     * The former ControllerProfile data model, it logs like the former class did.
+     */
+    public static class LegacyControllerProfile {
+
+        private static final String TAG = LegacyControllerProfile.class.getSimpleName();
+
+        private String name;
+        private Map<String, Set<ControllerAction>> controllerActionMap = new HashMap<>();
+
+        LegacyControllerProfile(String name) {
+            Log.i(TAG, "ControllerProfile - " + name);
+            this.name = name;
+        }
+
+        Set<ControllerAction> getControllerActions(String controllerActionId) {
+
+            if (!controllerActionMap.containsKey(controllerActionId))
+                return new HashSet<>();
+
+            return controllerActionMap.get(controllerActionId);
+        }
+
+        void addControllerAction(String controllerActionId, ControllerAction controllerAction) {
+            Log.i(TAG, "setControllerAction - " + controllerActionId);
+
+            Set<ControllerAction> controllerActions;
+            if (controllerActionMap.containsKey(controllerActionId)) {
+                controllerActions = controllerActionMap.get(controllerActionId);
+            }
+            else {
+                controllerActions = new HashSet<>();
+                controllerActionMap.put(controllerActionId, controllerActions);
+            }
+
+            controllerActions.add(controllerAction);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and save times of the controller profile store with several hundred profiles.
+ * Every profile maps the 8 axes to 2 actions each, like a fully configured gamepad.
+ * loadIndex is the cold start load (index and raw records), loadAll also decodes every profile like the former startup.
+ * saveAll serializes every profile, saveOneChanged is the write-behind save after a single edit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ControllerProfileStoreBenchmark {
+
+    //
+    // Private members
+    //
+
+    private static final String[] AxisControllerActionIds = new String[] {
+            ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_DPAD_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_DPAD_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER
+    };
+
+    @Param({ "100", "300", "600" })
+    public int profileCount;
+
+    private File file;
+    private ControllerProfileStore store;
+    private List<ControllerProfile> profiles;
+    private Map<String, ControllerProfileInfo> infos;
+    private Map<String, byte[]> records;
+
+    //
+    // Setup
+    //
+
+    @Setup
+    public void setup() throws IOException {
+
+        profiles = new ArrayList<>();
+        for (int i = 0; i < profileCount; i++) {
+            ControllerProfile profile = new ControllerProfile("Profile " + i);
+            for (int axis = 0; axis < AxisControllerActionIds.length; axis++) {
+                profile.addControllerAction(AxisControllerActionIds[axis], new ControllerAction("00:07:80:00:00:0" + (axis % 3), axis % 4, false, false, 100));
+                profile.addControllerAction(AxisControllerActionIds[axis], new ControllerAction("00:07:80:00:00:0" + ((axis + 1) % 3), (axis + 1) % 4, true, false, 80));
+            }
+            profiles.add(profile);
+        }
+
+        infos = new LinkedHashMap<>();
+        records = new HashMap<>();
+        for (ControllerProfile profile : profiles) {
+            infos.put(profile.getName(), new ControllerProfileInfo(profile));
+            records.put(profile.getName(), ControllerProfileStore.toRecord(profile));
+        }
+
+        file = File.createTempFile("controller_profiles", ".dat");
+        store = new ControllerProfileStore(file);
+        store.save(infos, records);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public Map<String, ControllerProfileInfo> loadIndex() throws IOException {
+
+        Map<String, ControllerProfileInfo> loadedInfos = new LinkedHashMap<>();
+        store.load(loadedInfos, new HashMap<String, byte[]>());
+
+        return loadedInfos;
+    }
+
+    @Benchmark
+    public List<ControllerProfile> loadAll() throws IOException {
+
+        Map<String, byte[]> loadedRecords = new HashMap<>();
+        store.load(new LinkedHashMap<String, ControllerProfileInfo>(), loadedRecords);
+
+        List<ControllerProfile> loadedProfiles = new ArrayList<>();
+        for (Map.Entry<String, byte[]> kvp : loadedRecords.entrySet())
+            loadedProfiles.add(ControllerProfileStore.fromRecord(kvp.getKey(), kvp.getValue()));
+
+        return loadedProfiles;
+    }
+
+    @Benchmark
+    public void saveAll() throws IOException {
+
+        for (ControllerProfile profile : profiles)
+            records.put(profile.getName(), ControllerProfileStore.toRecord(profile));
+
+        store.save(infos, records);
+    }
+
+    @Benchmark
+    public void saveOneChanged() throws IOException {
+
+        ControllerProfile profile = profiles.get(profileCount / 2);
+        records.put(profile.getName(), ControllerProfileStore.toRecord(profile));
+
+        store.save(infos, records);
+    }
+}
@@ -0,0 +1,190 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per joystick event cost of the controller profile lookups.
+ * legacyRouting is the former ControllerActivity path (string keyed lookups, a map and boxed values per event),
+ * compiledRouting is the CompiledControllerProfile path ControllerActivity uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ControllerRoutingBenchmark {
+
+    //
+    // Private members
+    //
+
+    private static final String[] AxisControllerActionIds = new String[] {
+            ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_LEFT_JOY_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_JOY_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_DPAD_HORIZONTAL,
+            ControllerProfile.CONTROLLER_ACTION_DPAD_VERTICAL,
+            ControllerProfile.CONTROLLER_ACTION_LEFT_TRIGGER,
+            ControllerProfile.CONTROLLER_ACTION_RIGHT_TRIGGER
+    };
+
+    private ControllerProfile profile;
+    private CompiledControllerProfile compiledProfile;
+    private List<String> sbrickAddresses;
+
+    // Axis values of the simulated event
+    private final float[] axisValues = new float[] { 0.5f, -0.25f, 1.0f, -1.0f, 0.0f, 0.0f, 0.75f, 0.0f };
+
+    // Button channel values and work arrays of the compiled path
+    private Map<String, int[]> channelValuesMap;
+    private int[][] channelValues;
+    private int[] newChannelValues;
+    private boolean[] isNewChannelValueSet;
+    private boolean[] isSBrickTouched;
+
+    //
+    // Setup
+    //
+
+    @Setup
+    public void setup() {
+
+        // 3 SBricks, 2 actions for every axis
+        sbrickAddresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            sbrickAddresses.add("00:07:80:00:00:0" + i);
+
+        profile = new ControllerProfile("Benchmark");
+        for (int axis = 0; axis < AxisControllerActionIds.length; axis++) {
+            profile.addControllerAction(AxisControllerActionIds[axis], new ControllerAction(sbrickAddresses.get(axis % 3), axis % 4, false, false, 100));
+            profile.addControllerAction(AxisControllerActionIds[axis], new ControllerAction(sbrickAddresses.get((axis + 1) % 3), (axis + 1) % 4, true, false, 80));
+        }
+
+        compiledProfile = CompiledControllerProfile.compile(profile, sbrickAddresses);
+
+        channelValuesMap = new HashMap<>();
+        for (String address : sbrickAddresses)
+            channelValuesMap.put(address, new int[4]);
+
+        channelValues = new int[sbrickAddresses.size()][4];
+        newChannelValues = new int[sbrickAddresses.size() * 4];
+        isNewChannelValueSet = new boolean[sbrickAddresses.size() * 4];
+        isSBrickTouched = new boolean[sbrickAddresses.size()];
+    }
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public CompiledControllerProfile compileProfile() {
+        return CompiledControllerProfile.compile(profile, sbrickAddresses);
+    }
+
+    @Benchmark
+    public void legacyRouting(Blackhole blackhole) {
+
+        Map<String, Integer[]> channelNewValuesMap = new HashMap<>();
+
+        for (int axis = 0; axis < AxisControllerActionIds.length; axis++) {
+            for (ControllerAction controllerAction : profile.getControllerActions(AxisControllerActionIds[axis])) {
+
+                String sbrickAddress = controllerAction.getSBrickAddress();
+                int channel = controllerAction.getChannel();
+                int maxValue = (255 * controllerAction.getMaxOutput()) / 100;
+                int value = (int) (axisValues[axis] * (controllerAction.getInvert() ? -maxValue : maxValue));
+
+                if (Math.abs(value) < 10)
+                    value = 0;
+
+                if (!channelNewValuesMap.containsKey(sbrickAddress))
+                    channelNewValuesMap.put(sbrickAddress, new Integer[4]);
+
+                Integer oldValue = (channelNewValuesMap.get(sbrickAddress))[channel];
+                if (oldValue != null)
+                    value = Math.min(255, value + oldValue);
+
+                channelNewValuesMap.get(sbrickAddress)[channel] = new Integer(value);
+            }
+        }
+
+        for (String sbrickAddress : channelNewValuesMap.keySet()) {
+            int[] values = channelValuesMap.get(sbrickAddress);
+            Integer[] newValues = channelNewValuesMap.get(sbrickAddress);
+
+            int v0 = (newValues[0] != null && Math.abs(values[0]) < Math.abs(newValues[0])) ? newValues[0] : values[0];
+            int v1 = (newValues[1] != null && Math.abs(values[1]) < Math.abs(newValues[1])) ? newValues[1] : values[1];
+            int v2 = (newValues[2] != null && Math.abs(values[2]) < Math.abs(newValues[2])) ? newValues[2] : values[2];
+            int v3 = (newValues[3] != null && Math.abs(values[3]) < Math.abs(newValues[3])) ? newValues[3] : values[3];
+
+            blackhole.consume(v0 + v1 + v2 + v3);
+        }
+    }
+
+    @Benchmark
+    public void compiledRouting(Blackhole blackhole) {
+
+        Arrays.fill(isNewChannelValueSet, false);
+        Arrays.fill(isSBrickTouched, false);
+
+        for (int axis = 0; axis < CompiledControllerProfile.AXIS_COUNT; axis++) {
+            int routeEnd = compiledProfile.getAxisRouteEnd(axis);
+            for (int route = compiledProfile.getAxisRouteStart(axis); route < routeEnd; route++) {
+
+                int slot = compiledProfile.getAxisRouteSlot(route);
+                int index = slot * 4 + compiledProfile.getAxisRouteChannel(route);
+                int value = (int) (axisValues[axis] * compiledProfile.getAxisRouteScale(route));
+
+                if (Math.abs(value) < 10)
+                    value = 0;
+
+                if (isNewChannelValueSet[index])
+                    value = Math.min(255, value + newChannelValues[index]);
+
+                newChannelValues[index] = value;
+                isNewChannelValueSet[index] = true;
+                isSBrickTouched[slot] = true;
+            }
+        }
+
+        for (int slot = 0; slot < isSBrickTouched.length; slot++) {
+            if (!isSBrickTouched[slot])
+                continue;
+
+            int[] values = channelValues[slot];
+            int index = slot * 4;
+
+            int v0 = getChannelValue(values[0], index);
+            int v1 = getChannelValue(values[1], index + 1);
+            int v2 = getChannelValue(values[2], index + 2);
+            int v3 = getChannelValue(values[3], index + 3);
+
+            blackhole.consume(v0 + v1 + v2 + v3);
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private int getChannelValue(int value, int index) {
+
+        if (isNewChannelValueSet[index] && Math.abs(value) < Math.abs(newChannelValues[index]))
+            return newChannelValues[index];
+
+        return value;
+    }
+}
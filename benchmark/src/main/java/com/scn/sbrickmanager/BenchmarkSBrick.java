@@ -0,0 +1,108 @@
+package com.scn.sbrickmanager;
+
+import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SBrick for the benchmarks, it's always connected and acknowledges the writes immediately.
+ */
+class BenchmarkSBrick extends SBrickBase {
+
+    //
+    // Private members
+    //
+
+    private final String address;
+    private final AtomicLong writeCount = new AtomicLong();
+
+    //
+    // Constructor
+    //
+
+    BenchmarkSBrick(SBrickManagerBase sbrickManager, String address) {
+        super(null, sbrickManager);
+
+        this.address = address;
+        this.isConnected = true;
+        setName("BenchmarkSBrick");
+    }
+
+    //
+    // API
+    //
+
+    long getWriteCount() { return writeCount.get(); }
+
+    //
+    // SBrick overrides
+    //
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    //
+    // SBrickBase overrides
+    //
+
+    @Override
+    protected CommandMethod createConnectCommandMethod(boolean autoConnect) {
+        return null;
+    }
+
+    @Override
+    protected CommandMethod createDiscoverServicesCommandMethod() {
+        return null;
+    }
+
+    @Override
+    protected void abortConnection() {
+    }
+
+    @Override
+    protected CommandMethod createReadCharacteristicCommandMethod(SBrickCharacteristicType characteristicType) {
+        return null;
+    }
+
+    @Override
+    protected boolean writeRemoteControl(int channel, int value) {
+        onWriteCharacteristicDone();
+        writeCount.incrementAndGet();
+        sbrickManager.releaseCommandSemaphore(this, getExecutingOperationId());
+        return true;
+    }
+
+    @Override
+    protected boolean writeMultiDrive(int channelMask, int v0, int v1, int v2, int v3) {
+        onWriteCharacteristicDone();
+        writeCount.incrementAndGet();
+        sbrickManager.releaseCommandSemaphore(this, getExecutingOperationId());
+        return true;
+    }
+
+    @Override
+    protected boolean writeQuickDrive(int v0, int v1, int v2, int v3) {
+        onWriteCharacteristicDone();
+        writeCount.incrementAndGet();
+        sbrickManager.releaseCommandSemaphore(this, getExecutingOperationId());
+        return true;
+    }
+
+    @Override
+    protected boolean writeWatchdogTimeout(int timeoutMs) {
+        onWriteCharacteristicDone();
+        sbrickManager.releaseCommandSemaphore(this, getExecutingOperationId());
+        return true;
+    }
+
+    @Override
+    protected boolean isQuickDriveSupported() {
+        return true;
+    }
+}
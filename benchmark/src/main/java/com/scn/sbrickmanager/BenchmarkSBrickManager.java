@@ -0,0 +1,55 @@
+package com.scn.sbrickmanager;
+
+/**
+ * SBrick manager for the benchmarks, it creates BenchmarkSBricks.
+ */
+class BenchmarkSBrickManager extends SBrickManagerBase {
+
+    //
+    // Constructor
+    //
+
+    BenchmarkSBrickManager() {
+        super(null);
+    }
+
+    //
+    // SBrickManager overrides
+    //
+
+    @Override
+    public boolean isBLESupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isBluetoothOn() {
+        return true;
+    }
+
+    @Override
+    public boolean startSBrickScan() {
+        return false;
+    }
+
+    @Override
+    public void stopSBrickScan() {
+    }
+
+    @Override
+    public SBrick getSBrick(String sbrickAddress) {
+        return sbrickMap.get(sbrickAddress);
+    }
+
+    //
+    // SBrickManagerBase overrides
+    //
+
+    @Override
+    protected SBrick createSBrick(String sbrickAddress) {
+
+        SBrick sbrick = new BenchmarkSBrick(this, sbrickAddress);
+        SBrick existingSBrick = sbrickMap.putIfAbsent(sbrickAddress, sbrick);
+        return existingSBrick != null ? existingSBrick : sbrick;
+    }
+}
@@ -0,0 +1,94 @@
+package com.scn.sbrickmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the drive command path: value quantization, SBrick.sendCommand,
+ * the drive loop tick and the round trip through the command pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SBrickDriveBenchmark {
+
+    //
+    // Private members
+    //
+
+    private BenchmarkSBrickManager sbrickManager;
+    private BenchmarkSBrick sbrick;
+    private int value = 0;
+
+    //
+    // Setup
+    //
+
+    @Setup
+    public void setup() {
+        sbrickManager = new BenchmarkSBrickManager();
+        sbrick = (BenchmarkSBrick) sbrickManager.createSBrick("00:07:80:00:00:01");
+        sbrickManager.startCommandProcessing();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sbrickManager.stopCommandProcessing();
+    }
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public int quantizeValue() {
+        value = (value + 37) & 0x1ff;
+        return SBrickBase.quantizeValue(value - 255);
+    }
+
+    @Benchmark
+    public boolean sendCommandSingleChannel() {
+        value = (value + 8) & 0xff;
+        return sbrick.sendCommand(0, value);
+    }
+
+    @Benchmark
+    public boolean sendCommandAllChannels() {
+        value = (value + 8) & 0xff;
+        return sbrick.sendCommand(value, -value, value, -value);
+    }
+
+    @Benchmark
+    public boolean driveTick() {
+        value = (value + 8) & 0xff;
+        boolean result = sbrick.sendCommand(value, -value, value, -value);
+        sbrick.onDriveTick(System.nanoTime());
+        return result;
+    }
+
+    /**
+     * A changed value from the input to the acknowledged write, through the command pipeline thread.
+     */
+    @Benchmark
+    public long commandRoundTrip() {
+        value = (value + 8) & 0xff;
+        long writeCount = sbrick.getWriteCount();
+
+        sbrick.sendCommand(value, -value, value, -value);
+        sbrick.onDriveTick(System.nanoTime());
+
+        long newWriteCount;
+        while ((newWriteCount = sbrick.getWriteCount()) == writeCount)
+            Thread.yield();
+
+        return newWriteCount;
+    }
+}
@@ -0,0 +1,15 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Android Context stub for the JVM benchmarks.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getFilesDir();
+}
@@ -0,0 +1,21 @@
+package android.content;
+
+/**
+ * Android Intent stub for the JVM benchmarks.
+ */
+public class Intent {
+
+    private String action;
+
+    public Intent setAction(String action) {
+        this.action = action;
+        return this;
+    }
+
+    public String getAction() { return action; }
+
+    public Intent putExtra(String name, String value) { return this; }
+    public Intent putExtra(String name, int value) { return this; }
+    public Intent putExtra(String name, byte[] value) { return this; }
+    public Intent putExtra(String name, String[] value) { return this; }
+}
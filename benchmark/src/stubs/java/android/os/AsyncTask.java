@@ -0,0 +1,87 @@
+package android.os;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Android AsyncTask stub for the JVM tests of the mocks.
+ * doInBackground runs on the executor, onPostExecute and onCancelled on a single 'main' thread.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+    public static final Executor THREAD_POOL_EXECUTOR = Executors.newCachedThreadPool(newThreadFactory("AsyncTask"));
+    public static final Executor SERIAL_EXECUTOR = Executors.newSingleThreadExecutor(newThreadFactory("AsyncTaskSerial"));
+
+    private static final ExecutorService mainExecutor = Executors.newSingleThreadExecutor(newThreadFactory("main"));
+
+    private volatile boolean isCancelled = false;
+    private FutureTask<Result> future = null;
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPostExecute(Result result) {}
+
+    protected void onCancelled() {}
+
+    protected void onCancelled(Result result) { onCancelled(); }
+
+    public final boolean isCancelled() { return isCancelled; }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        isCancelled = true;
+        return future != null && future.cancel(mayInterruptIfRunning);
+    }
+
+    public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+        return executeOnExecutor(SERIAL_EXECUTOR, params);
+    }
+
+    public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor executor, final Params... params) {
+
+        future = new FutureTask<Result>(new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                return doInBackground(params);
+            }
+        }) {
+            @Override
+            protected void done() {
+                mainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Result result = null;
+                        try {
+                            if (!isCancelled)
+                                result = get();
+                        }
+                        catch (Exception ex) {
+                        }
+
+                        if (isCancelled)
+                            onCancelled(result);
+                        else
+                            onPostExecute(result);
+                    }
+                });
+            }
+        };
+
+        executor.execute(future);
+        return this;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Android Parcel stub for the JVM benchmarks, the benchmarks don't parcel anything.
+ */
+public final class Parcel {
+
+    public int readInt() { throw new UnsupportedOperationException(); }
+    public String readString() { throw new UnsupportedOperationException(); }
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) { throw new UnsupportedOperationException(); }
+
+    public void writeInt(int value) { throw new UnsupportedOperationException(); }
+    public void writeString(String value) { throw new UnsupportedOperationException(); }
+    public void writeParcelable(Parcelable p, int flags) { throw new UnsupportedOperationException(); }
+}
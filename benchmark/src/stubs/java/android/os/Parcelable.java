@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Android Parcelable stub for the JVM benchmarks.
+ */
+public interface Parcelable {
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+        T[] newArray(int size);
+    }
+
+    int describeContents();
+    void writeToParcel(Parcel dest, int flags);
+}
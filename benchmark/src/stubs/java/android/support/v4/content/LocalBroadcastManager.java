@@ -0,0 +1,16 @@
+package android.support.v4.content;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * LocalBroadcastManager stub for the JVM benchmarks, the broadcasts go nowhere.
+ */
+public final class LocalBroadcastManager {
+
+    private static final LocalBroadcastManager instance = new LocalBroadcastManager();
+
+    public static LocalBroadcastManager getInstance(Context context) { return instance; }
+
+    public boolean sendBroadcast(Intent intent) { return true; }
+}
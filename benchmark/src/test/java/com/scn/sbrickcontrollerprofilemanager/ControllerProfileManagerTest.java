@@ -0,0 +1,161 @@
+package com.scn.sbrickcontrollerprofilemanager;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the controller profile manager against a profile store in a temp directory.
+ */
+public class ControllerProfileManagerTest {
+
+    //
+    // Private members
+    //
+
+    private File filesDir;
+    private File storeFile;
+    private File backupFile;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() throws IOException {
+        filesDir = Files.createTempDirectory("profiles").toFile();
+        storeFile = new File(filesDir, "controller_profiles.dat");
+        backupFile = new File(filesDir, "controller_profiles.dat.bak");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : filesDir.listFiles())
+            file.delete();
+        filesDir.delete();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void corruptStoreIsBackedUpInsteadOfOverwritten() throws IOException {
+
+        byte[] corruptContent = new byte[] { 'n', 'o', 't', ' ', 'a', ' ', 's', 't', 'o', 'r', 'e' };
+        writeFile(storeFile, corruptContent);
+
+        ControllerProfileManager manager = newManager();
+        assertFalse(manager.loadProfiles());
+        assertTrue(manager.getProfileInfos().isEmpty());
+
+        // The save is done when saveProfiles returns.
+        manager.addOrUpdateProfile(new ControllerProfile("New profile"), null);
+        assertTrue(manager.saveProfiles());
+        assertTrue(storeFile.exists());
+
+        // The corrupt store is kept in the backup, the new store holds the new profile.
+        assertTrue(Arrays.equals(corruptContent, readFile(backupFile)));
+
+        ControllerProfileManager reloadedManager = newManager();
+        assertTrue(reloadedManager.loadProfiles());
+        assertEquals(1, reloadedManager.getProfileInfos().size());
+        assertNotNull(reloadedManager.getProfile("New profile"));
+    }
+
+    @Test
+    public void flushedProfilesAreSavedOnTheStoreThread() throws IOException, InterruptedException {
+
+        // An empty store, the profiles are loaded.
+        new ControllerProfileStore(storeFile).save(new HashMap<String, ControllerProfileInfo>(), new HashMap<String, byte[]>());
+        ControllerProfileManager manager = newManager();
+        assertTrue(manager.loadProfiles());
+
+        manager.addOrUpdateProfile(new ControllerProfile("New profile"), null);
+        manager.flushProfiles();
+
+        // Not waiting for the coalescing delay.
+        long deadline = System.currentTimeMillis() + 500;
+        while (!hasProfile("New profile") && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue("Flushed profile has not been saved.", hasProfile("New profile"));
+    }
+
+    @Test
+    public void savingIsBlockedAfterAFailedMigration() {
+
+        // There is no store and the former preferences can't be read (the stub context has none).
+        ControllerProfileManager manager = newManager();
+        assertFalse(manager.loadProfiles());
+
+        // The store would hide the profiles still waiting for the migration.
+        manager.addOrUpdateProfile(new ControllerProfile("New profile"), null);
+        assertFalse(manager.saveProfiles());
+        assertFalse(storeFile.exists());
+    }
+
+    //
+    // Private methods
+    //
+
+    private ControllerProfileManager newManager() {
+
+        return new ControllerProfileManager(new Context() {
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return null;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        });
+    }
+
+    private boolean hasProfile(String profileName) {
+
+        ControllerProfileManager reloadedManager = newManager();
+        return reloadedManager.loadProfiles() && reloadedManager.getProfile(profileName) != null;
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[(int) in.length()];
+            in.readFully(content);
+            return content;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
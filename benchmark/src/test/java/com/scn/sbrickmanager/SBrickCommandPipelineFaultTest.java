@@ -0,0 +1,207 @@
+package com.scn.sbrickmanager;
+
+import com.scn.sbrickmanager.sbrickcommand.Command;
+import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
+import com.scn.sbrickmanager.sbrickcommand.WriteCharacteristicCommand;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fault injection tests of the command pipeline, the GATT callbacks are lost or arrive late
+ * and the commands throw.
+ */
+public class SBrickCommandPipelineFaultTest {
+
+    //
+    // Private members
+    //
+
+    private static final int WriteTimeoutMs = 100;
+
+    private SBrickMockFixture fixture;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+        fixture.getManager().setOperationTimeout(SBrickOperationType.WriteCharacteristic, WriteTimeoutMs);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void pipelineRecoversFromDroppedCallbacks() {
+
+        final SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        assertTrue("SBrick has not got ready.", fixture.connect(sbrick));
+
+        // The writes never call back, every one of them times out.
+        sbrick.setDroppingCallbacks(true);
+        int value = SBrickBase.quantizeValue(100);
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+
+        boolean isTimedOut = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                return sbrick.getMetrics().getTimeoutCount() >= 2;
+            }
+        }, 1000);
+        assertTrue("Writes have not timed out.", isTimedOut);
+
+        // The callbacks are back, the pipeline goes on with the latest values.
+        sbrick.setDroppingCallbacks(false);
+        value = SBrickBase.quantizeValue(-200);
+        final int[] targetValues = new int[] { value, value, value, value };
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+
+        boolean isRecovered = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (sbrick.lockObject) {
+                    return Arrays.equals(targetValues, sbrick.channelValues);
+                }
+            }
+        }, 1000);
+        assertTrue("Pipeline has not recovered - " + sbrick.getMetrics(), isRecovered);
+    }
+
+    @Test
+    public void lateCallbackDoesNotReleaseTheNextOperation() {
+
+        final SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        final SBrickCommandPipeline pipeline = new SBrickCommandPipeline(fixture.getManager(), sbrick.getAddress());
+        pipeline.setCoalescing(false);
+
+        final List<Long> executeTimes = Collections.synchronizedList(new ArrayList<Long>());
+        final long[] firstOperationId = new long[1];
+
+        // The first operation's callback is lost.
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, new CommandMethod() {
+            @Override
+            public boolean execute() {
+                firstOperationId[0] = sbrick.getExecutingOperationId();
+                return true;
+            }
+        })));
+
+        // The first operation's callback arrives late, while the second one is in flight.
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, new CommandMethod() {
+            @Override
+            public boolean execute() {
+                pipeline.releaseCommandSemaphore(firstOperationId[0]);
+                return true;
+            }
+        })));
+
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, null)));
+
+        pipeline.start();
+        try {
+            boolean isDone = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+                @Override
+                boolean isMet() {
+                    return executeTimes.size() >= 3;
+                }
+            }, 1000);
+            assertTrue("Commands have not been executed.", isDone);
+        }
+        finally {
+            pipeline.stop();
+        }
+
+        // The second operation has been waiting for its own callback until it timed out.
+        long secondOperationMs = (executeTimes.get(2) - executeTimes.get(1)) / 1000000;
+        assertTrue("Second operation took " + secondOperationMs + " ms", secondOperationMs >= WriteTimeoutMs * 9 / 10);
+        assertEquals(2, sbrick.getMetrics().getTimeoutCount());
+    }
+
+    @Test
+    public void pipelineKeepsGoingAfterAThrowingCommand() {
+
+        final boolean[] isThrowing = new boolean[] { true };
+
+        // Throws before the operation is in flight.
+        final SBrickMock sbrick = new SBrickMock(null, fixture.getManager(), "00:07:80:00:00:01", "SBrick") {
+            @Override
+            void setLastWriteCommand(WriteCharacteristicCommand lastWriteCommand) {
+                if (isThrowing[0]) {
+                    isThrowing[0] = false;
+                    throw new IllegalStateException("setLastWriteCommand");
+                }
+                super.setLastWriteCommand(lastWriteCommand);
+            }
+        };
+        final SBrickCommandPipeline pipeline = new SBrickCommandPipeline(fixture.getManager(), sbrick.getAddress());
+        pipeline.setCoalescing(false);
+
+        final List<Long> executeTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, null)));
+
+        // Neither a quit nor an SBrick command.
+        assertTrue(pipeline.sendCommand(new Command() {}));
+
+        // Throws while the operation is in flight.
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, new CommandMethod() {
+            @Override
+            public boolean execute() {
+                throw new IllegalStateException("execute");
+            }
+        })));
+
+        assertTrue(pipeline.sendCommand(newWriteCommand(sbrick, executeTimes, null)));
+
+        pipeline.start();
+        try {
+            // The callbacks never arrive, only the operations that have been executed time out.
+            boolean isDone = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+                @Override
+                boolean isMet() {
+                    return executeTimes.size() >= 2;
+                }
+            }, 1000);
+            assertTrue("Pipeline has stopped processing the commands.", isDone);
+        }
+        finally {
+            pipeline.stop();
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    /**
+     * @return A write command that records its execution time and then runs the method (if any).
+     */
+    private static Command newWriteCommand(SBrickMock sbrick, final List<Long> executeTimes, final CommandMethod method) {
+
+        return Command.newWriteQuickDriveCommand(sbrick, new CommandMethod() {
+            @Override
+            public boolean execute() {
+                executeTimes.add(System.nanoTime());
+                return method == null || method.execute();
+            }
+        }, 0, 0, 0, 0);
+    }
+}
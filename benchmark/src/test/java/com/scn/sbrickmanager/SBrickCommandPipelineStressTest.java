@@ -0,0 +1,313 @@
+package com.scn.sbrickmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Concurrency stress test of the command pipelines and the scheduler against the SBrick mocks.
+ * Several input threads drive and read many SBricks while others connect, disconnect and drop them
+ * and the coalescing mode and the drive rate are switched, then every SBrick must settle to its last target values.
+ * How often the input threads get blocked on the per-SBrick locks is compared with how often they get blocked
+ * when every call is serialized by a single shared lock (like the former global manager lock).
+ * The blocked count is compared, the blocked time is mostly spinning (not counted) on a machine with few cores.
+ */
+public class SBrickCommandPipelineStressTest {
+
+    //
+    // Private members
+    //
+
+    private static final int SBrickCount = 24;
+    private static final int InputThreadCount = 4;
+    private static final int ConnectionThreadCount = 2;
+    private static final int StressTimeMs = 2000;
+    private static final long SettleTimeoutMs = 3000;
+
+    private SBrickMockFixture fixture;
+    private final List<SBrickMock> sbricks = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong inputBlockedCount = new AtomicLong();
+    private final AtomicLong inputBlockedTimeMs = new AtomicLong();
+    private volatile boolean isStopped = false;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+        fixture.getManager().setMaxParallelConnections(SBrickCount);
+
+        for (int i = 0; i < SBrickCount; i++) {
+            SBrickMock sbrick = fixture.createSBrick(String.format("00:07:80:00:00:%02X", i));
+            // Some SBricks call back on another thread, some right away on the pipeline thread.
+            sbrick.setWriteCallbackDelay(i % 2);
+            sbricks.add(sbrick);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        isStopped = true;
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void sbricksSettleToTheirLastTargetValues() throws InterruptedException {
+
+        assertTrue("SBricks have not got ready.", fixture.connect(sbricks.toArray(new SBrickMock[SBrickCount])));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < InputThreadCount; i++)
+            threads.add(newInputThread(i, null));
+        for (int i = 0; i < ConnectionThreadCount; i++)
+            threads.add(newConnectionThread(i));
+        threads.add(newModeSwitchThread());
+
+        runStress(threads);
+
+        // Every SBrick is connected again, the dropped ones may be still reconnecting.
+        assertTrue("SBricks have not got ready again.", fixture.connect(sbricks.toArray(new SBrickMock[SBrickCount])));
+
+        // The last targets of the SBricks, every SBrick is set from this thread only from now on.
+        final int[][] lastTargetValues = new int[SBrickCount][];
+        for (int i = 0; i < SBrickCount; i++) {
+            int value = SBrickBase.quantizeValue(8 + 10 * i);
+            lastTargetValues[i] = new int[] { value, -value, value, -value };
+            assertTrue(sbricks.get(i).sendCommand(value, -value, value, -value));
+        }
+
+        boolean isSettled = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                for (int i = 0; i < SBrickCount; i++) {
+                    if (!Arrays.equals(lastTargetValues[i], getChannelValues(sbricks.get(i))))
+                        return false;
+                }
+                return true;
+            }
+        }, SettleTimeoutMs);
+
+        for (int i = 0; i < SBrickCount; i++) {
+            SBrickMock sbrick = sbricks.get(i);
+            assertTrue("SBrick " + sbrick.getAddress() + " has not settled to " + Arrays.toString(lastTargetValues[i]) +
+                    ", it's at " + Arrays.toString(getChannelValues(sbrick)) + " - " + sbrick.getMetrics(), isSettled);
+            assertTrue(sbrick.getMetrics().getWriteCount() > 0);
+        }
+    }
+
+    @Test
+    public void perSBrickLocksContendLessThanASharedLock() throws InterruptedException {
+
+        assertTrue("SBricks have not got ready.", fixture.connect(sbricks.toArray(new SBrickMock[SBrickCount])));
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadContentionMonitoringSupported())
+            return;
+
+        threadBean.setThreadContentionMonitoringEnabled(true);
+        try {
+            String perSBrickContention = runContentionStress(null);
+            long perSBrickBlockedCount = inputBlockedCount.get();
+            String sharedLockContention = runContentionStress(new Object());
+            long sharedLockBlockedCount = inputBlockedCount.get();
+
+            assertTrue("Per-SBrick locks: " + perSBrickContention + ", shared lock: " + sharedLockContention,
+                    perSBrickBlockedCount < sharedLockBlockedCount);
+        }
+        finally {
+            threadBean.setThreadContentionMonitoringEnabled(false);
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private void runStress(List<Thread> threads) throws InterruptedException {
+
+        isStopped = false;
+
+        for (Thread thread : threads)
+            thread.start();
+
+        SBrickMockFixture.sleep(StressTimeMs);
+        isStopped = true;
+
+        for (Thread thread : threads) {
+            thread.join(1000);
+            assertTrue("Thread has not stopped (deadlock?): " + thread.getName(), !thread.isAlive());
+        }
+
+        assertNull("Stress thread has failed: " + failure.get(), failure.get());
+    }
+
+    /**
+     * Runs the input threads alone, with or without a shared lock around every call.
+     * @return The contention figures of the input threads: how many times and how long they have been blocked on a monitor.
+     */
+    private String runContentionStress(Object sharedLock) throws InterruptedException {
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < InputThreadCount; i++)
+            threads.add(newInputThread(i, sharedLock));
+
+        inputBlockedCount.set(0);
+        inputBlockedTimeMs.set(0);
+        runStress(threads);
+
+        return "blocked " + inputBlockedCount.get() + " times for " + inputBlockedTimeMs.get() + " ms";
+    }
+
+    private Thread newInputThread(final int index, final Object sharedLock) {
+
+        return new Thread("StressInput-" + index) {
+            @Override
+            public void run() {
+
+                Random random = new Random(index);
+
+                try {
+                    while (!isStopped) {
+                        SBrickMock sbrick = sbricks.get(random.nextInt(SBrickCount));
+                        int value = random.nextInt(511) - 255;
+                        int operation = random.nextInt(10);
+
+                        if (sharedLock == null) {
+                            input(sbrick, operation, value, random);
+                        }
+                        else {
+                            synchronized (sharedLock) {
+                                input(sbrick, operation, value, random);
+                            }
+                        }
+
+                        if (random.nextInt(100) == 0)
+                            Thread.sleep(1);
+                    }
+
+                    // The blocked time is -1 if the contention monitoring is off.
+                    ThreadInfo threadInfo = ManagementFactory.getThreadMXBean().getThreadInfo(getId());
+                    inputBlockedCount.addAndGet(threadInfo.getBlockedCount());
+                    if (threadInfo.getBlockedTime() > 0)
+                        inputBlockedTimeMs.addAndGet(threadInfo.getBlockedTime());
+                }
+                catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        };
+    }
+
+    private static void input(SBrickMock sbrick, int operation, int value, Random random) {
+
+        switch (operation) {
+            case 0:
+                sbrick.sendCommand(value, -value, value, -value);
+                break;
+
+            case 1:
+                sbrick.sendCommands(random.nextInt(16), value, value, -value, -value);
+                break;
+
+            case 2:
+                sbrick.readCharacteristic(SBrickCharacteristicType.FirmwareRevision);
+                break;
+
+            default:
+                sbrick.sendCommand(random.nextInt(4), value);
+                break;
+        }
+    }
+
+    /**
+     * Connects, disconnects and drops random SBricks while the input threads drive them.
+     */
+    private Thread newConnectionThread(final int index) {
+
+        return new Thread("StressConnection-" + index) {
+            @Override
+            public void run() {
+
+                Random random = new Random(100 + index);
+
+                try {
+                    while (!isStopped) {
+                        SBrickMock sbrick = sbricks.get(random.nextInt(SBrickCount));
+
+                        switch (random.nextInt(3)) {
+                            case 0:
+                                fixture.getManager().connectSBricks(Collections.<SBrick>singletonList(sbrick));
+                                break;
+
+                            case 1:
+                                sbrick.disconnect();
+                                break;
+
+                            default:
+                                sbrick.simulateConnectionLoss();
+                                break;
+                        }
+
+                        Thread.sleep(20);
+                    }
+                }
+                catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        };
+    }
+
+    private Thread newModeSwitchThread() {
+
+        return new Thread("StressModeSwitch") {
+            @Override
+            public void run() {
+
+                Random random = new Random();
+
+                try {
+                    while (!isStopped) {
+                        fixture.getManager().setCommandCoalescing(random.nextBoolean());
+                        fixture.getManager().setDriveRate(SBrickDriveLoop.MinRateHz + random.nextInt(SBrickDriveLoop.MaxRateHz));
+                        Thread.sleep(10);
+                    }
+
+                    fixture.getManager().setCommandCoalescing(true);
+                    fixture.getManager().setDriveRate(SBrickDriveLoop.DefaultRateHz);
+                }
+                catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        };
+    }
+
+    private static int[] getChannelValues(SBrickMock sbrick) {
+
+        synchronized (sbrick.lockObject) {
+            return sbrick.channelValues.clone();
+        }
+    }
+}
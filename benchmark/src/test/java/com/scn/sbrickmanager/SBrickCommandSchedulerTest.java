@@ -0,0 +1,73 @@
+package com.scn.sbrickmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the per-SBrick command pipelines against the SBrick mocks.
+ */
+public class SBrickCommandSchedulerTest {
+
+    //
+    // Private members
+    //
+
+    private static final int SlowWriteCallbackDelayMs = 100;
+    private static final int DriveTimeMs = 1000;
+    private static final int DriveStepMs = 20;
+
+    private SBrickMockFixture fixture;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void slowSBrickDoesNotDelayTheOthers() {
+
+        SBrickMock slowSBrick = fixture.createSBrick("00:07:80:00:00:01");
+        SBrickMock fastSBrick = fixture.createSBrick("00:07:80:00:00:02");
+        assertTrue("SBricks have not got ready.", fixture.connect(slowSBrick, fastSBrick));
+
+        slowSBrick.setWriteCallbackDelay(SlowWriteCallbackDelayMs);
+        slowSBrick.getMetrics().reset();
+        fastSBrick.getMetrics().reset();
+
+        // A new value on every step, the drive loop writes it on its next tick.
+        for (int step = 0; step < DriveTimeMs / DriveStepMs; step++) {
+            int value = (step % 2 == 0) ? 128 : -128;
+            slowSBrick.sendCommand(value, value, value, value);
+            fastSBrick.sendCommand(value, value, value, value);
+            SBrickMockFixture.sleep(DriveStepMs);
+        }
+
+        SBrickMetrics slowMetrics = slowSBrick.getMetrics();
+        SBrickMetrics fastMetrics = fastSBrick.getMetrics();
+
+        // The slow SBrick gets a write through per callback delay, the fast one keeps up with the steps.
+        long maxSlowWriteCount = DriveTimeMs / SlowWriteCallbackDelayMs + 1;
+        assertTrue("Slow SBrick writes: " + slowMetrics.getWriteCount(), slowMetrics.getWriteCount() <= maxSlowWriteCount);
+        assertTrue("Fast SBrick writes: " + fastMetrics.getWriteCount(), fastMetrics.getWriteCount() >= 3 * maxSlowWriteCount);
+
+        // The fast SBrick's writes are not waiting for the slow SBrick's callbacks.
+        long fastRoundTripP95Us = fastMetrics.getRoundTripHistogram().getPercentileUs(95);
+        assertTrue("Fast SBrick round trip p95: " + fastRoundTripP95Us + " us", fastRoundTripP95Us < SlowWriteCallbackDelayMs * 1000 / 2);
+    }
+}
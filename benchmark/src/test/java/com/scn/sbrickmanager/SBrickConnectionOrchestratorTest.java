@@ -0,0 +1,107 @@
+package com.scn.sbrickmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time-to-all-ready measurements of the connection orchestrator against the SBrick mocks.
+ */
+public class SBrickConnectionOrchestratorTest {
+
+    //
+    // Private members
+    //
+
+    private static final int SBrickCount = 3;
+    // The mock connects (auto connect + discover services) in this time.
+    private static final long MockConnectTimeMs = 1500 + 300;
+    // Longer than the mock's auto connect, only the failing SBrick times out.
+    private static final int FailingConnectTimeoutMs = 2500;
+
+    private SBrickMockFixture fixture;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void timeToAllReadyIsMeasured() {
+
+        SBrickMock[] sbricks = createSBricks();
+        assertEquals(-1, fixture.getManager().getTimeToAllReadyMs());
+
+        assertTrue("SBricks have not got ready.", fixture.connect(sbricks));
+
+        long timeToAllReadyMs = fixture.getManager().getTimeToAllReadyMs();
+        assertTrue("Time to all ready: " + timeToAllReadyMs + " ms", timeToAllReadyMs >= MockConnectTimeMs);
+        assertTrue("Time to all ready: " + timeToAllReadyMs + " ms", timeToAllReadyMs < SBrickMockFixture.ConnectTimeoutMs);
+        assertEquals(0, fixture.getManager().getFailedConnectionCount());
+    }
+
+    @Test
+    public void timeToAllReadyIsMeasuredWhenAnSBrickFails() {
+
+        SBrickMock[] sbricks = createSBricks();
+        fixture.getManager().setOperationTimeout(SBrickOperationType.Connect, FailingConnectTimeoutMs);
+        sbricks[0].setDroppingCallbacks(true);
+
+        List<SBrick> sbrickList = new ArrayList<>();
+        for (SBrickMock sbrick : sbricks)
+            sbrickList.add(sbrick);
+        assertTrue(fixture.getManager().connectSBricks(sbrickList));
+
+        // -1 while the SBricks are connecting.
+        assertEquals(-1, fixture.getManager().getTimeToAllReadyMs());
+
+        boolean isSettled = SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                return fixture.getManager().getTimeToAllReadyMs() >= 0;
+            }
+        }, SBrickMockFixture.ConnectTimeoutMs);
+        assertTrue("Time to all ready has not been measured.", isSettled);
+
+        assertEquals(SBrickConnectionState.Failed, sbricks[0].getConnectionState());
+        for (int i = 1; i < SBrickCount; i++)
+            assertEquals(SBrickConnectionState.Ready, sbricks[i].getConnectionState());
+
+        // The failure is included, it has settled the last.
+        long timeToAllReadyMs = fixture.getManager().getTimeToAllReadyMs();
+        assertTrue("Time to all ready: " + timeToAllReadyMs + " ms", timeToAllReadyMs >= FailingConnectTimeoutMs);
+        assertEquals(1, fixture.getManager().getFailedConnectionCount());
+    }
+
+    //
+    // Private methods
+    //
+
+    private SBrickMock[] createSBricks() {
+
+        SBrickMock[] sbricks = new SBrickMock[SBrickCount];
+        for (int i = 0; i < SBrickCount; i++)
+            sbricks[i] = fixture.createSBrick("00:07:80:00:00:0" + i);
+
+        return sbricks;
+    }
+}
@@ -0,0 +1,243 @@
+package com.scn.sbrickmanager;
+
+import com.scn.sbrickmanager.sbrickcommand.Command;
+import com.scn.sbrickmanager.sbrickcommand.CommandMethod;
+import com.scn.sbrickmanager.sbrickcommand.WriteQuickDriveCommand;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the drive commands, the reused (preallocated) ones and the stop frame.
+ */
+public class SBrickDriveCommandTest {
+
+    //
+    // Private members
+    //
+
+    private static final int DriveRateHz = 100;
+    private static final long WarmUpMs = 1000;
+    private static final long DriveMs = 2000;
+    // Independent of the number of events and ticks, it leaves room for the allocations of the measurement itself.
+    private static final long MaxAllocatedBytes = 2048;
+    // The input events come faster than the drive loop ticks.
+    private static final long EventPeriodNs = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private SBrickMockFixture fixture;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void reusedCommandIsNeverQueuedTwice() {
+
+        SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        RecordingPipeline recordingPipeline = new RecordingPipeline(sbrick);
+
+        WriteQuickDriveCommand reusedCommand = recordingPipeline.newCommand();
+        reusedCommand.setReused(true);
+
+        // Coalescing has been turned off while the SBrick was still reusing its command.
+        recordingPipeline.pipeline.setCoalescing(false);
+
+        reusedCommand.setValues(64, 64, 64, 64);
+        assertTrue(recordingPipeline.pipeline.sendCommand(reusedCommand));
+        reusedCommand.setValues(128, 128, 128, 128);
+        assertTrue(recordingPipeline.pipeline.sendCommand(reusedCommand));
+
+        // The second send has replaced the pending values, the command is written once with the latest ones.
+        assertEquals(Collections.singletonList(128), recordingPipeline.run(1));
+    }
+
+    @Test
+    public void newCommandsKeepTheirValuesInTheQueue() {
+
+        SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        RecordingPipeline recordingPipeline = new RecordingPipeline(sbrick);
+        recordingPipeline.pipeline.setCoalescing(false);
+
+        WriteQuickDriveCommand firstCommand = recordingPipeline.newCommand();
+        firstCommand.setValues(64, 64, 64, 64);
+        assertTrue(recordingPipeline.pipeline.sendCommand(firstCommand));
+
+        WriteQuickDriveCommand secondCommand = recordingPipeline.newCommand();
+        secondCommand.setValues(128, 128, 128, 128);
+        assertTrue(recordingPipeline.pipeline.sendCommand(secondCommand));
+
+        List<Integer> expectedValues = new ArrayList<>();
+        expectedValues.add(64);
+        expectedValues.add(128);
+        assertEquals(expectedValues, recordingPipeline.run(2));
+    }
+
+    @Test
+    public void coalescedDrivingDoesNotAllocate() {
+
+        SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        assertTrue("SBrick has not got ready.", fixture.connect(sbrick));
+        assertTrue(fixture.getManager().isCommandCoalescing());
+        fixture.getManager().setDriveRate(DriveRateHz);
+
+        // The input events, the drive loop ticks and the writes (frame building, latching, executing)
+        // run on these threads.
+        long[] threadIds = new long[] {
+                Thread.currentThread().getId(),
+                SBrickMockFixture.getThreadId("SBrickDriveLoop"),
+                SBrickMockFixture.getThreadId("SBrickCommandPipeline-" + sbrick.getAddress())
+        };
+        for (long threadId : threadIds)
+            assertTrue("Thread has not been found.", threadId > 0);
+
+        drive(sbrick, WarmUpMs);
+
+        long writeCount = sbrick.getMetrics().getWriteCount();
+        long allocatedBytes = getAllocatedBytes(threadIds);
+        drive(sbrick, DriveMs);
+        allocatedBytes = getAllocatedBytes(threadIds) - allocatedBytes;
+        writeCount = sbrick.getMetrics().getWriteCount() - writeCount;
+
+        // A new command or frame per event or per tick would be several kilobytes.
+        assertTrue("Only " + writeCount + " writes.", writeCount >= DriveRateHz * DriveMs / 1000 / 2);
+        assertTrue("Allocated " + allocatedBytes + " bytes in " + writeCount + " writes.", allocatedBytes < MaxAllocatedBytes);
+    }
+
+    @Test
+    public void stopClearsTheTargets() {
+
+        final SBrickMock sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        assertTrue("SBrick has not got ready.", fixture.connect(sbrick));
+
+        int value = SBrickBase.quantizeValue(100);
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+        assertTrue("Drive values have not been written.", waitForChannelValues(sbrick, new int[] { value, value, value, value }));
+
+        assertTrue(sbrick.stop());
+        assertTrue("Stop frame has not been written.", waitForChannelValues(sbrick, new int[] { 0, 0, 0, 0 }));
+
+        // The drive loop doesn't resend the old values.
+        SBrickMockFixture.sleep(300);
+        synchronized (sbrick.lockObject) {
+            assertTrue(Arrays.equals(new int[] { 0, 0, 0, 0 }, sbrick.channelValues));
+        }
+    }
+
+    //
+    // Private methods and classes
+    //
+
+    private static boolean waitForChannelValues(final SBrickMock sbrick, final int[] values) {
+
+        return SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (sbrick.lockObject) {
+                    return Arrays.equals(values, sbrick.channelValues);
+                }
+            }
+        }, 1000);
+    }
+
+    /**
+     * Changes the drive values on every event for the given time, the drive loop writes them at its rate.
+     */
+    private static void drive(SBrickMock sbrick, long durationMs) {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        for (int i = 0; System.nanoTime() < deadline; i++) {
+            int value = SBrickBase.quantizeValue((i % 511) - 255);
+            sbrick.sendCommand(value, -value, value, -value);
+            LockSupport.parkNanos(EventPeriodNs);
+        }
+    }
+
+    /**
+     * @return The bytes allocated by the threads so far, the query itself allocates a small array.
+     */
+    private static long getAllocatedBytes(long[] threadIds) {
+
+        long allocatedBytes = 0;
+        for (long threadAllocatedBytes : threadBean.getThreadAllocatedBytes(threadIds))
+            allocatedBytes += threadAllocatedBytes;
+
+        return allocatedBytes;
+    }
+
+    /**
+     * Pipeline whose commands record their latched v0 value when they are written.
+     */
+    private final class RecordingPipeline {
+
+        private final SBrickMock sbrick;
+        private final SBrickCommandPipeline pipeline;
+        private final List<Integer> writtenValues = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private RecordingPipeline(SBrickMock sbrick) {
+            this.sbrick = sbrick;
+            this.pipeline = new SBrickCommandPipeline(fixture.getManager(), sbrick.getAddress());
+        }
+
+        private WriteQuickDriveCommand newCommand() {
+
+            final WriteQuickDriveCommand[] command = new WriteQuickDriveCommand[1];
+            command[0] = Command.newWriteQuickDriveCommand(sbrick, new CommandMethod() {
+                @Override
+                public boolean execute() {
+                    writtenValues.add(command[0].getV0());
+                    pipeline.releaseCommandSemaphore(sbrick.getExecutingOperationId());
+                    return true;
+                }
+            }, 0, 0, 0, 0);
+
+            return command[0];
+        }
+
+        /**
+         * Starts the pipeline and waits for the expected number of writes (and a bit more for the unexpected ones).
+         * @return The written values.
+         */
+        private List<Integer> run(final int expectedWriteCount) {
+
+            pipeline.start();
+            SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+                @Override
+                boolean isMet() {
+                    return writtenValues.size() >= expectedWriteCount;
+                }
+            }, 1000);
+            SBrickMockFixture.sleep(100);
+            pipeline.stop();
+
+            return new ArrayList<>(writtenValues);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.scn.sbrickmanager;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SBrick manager mock with SBrick mocks for the tests, the command processing runs for real.
+ */
+class SBrickMockFixture {
+
+    //
+    // Private members
+    //
+
+    // The mock connects in DirectConnectDelayMs + DiscoverServicesDelayMs.
+    static final long ConnectTimeoutMs = 5000;
+
+    private final SBrickManagerMock sbrickManager = new SBrickManagerMock(new Context() {
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return null;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return null;
+        }
+    });
+
+    private final List<SBrickMock> sbricks = new ArrayList<>();
+
+    //
+    // Constructor
+    //
+
+    SBrickMockFixture() {
+        sbrickManager.startCommandProcessing();
+    }
+
+    //
+    // API
+    //
+
+    SBrickManagerMock getManager() { return sbrickManager; }
+
+    SBrickMock createSBrick(String address) {
+        SBrickMock sbrick = (SBrickMock) sbrickManager.createSBrick(address);
+        sbricks.add(sbrick);
+        return sbrick;
+    }
+
+    /**
+     * Connects the SBricks and waits until all of them are ready.
+     * @return True if all of them got ready within ConnectTimeoutMs.
+     */
+    boolean connect(SBrickMock... sbricksToConnect) {
+
+        final List<SBrick> sbrickList = new ArrayList<>();
+        for (SBrickMock sbrick : sbricksToConnect)
+            sbrickList.add(sbrick);
+
+        if (!sbrickManager.connectSBricks(sbrickList))
+            return false;
+
+        return waitFor(new Condition() {
+            @Override
+            boolean isMet() {
+                for (SBrick sbrick : sbrickList) {
+                    if (sbrick.getConnectionState() != SBrickConnectionState.Ready)
+                        return false;
+                }
+                return true;
+            }
+        }, ConnectTimeoutMs);
+    }
+
+    void close() {
+
+        for (SBrickMock sbrick : sbricks)
+            sbrick.disconnect();
+
+        sbrickManager.stopCommandProcessing();
+    }
+
+    /**
+     * @return The id of the thread with the name, -1 if there is no such thread.
+     */
+    static long getThreadId(String threadName) {
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(threadName))
+                return thread.getId();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Polls the condition until it's met or the timeout has elapsed.
+     * @return True if the condition has been met.
+     */
+    static boolean waitFor(Condition condition, long timeoutMs) {
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+
+            sleep(5);
+        }
+
+        return true;
+    }
+
+    static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static abstract class Condition {
+        abstract boolean isMet();
+    }
+}
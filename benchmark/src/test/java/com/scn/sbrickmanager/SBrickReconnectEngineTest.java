@@ -0,0 +1,129 @@
+package com.scn.sbrickmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time-to-resume measurements of the reconnect engine against the SBrick mocks.
+ */
+public class SBrickReconnectEngineTest {
+
+    //
+    // Private members
+    //
+
+    // The mock reconnects (direct connect + discover services) in this time.
+    private static final long MockReconnectTimeMs = 300 + 300;
+    // Longer than the mock's direct connect, only the dropped attempts time out.
+    private static final int FailingConnectTimeoutMs = 400;
+
+    private SBrickMockFixture fixture;
+    private SBrickMock sbrick;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+        sbrick = fixture.createSBrick("00:07:80:00:00:01");
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void shortDropoutReplaysTheDriveState() {
+
+        assertTrue("SBrick has not got ready.", fixture.connect(sbrick));
+
+        final int value = SBrickBase.quantizeValue(100);
+        final int[] targetValues = new int[] { value, -value, value, -value };
+        assertTrue(sbrick.sendCommand(value, -value, value, -value));
+        assertTrue("Drive values have not been written.", waitForChannelValues(targetValues));
+
+        sbrick.getMetrics().reset();
+        sbrick.simulateConnectionLoss();
+        assertTrue("SBrick has not resumed.", waitForResume());
+
+        long timeToResumeMs = sbrick.getMetrics().getTimeToResumeMs();
+        assertTrue("Time to resume: " + timeToResumeMs + " ms", timeToResumeMs >= MockReconnectTimeMs);
+        assertTrue("Time to resume: " + timeToResumeMs + " ms", timeToResumeMs <= SBrickReconnectEngine.TimeToResumeTargetMs);
+        assertEquals(1, sbrick.getMetrics().getReconnectAttemptCount());
+
+        assertTrue("Drive state has not been replayed.", waitForChannelValues(targetValues));
+    }
+
+    @Test
+    public void longDropoutStopsTheMotors() {
+
+        assertTrue("SBrick has not got ready.", fixture.connect(sbrick));
+
+        int value = SBrickBase.quantizeValue(100);
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+        assertTrue("Drive values have not been written.", waitForChannelValues(new int[] { value, value, value, value }));
+
+        // The first reconnection attempts time out.
+        fixture.getManager().setOperationTimeout(SBrickOperationType.Connect, FailingConnectTimeoutMs);
+        sbrick.setDroppingCallbacks(true);
+        sbrick.getMetrics().reset();
+        sbrick.simulateConnectionLoss();
+
+        SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                return sbrick.getMetrics().getReconnectAttemptCount() >= 2;
+            }
+        }, SBrickMockFixture.ConnectTimeoutMs);
+        sbrick.setDroppingCallbacks(false);
+
+        assertTrue("SBrick has not resumed.", waitForResume());
+
+        long timeToResumeMs = sbrick.getMetrics().getTimeToResumeMs();
+        assertTrue("Time to resume: " + timeToResumeMs + " ms", timeToResumeMs > SBrickReconnectEngine.MaxReplayDropoutMs);
+        assertTrue(sbrick.getMetrics().getReconnectAttemptCount() > 1);
+
+        // The targets have been cleared too, the drive loop doesn't start the motors again.
+        SBrickMockFixture.sleep(200);
+        assertTrue("Motors have not been stopped.", waitForChannelValues(new int[] { 0, 0, 0, 0 }));
+    }
+
+    //
+    // Private methods
+    //
+
+    private boolean waitForResume() {
+
+        return SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                return sbrick.getMetrics().getResumeCount() > 0;
+            }
+        }, SBrickMockFixture.ConnectTimeoutMs);
+    }
+
+    private boolean waitForChannelValues(final int[] values) {
+
+        return SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (sbrick.lockObject) {
+                    return Arrays.equals(values, sbrick.channelValues);
+                }
+            }
+        }, 1000);
+    }
+}
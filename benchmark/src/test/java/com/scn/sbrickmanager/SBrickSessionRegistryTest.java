@@ -0,0 +1,130 @@
+package com.scn.sbrickmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Session bookkeeping tests of the session service against the SBrick mocks.
+ */
+public class SBrickSessionRegistryTest {
+
+    //
+    // Private members
+    //
+
+    private SBrickMockFixture fixture;
+    private SBrickSessionRegistry registry;
+    private SBrickMock sbrick;
+    private List<SBrick> sbricks;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        fixture = new SBrickMockFixture();
+        registry = new SBrickSessionRegistry(fixture.getManager());
+        sbrick = fixture.createSBrick("00:07:80:00:00:01");
+        sbricks = Collections.<SBrick>singletonList(sbrick);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void sessionKeptOpenInTheBackgroundIsNotReleased() {
+
+        assertTrue(registry.open(sbricks));
+        assertTrue("SBrick has not got ready.", waitForReady());
+        int value = SBrickBase.quantizeValue(100);
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+
+        // Pause: the motors are stopped, the session stays open.
+        sbrick.stop();
+        assertTrue("Motors have not been stopped.", waitForChannelValues(new int[] { 0, 0, 0, 0 }));
+
+        // The idle grace period of another session has elapsed meanwhile.
+        assertFalse(registry.releaseIdleSBricks());
+        assertEquals(1, registry.getSessionCount());
+
+        // Resume: the same session drives the SBrick right away.
+        assertEquals(SBrickConnectionState.Ready, sbrick.getConnectionState());
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+        assertTrue("Drive values have not been written.", waitForChannelValues(new int[] { value, value, value, value }));
+    }
+
+    @Test
+    public void closedSessionIsWarmWithinTheGracePeriod() {
+
+        assertTrue(registry.open(sbricks));
+        assertTrue("SBrick has not got ready.", waitForReady());
+        int value = SBrickBase.quantizeValue(100);
+        assertTrue(sbrick.sendCommand(value, value, value, value));
+
+        // Pause: the closed session's SBrick is stopped and becomes idle.
+        registry.close(sbricks);
+        assertTrue("Motors have not been stopped.", waitForChannelValues(new int[] { 0, 0, 0, 0 }));
+
+        // Resume within the grace period: no reconnection.
+        assertTrue(registry.open(sbricks));
+        assertEquals(SBrickConnectionState.Ready, sbrick.getConnectionState());
+
+        // The SBrick is not idle any more.
+        assertFalse(registry.releaseIdleSBricks());
+        assertTrue(sbrick.isConnected());
+    }
+
+    @Test
+    public void idleSBrickIsReleasedAfterTheGracePeriod() {
+
+        assertTrue(registry.open(sbricks));
+        assertTrue("SBrick has not got ready.", waitForReady());
+
+        registry.close(sbricks);
+        assertTrue(registry.releaseIdleSBricks());
+        assertFalse(sbrick.isConnected());
+        assertEquals(0, registry.getSessionCount());
+    }
+
+    //
+    // Private methods
+    //
+
+    private boolean waitForReady() {
+
+        return SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                return sbrick.getConnectionState() == SBrickConnectionState.Ready;
+            }
+        }, SBrickMockFixture.ConnectTimeoutMs);
+    }
+
+    private boolean waitForChannelValues(final int[] values) {
+
+        return SBrickMockFixture.waitFor(new SBrickMockFixture.Condition() {
+            @Override
+            boolean isMet() {
+                synchronized (sbrick.lockObject) {
+                    return Arrays.equals(values, sbrick.channelValues);
+                }
+            }
+        }, 1000);
+    }
+}